@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing.runners;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonWriter;
+
+/* Q*cert Java runtime */
+import org.qcert.runtime.JavaQuery;
+
+/** Measures compiled Java queries over one input (typically TPC-H data at some scale factor).
+ *  The input is loaded once; each query is then run a number of times to warm up the JVM and a number of times
+ *  to measure it.  For each query, the report gives the latency of the measured runs (mean, minimum, median and
+ *  maximum), the throughput (measured runs per second) and the peak heap use during the measured runs.
+ *  The peak heap use is the sum of the peaks of the heap memory pools since the start of the measured runs, so it
+ *  includes the input (which is measured separately, after a collection, as the baseline) and garbage not yet collected.
+ *  A query which fails is reported with its error, and the others are still run.
+ *  <p>The report is printed, and with -results also added to a JSON array in the given file (created if need be),
+ *  each element labelled with -label, so that the runs of several scale factors can be collected in one file.
+ */
+public class BenchJava {
+
+    private static final int DEFAULT_WARMUP = 3;
+    private static final int DEFAULT_ITERATIONS = 10;
+
+    // Usage
+    private static void usage() {
+        System.err.println("Q*cert Java Benchmark requires the option -input, and the Java class names of the queries.\n"+
+                           "Options:\n"+
+                           " [-input filename] the input data (JSON, or the binary format of BinaryDataReader)\n"+
+                           " [-schema filename] the schema\n"+
+                           " [-warmup n] the number of runs of each query before measuring (default "+DEFAULT_WARMUP+")\n"+
+                           " [-iterations n] the number of measured runs of each query (default "+DEFAULT_ITERATIONS+")\n"+
+                           " [-label label] the label of the input in the results, e.g. its scale factor\n"+
+                           " [-results filename] a JSON file to which the results are added\n");
+    }
+
+    // Main
+    public static void main(String[] args) throws Exception {
+        String inputFile = null;
+        String schemaFile = null;
+        String resultsFile = null;
+        String label = null;
+        int warmup = DEFAULT_WARMUP;
+        int iterations = DEFAULT_ITERATIONS;
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-input".equals(arg)) { inputFile = args[i+1]; i++; }
+            else if ("-schema".equals(arg)) { schemaFile = args[i+1]; i++; }
+            else if ("-warmup".equals(arg)) { warmup = Integer.parseInt(args[i+1]); i++; }
+            else if ("-iterations".equals(arg)) { iterations = Integer.parseInt(args[i+1]); i++; }
+            else if ("-label".equals(arg)) { label = args[i+1]; i++; }
+            else if ("-results".equals(arg)) { resultsFile = args[i+1]; i++; }
+            else queries.add(arg);
+        }
+        if (inputFile == null || queries.isEmpty() || iterations < 1) {
+            usage();
+            System.exit(1);
+        }
+
+        // Load the input once, for all the queries
+        long start = System.nanoTime();
+        QIO qio = new QIO(schemaFile, inputFile, null);
+        double loadMillis = millis(System.nanoTime() - start);
+        long inputHeap = usedHeapAfterGC();
+        System.out.println(String.format("Loaded %s in %.1f ms (%.1f MB of heap)", inputFile, loadMillis, inputHeap / 1e6));
+
+        JsonArray results = new JsonArray();
+        for (String queryClassName : queries) {
+            JsonObject result = new JsonObject();
+            if (label != null)
+                result.addProperty("label", label);
+            result.addProperty("query", queryClassName);
+            result.addProperty("loadMs", loadMillis);
+            result.addProperty("inputHeapBytes", inputHeap);
+            try {
+                @SuppressWarnings("unchecked")
+                final Class<JavaQuery> queryClass = (Class<JavaQuery>) Class.forName(queryClassName);
+                measure(queryClass.newInstance(), qio, warmup, iterations, result);
+                System.out.println(String.format("[%s java] mean %.2f ms, min %.2f ms, median %.2f ms, max %.2f ms, %.2f runs/s, peak heap %.1f MB",
+                                                 queryClassName, get(result, "meanMs"), get(result, "minMs"), get(result, "medianMs"),
+                                                 get(result, "maxMs"), get(result, "runsPerSecond"), get(result, "peakHeapBytes") / 1e6));
+            } catch (Exception | LinkageError | OutOfMemoryError e) {
+                result.addProperty("error", e.toString());
+                System.out.println("["+queryClassName+" java] ERROR " + e);
+            }
+            results.add(result);
+        }
+        if (resultsFile != null)
+            appendResults(new File(resultsFile), results);
+    }
+
+    // Runs one query and records its measurements
+    private static void measure(JavaQuery query, QIO qio, int warmup, int iterations, JsonObject result) {
+        for (int i = 0; i < warmup; i++)
+            RunJava.runQuery(query, qio);
+        usedHeapAfterGC();
+        List<MemoryPoolMXBean> pools = heapPools();
+        for (MemoryPoolMXBean pool : pools)
+            pool.resetPeakUsage();
+        long[] times = new long[iterations];
+        long total = 0;
+        JsonElement answer = null;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            answer = RunJava.runQuery(query, qio);
+            times[i] = System.nanoTime() - start;
+            total += times[i];
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools)
+            peak += pool.getPeakUsage().getUsed();
+        Arrays.sort(times);
+        result.addProperty("warmup", warmup);
+        result.addProperty("iterations", iterations);
+        result.addProperty("meanMs", millis(total) / iterations);
+        result.addProperty("minMs", millis(times[0]));
+        result.addProperty("medianMs", (millis(times[(iterations - 1) / 2]) + millis(times[iterations / 2])) / 2);
+        result.addProperty("maxMs", millis(times[iterations - 1]));
+        result.addProperty("runsPerSecond", iterations / (total / 1e9));
+        result.addProperty("peakHeapBytes", peak);
+        result.addProperty("resultSize", answer.isJsonArray() ? answer.getAsJsonArray().size() : 1);
+    }
+
+    // Adds the results to those already in the file, if any
+    private static void appendResults(File file, JsonArray results) throws IOException {
+        JsonArray all = new JsonArray();
+        if (file.exists() && file.length() > 0) {
+            try (Reader reader = new FileReader(file)) {
+                all.addAll(new JsonParser().parse(reader).getAsJsonArray());
+            }
+        }
+        all.addAll(results);
+        try (Writer writer = new FileWriter(file)) {
+            JsonWriter json = new JsonWriter(writer);
+            json.setIndent("  ");
+            Streams.write(all, json);
+            json.flush();
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pools.add(pool);
+        }
+        return pools;
+    }
+
+    private static long usedHeapAfterGC() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double get(JsonObject result, String name) {
+        return result.get(name).getAsDouble();
+    }
+}
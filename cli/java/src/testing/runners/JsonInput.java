@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing.runners;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/** Streaming access to JSON files, built on JsonReader
+ */
+public class JsonInput {
+    private JsonInput() {
+    }
+
+    /**
+     * Opens a (UTF-8) JSON file for streaming
+     * @param file the path to the file
+     * @return a reader positioned before the top-level value
+     */
+    public static JsonReader open(String file) throws IOException {
+        JsonReader rdr = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)));
+        rdr.setLenient(true);
+        return rdr;
+    }
+
+    /**
+     * Reads a complete value
+     * @param rdr the reader, positioned before the value
+     * @return the value
+     */
+    public static JsonElement read(JsonReader rdr) throws IOException {
+        return Streams.parse(rdr);
+    }
+
+    /**
+     * Moves a reader into nested objects, following a path of field names
+     * @param rdr the reader, positioned before an object
+     * @param path the names of the fields to enter
+     * @return true if the reader is now positioned before the value at the end of the path,
+     *   false if some field is missing
+     */
+    public static boolean seek(JsonReader rdr, List<String> path) throws IOException {
+        for (String name : path) {
+            if (rdr.peek() != JsonToken.BEGIN_OBJECT)
+                return false;
+            rdr.beginObject();
+            boolean found = false;
+            while (rdr.hasNext()) {
+                if (rdr.nextName().equals(name)) {
+                    found = true;
+                    break;
+                }
+                rdr.skipValue();
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+}
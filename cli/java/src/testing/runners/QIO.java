@@ -13,50 +13,84 @@
  */
 package testing.runners;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.internal.bind.JsonTreeReader;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/* Q*cert Java runtime */
+import org.qcert.runtime.BinaryDataReader;
 
 /** Content of I/O files
+ *  The input and output files (but not I/O files) may also be in the binary format
+ *  read by BinaryDataReader.
+ *  The input is always read as a complete tree, since compiled queries take it as a
+ *  JsonObject; only the expected output can be left in the file and compared as it is
+ *  read back (see {@link #openOutput()}).
  */
 public class QIO {
     JsonObject _schema;
     JsonArray _inheritance;
     JsonElement[] _output;
     JsonObject _input;
+    // Where the expected output is, when it is left in the file
+    String _outputFile;
+    List<String> _outputPath;
     /**
      * Parse the I/O file containing schema, input and output in JSON
      * @param ioFile the path to the I/O file
      * @return a QIO object
      */
     QIO(String ioFile) throws IOException {
-        JsonElement rawIo = new JsonParser().parse(new FileReader(ioFile));
-        if (rawIo.isJsonObject()) {
+        this(ioFile, false);
+    }
+
+    /**
+     * Parse the I/O file containing schema, input and output in JSON
+     * @param ioFile the path to the I/O file
+     * @param streamOutput whether to leave the expected output in the file, see {@link #openOutput()}
+     * @return a QIO object
+     */
+    QIO(String ioFile, boolean streamOutput) throws IOException {
+        try (JsonReader rdr = JsonInput.open(ioFile)) {
             // All acceptable input formats are JSON objects
-            JsonObject io = rawIo.getAsJsonObject();
-            // Attempt to obtain inheritance (else use empty array)
-            if (io.has("schema")) {
-                _schema = io.get("schema").getAsJsonObject();
-                if (_schema.has("inheritance"))
-                    _inheritance = _schema.get("inheritance").getAsJsonArray();
-            }
-            if (_inheritance == null)
-                _inheritance = new JsonArray();
-            // Attempt to obtain output (else leave output argument as is)
-            _output = new JsonElement[1];
-            if (io.has("output")) {
-                _output[0]= io.get("output");
+            if (rdr.peek() != JsonToken.BEGIN_OBJECT)
+                return;
+            rdr.beginObject();
+            while (rdr.hasNext()) {
+                String name = rdr.nextName();
+                if ("schema".equals(name))
+                    _schema = JsonInput.read(rdr).getAsJsonObject();
+                else if ("output".equals(name)) {
+                    if (streamOutput) {
+                        _outputFile = ioFile;
+                        _outputPath = Collections.singletonList("output");
+                        rdr.skipValue();
+                    } else {
+                        _output = new JsonElement[] { JsonInput.read(rdr) };
+                    }
+                }
+                else if ("input".equals(name))
+                    // Let input contain just the input object
+                    _input = JsonInput.read(rdr).getAsJsonObject();
+                else
+                    rdr.skipValue();
             }
-            // Let input contain just the input object
-            if (io.has("input"))
-                _input = io.get("input").getAsJsonObject();
         }
+        // Attempt to obtain inheritance (else use empty array)
+        if (_schema != null && _schema.has("inheritance"))
+            _inheritance = _schema.get("inheritance").getAsJsonArray();
+        if (_inheritance == null)
+            _inheritance = new JsonArray();
+        // Attempt to obtain output (else leave output argument as is)
+        if (_output == null)
+            _output = new JsonElement[1];
     }
 
     /**
@@ -67,14 +101,32 @@ public class QIO {
      * @return a QIO object
      */
     QIO(String schemaFile, String inputFile, String outputFile) throws IOException {
+        this(schemaFile, inputFile, outputFile, false);
+    }
+
+    /**
+     * Parse the files containing schema, input and output in JSON
+     * @param schemaFile the path to the schema file
+     * @param inputFile the path to the input file
+     * @param outputFile the path to the output file
+     * @param streamOutput whether to leave the expected output in the file, see {@link #openOutput()}
+     * @return a QIO object
+     */
+    QIO(String schemaFile, String inputFile, String outputFile, boolean streamOutput) throws IOException {
         if (inputFile == null) throw new IllegalArgumentException("Must have input file");
         // Set the input
-        JsonElement rawInput = new JsonParser().parse(new FileReader(inputFile));
-        _input = rawInput.getAsJsonObject();
+        if (BinaryDataReader.isBinary(inputFile)) {
+            _input = BinaryDataReader.open(inputFile).read().getAsJsonObject();
+        } else {
+            try (JsonReader rdr = JsonInput.open(inputFile)) {
+                _input = JsonInput.read(rdr).getAsJsonObject();
+            }
+        }
         // Set the schema and inheritance
         if (schemaFile != null) {
-            JsonElement rawSchema = new JsonParser().parse(new FileReader(schemaFile));
-            _schema = rawSchema.getAsJsonObject();
+            try (JsonReader rdr = JsonInput.open(schemaFile)) {
+                _schema = JsonInput.read(rdr).getAsJsonObject();
+            }
             if (_schema.has("inheritance"))
                 _inheritance = _schema.get("inheritance").getAsJsonArray();
         }
@@ -82,9 +134,15 @@ public class QIO {
             _inheritance = new JsonArray();
         // Set the output
         _output = new JsonElement[1];
-        if (outputFile != null) {
-            JsonElement rawOutput = new JsonParser().parse(new FileReader(outputFile));
-            _output[0]= rawOutput;
+        if (outputFile != null && BinaryDataReader.isBinary(outputFile)) {
+            _output[0] = BinaryDataReader.open(outputFile).read();
+        } else if (outputFile != null && streamOutput) {
+            _outputFile = outputFile;
+            _outputPath = Collections.emptyList();
+        } else if (outputFile != null) {
+            try (JsonReader rdr = JsonInput.open(outputFile)) {
+                _output[0] = JsonInput.read(rdr);
+            }
         }
     }
 
@@ -103,6 +161,35 @@ public class QIO {
         return _output;
     }
 	
+    // Whether there is an expected output
+    public boolean hasOutput() {
+        return (_output != null && _output[0] != null) || _outputFile != null;
+    }
+
+    /**
+     * Access to the expected output, whether it was read or left in the file
+     * @return a reader positioned before the expected output, or null if there is none
+     */
+    public JsonReader openOutput() throws IOException {
+        if (_outputFile == null)
+            return (_output == null || _output[0] == null) ? null : new JsonTreeReader(_output[0]);
+        JsonReader rdr = JsonInput.open(_outputFile);
+        if (!JsonInput.seek(rdr, _outputPath)) {
+            rdr.close();
+            return null;
+        }
+        return rdr;
+    }
+
+    // Where the expected output was looked for, for error messages
+    public String getOutputLocation() {
+        if (_outputFile == null)
+            return "(none)";
+        if (_outputPath.isEmpty())
+            return _outputFile;
+        return _outputFile + " (field " + String.join(".", _outputPath) + ")";
+    }
+
     // Return input
     public JsonObject getInput() {
         return _input;
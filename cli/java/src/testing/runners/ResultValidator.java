@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing.runners;
+
+import java.io.IOException;
+
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/* Q*cert Java runtime */
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.DataMultiset;
+
+/** Checks a query result against the expected output in one pass.
+ *  The elements of a bag result are collected (as they are produced) in a hash multiset,
+ *  and the elements of the expected bag are then read one at a time and removed from it,
+ *  so neither bag needs to be sorted nor the expected output held in memory.
+ *  Bags are compared as by BinaryOperators.equals.
+ */
+public class ResultValidator {
+    private final DataMultiset actual = new DataMultiset();
+    private JsonElement scalar = null;
+    private String mismatch = null;
+
+    /**
+     * Sets the complete result
+     * @param result the result
+     */
+    public void setResult(JsonElement result) {
+        if (result.isJsonArray())
+            actual.addAll(result.getAsJsonArray());
+        else
+            scalar = result;
+    }
+
+    /**
+     * Compares the result with the expected output
+     * @param expected a reader positioned before the expected output
+     * @return true if they are equal
+     */
+    public boolean validate(JsonReader expected) throws IOException {
+        if (scalar != null || expected.peek() != JsonToken.BEGIN_ARRAY) {
+            JsonElement output = JsonInput.read(expected);
+            JsonElement result = scalar;
+            if (result == null) {
+                // Bag result, scalar expected output
+                mismatch = "Expected:\n" + output;
+                return false;
+            }
+            if (BinaryOperators.equals(result, output).getAsBoolean())
+                return true;
+            mismatch = "Actual:\n" + result + "\nExpected:\n" + output;
+            return false;
+        }
+        expected.beginArray();
+        long count = 0;
+        while (expected.hasNext()) {
+            JsonElement elem = JsonInput.read(expected);
+            count++;
+            if (!actual.remove(elem)) {
+                mismatch = "Expected element (#" + count + ") missing from the result:\n" + elem;
+                return false;
+            }
+        }
+        expected.endArray();
+        if (actual.size() != 0) {
+            mismatch = actual.size() + " element(s) of the result not in the expected output, e.g.:\n" + actual.anyElement();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a description of the difference found by {@link #validate(JsonReader)}, if any
+     */
+    public String getMismatch() {
+        return mismatch;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing.runners;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.JsonElement;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonWriter;
+
+/** Writes query results as JSON, a bag element at a time,
+ *  rather than building the text of the whole result first
+ */
+public class ResultWriter {
+    private final Writer out;
+    private final JsonWriter writer;
+
+    public ResultWriter(OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.writer = new JsonWriter(this.out);
+        // Same settings as JsonElement.toString()
+        this.writer.setLenient(true);
+    }
+
+    /**
+     * Writes a complete result
+     * @param result the result
+     */
+    public void write(JsonElement result) throws IOException {
+        Streams.write(result, writer);
+        finish();
+    }
+
+    private void finish() throws IOException {
+        writer.flush();
+        out.write(System.lineSeparator());
+        out.flush();
+    }
+}
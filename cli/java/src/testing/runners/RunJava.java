@@ -24,6 +24,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 
 /* Q*cert Java runtime */
 import org.qcert.runtime.Inheritance;
@@ -42,9 +43,9 @@ public class RunJava {
 	System.err.println("Q*cert Javascript Runner requires the option -input or -io, and the Java class name.\n"+
 			   "Options:\n"+
 			   " [-io filename] a JSON object containing the input data, the schema and the expected output\n"+
-			   " [-input filename] the input data\n"+
+			   " [-input filename] the input data (JSON, or the binary format of BinaryDataReader)\n"+
 			   " [-schema filename] the schema\n"+
-			   " [-output filename] the expected output\n");
+			   " [-output filename] the expected output (JSON, or the binary format of BinaryDataReader)\n");
     }
 
     // Running the Query
@@ -75,36 +76,41 @@ public class RunJava {
 	    else {
 		// Load input JSON, which may include schema (inheritance) and output
 		// Must have a -input or -io option for the input JSON
-		JsonElement output = null;
 		QIO qio = null;
 		if (ioFile != null) {
-		    qio = new QIO(ioFile);
+		    qio = new QIO(ioFile, true);
 		} else if (inputFile != null) {
-		    qio = new QIO(schemaFile, inputFile, outputFile);
+		    qio = new QIO(schemaFile, inputFile, outputFile, true);
 		} else {
 		    throw new IllegalArgumentException("Input Data File Missing");
 		}
-		output = (qio.getOutput())[0];
 		final String queryClassName = arg;
 		@SuppressWarnings("unchecked")
 		    final Class<JavaQuery> queryClass = (Class<JavaQuery>) Class.forName(queryClassName);
 		final JavaQuery query = queryClass.newInstance();
-		JsonElement result = runQuery(query, qio);
 		// Validate the result
-		if (output == null) {
-		    // Print the result
-		    System.out.println(result);
+		if (!qio.hasOutput()) {
+		    // Print the result, as it is produced
+		    new ResultWriter(System.out).write(runQuery(query, qio));
 		} else {
-		    Boolean valid = BinaryOperators.equals(result, output).getAsBoolean();
+		    // Compare the result with the expected output, read as a stream
+		    ResultValidator validator = new ResultValidator();
+		    validator.setResult(runQuery(query, qio));
+		    boolean valid;
+		    try (JsonReader expected = qio.openOutput()) {
+			if (expected == null) {
+			    System.out.println("["+arg+" java] ERROR");
+			    System.out.println("No expected output at " + qio.getOutputLocation());
+			    System.exit(1);
+			}
+			valid = validator.validate(expected);
+		    }
 		    if (valid) {
 			System.out.println("["+arg+" java] OK");
 		    } else {
 			System.out.println("["+arg+" java] ERROR");
-			System.out.println("Actual:");
-			System.out.println(result);
-			System.out.println("Expected:");
-			System.out.println(output);
-      System.exit(1);
+			System.out.println(validator.getMismatch());
+			System.exit(1);
 		    }
 		}
 	    }
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing.runners;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/** Checks that ResultValidator compares bags as multisets and other values as BinaryOperators.equals
+ */
+public class ResultValidatorTest {
+
+    private static ResultValidator validator(String result) {
+        ResultValidator validator = new ResultValidator();
+        validator.setResult(new JsonParser().parse(result));
+        return validator;
+    }
+
+    private static boolean valid(String result, String expected) throws IOException {
+        return validator(result).validate(new JsonReader(new StringReader(expected)));
+    }
+
+    @Test
+    public void bagsInAnyOrder() throws IOException {
+        assertTrue(valid("[1, 2, 3]", "[3, 1, 2]"));
+        assertTrue(valid("[]", "[]"));
+        assertTrue(valid("[{\"a\":1,\"b\":\"x\"}, [1, 2]]", "[[1, 2], {\"b\":\"x\",\"a\":1}]"));
+    }
+
+    @Test
+    public void bagsCountDuplicates() throws IOException {
+        assertFalse(valid("[1, 1, 2]", "[1, 2, 2]"));
+        assertFalse(valid("[1, 2]", "[1, 1, 2]"));
+        assertFalse(valid("[1, 1, 2]", "[1, 2]"));
+        assertTrue(valid("[2, 1, 2]", "[2, 2, 1]"));
+    }
+
+    @Test
+    public void missingElementIsReported() throws IOException {
+        ResultValidator validator = validator("[1, 2]");
+        assertFalse(validator.validate(new JsonReader(new StringReader("[1, 2, \"three\"]"))));
+        assertTrue(validator.getMismatch(), validator.getMismatch().contains("(#3)"));
+        assertTrue(validator.getMismatch(), validator.getMismatch().contains("three"));
+    }
+
+    @Test
+    public void extraElementIsReported() throws IOException {
+        ResultValidator validator = validator("[1, \"four\", 2]");
+        assertFalse(validator.validate(new JsonReader(new StringReader("[2, 1]"))));
+        assertTrue(validator.getMismatch(), validator.getMismatch().startsWith("1 element(s)"));
+        assertTrue(validator.getMismatch(), validator.getMismatch().contains("four"));
+    }
+
+    @Test
+    public void scalars() throws IOException {
+        assertTrue(valid("1", "1"));
+        assertTrue(valid("\"a\"", "\"a\""));
+        assertTrue(valid("{\"a\":[1],\"b\":null}", "{\"b\":null,\"a\":[1]}"));
+        assertFalse(valid("1", "2"));
+        assertFalse(valid("\"a\"", "\"b\""));
+        assertFalse(valid("{\"a\":1}", "{\"a\":1,\"b\":2}"));
+        ResultValidator validator = validator("true");
+        assertFalse(validator.validate(new JsonReader(new StringReader("false"))));
+        assertTrue(validator.getMismatch(), validator.getMismatch().startsWith("Actual:\ntrue\nExpected:\nfalse"));
+    }
+
+    @Test
+    public void bagAgainstScalar() throws IOException {
+        assertFalse(valid("[1]", "1"));
+        assertFalse(valid("1", "[1]"));
+    }
+
+    @Test
+    public void noMismatchWhenValid() throws IOException {
+        ResultValidator validator = validator("[1, 2]");
+        assertTrue(validator.validate(new JsonReader(new StringReader("[2, 1]"))));
+        assertNull(validator.getMismatch());
+    }
+}
@@ -226,8 +226,8 @@ Section CompDriver.
     Definition nnrc_to_dnnrc (inputs_loc: vdbindings) (q: nnrc) : dnnrc :=
       nnrc_to_dnnrc_top inputs_loc q.
 
-    Definition nnrc_to_java (class_name:string) (imports:string) (q: nnrc) : java := (* XXX Expands GroupBy For now XXX *)
-      lift_nnrc_core (nnrc_to_java_top class_name imports) (nnrc_to_nnrc_core q).
+    Definition nnrc_to_java (class_name:string) (imports:string) (q: nnrc) : java := (* GroupBy is evaluated by the runtime *)
+      nnrc_to_java_top class_name imports q.
 
     (** NNRCMR translations *)
     Definition nnrcmr_to_nnrc (q: nnrcmr) : option nnrc := nnrc_of_nnrcmr_top q.
@@ -143,13 +143,173 @@ Section NNRCtoJava.
          | FloatGe => "float_ge"
          end.
 
-    Definition like_clause_to_java (lc:like_clause)
-      := match lc with
-         | like_literal literal => ^"new UnaryOperators.LiteralLikeClause(" +++ (mk_java_string (^literal)) +++ ^")"
-         | like_any_char => ^"new UnaryOperators.AnyCharLikeClause()"
-         | like_any_string => ^"new UnaryOperators.AnyStringLikeClause()"
+    (* Each LIKE pattern is compiled once, into a constant of the generated class
+       (see like_matcher_fields), named after the character codes of the pattern *)
+    Fixpoint like_pattern_code (pat:string) : string
+      := match pat with
+         | EmptyString => EmptyString
+         | String a pat' => "_" ++ nat_to_string16 (nat_of_ascii a) ++ like_pattern_code pat'
          end.
+
+    Definition like_matcher_name (pat:string) : nstring
+      := ^"like" +++ ^(like_pattern_code pat).
     
+    Definition sort_criteria_to_java (sc:string * SortDesc)
+      := let (lbl, c) := sc in
+         match c with
+         | Ascending => ^"Sorter.SortCriterion.asc(" +++ (mk_java_string (^lbl)) +++ ^")"
+         | Descending => ^"Sorter.SortCriterion.desc(" +++ (mk_java_string (^lbl)) +++ ^")"
+         end.
+
+    Definition nnrcUnopToJava (i:nat) (eol quotel:nstring) (op:unary_op) (e1:java_json) : java_json
+      := match op with
+         | OpIdentity => e1
+         | OpNeg => mk_java_unary_op0 (^"neg") e1
+         | OpRec s => mk_java_unary_op1 (^"rec") (mk_java_string (^s)) e1
+         | OpDot s => mk_java_unary_op1 (^"dot") (mk_java_string (^s)) e1
+         | OpRecRemove s => mk_java_unary_op1 (^"remove")  (mk_java_string (^s)) e1
+         | OpRecProject sl => mk_java_unary_op1 (^"project") (mk_java_string_collection (map nstring_quote sl)) e1
+         | OpBag => mk_java_unary_op0 (^"coll") e1
+         | OpSingleton => mk_java_unary_op0 (^"singleton") e1
+         | OpFlatten => mk_java_unary_op0 (^"flatten") e1
+         | OpDistinct => mk_java_unary_op0 (^"distinct") e1
+         | OpOrderBy sl =>
+           mk_java_unary_op1 (^"sort")
+                             (mk_java_collection (^"Sorter.SortCriterion") (map sort_criteria_to_java sl)) e1
+         | OpCount => mk_java_unary_op0 (^"count") e1
+         | OpToString =>  mk_java_unary_op0 (^"tostring") e1
+         | OpToText =>  mk_java_unary_op0 (^"totext") e1
+         | OpLength =>  mk_java_unary_op0 (^"stringlength") e1
+         | OpSubstring start olen =>
+           match olen with
+           | Some len => mk_java_unary_opn (^"substring") (map nstring_quote (map toString [start; len])) e1
+           | None => mk_java_unary_op1 (^"substring") (^toString start) e1
+           end
+         | OpLike pat => mk_java_unary_op1 (^"string_like") (like_matcher_name pat) e1
+         | OpLeft => mk_java_unary_op0 (^"left") e1
+         | OpRight => mk_java_unary_op0 (^"right") e1
+         | OpBrand b =>mk_java_unary_op1 (^"brand") (mk_java_string_collection (map nstring_quote b)) e1
+         | OpUnbrand => mk_java_unary_op0 (^"unbrand") e1
+         | OpCast b => mk_java_unary_opn (^"cast") [^"inheritance"; (mk_java_string_collection (map nstring_quote b))] e1
+         | OpNatUnary u => mk_java_unary_op0 (^uarithToJavaMethod u) e1
+         | OpNatSum =>  mk_java_unary_op0 (^"sum") e1
+         | OpNatMin => mk_java_unary_op0 (^"list_min") e1
+         | OpNatMax =>  mk_java_unary_op0 (^"list_max") e1
+         | OpNatMean => mk_java_unary_op0 (^"list_mean") e1
+         | OpFloatOfNat => mk_java_unary_op0 (^"float_of_int") e1
+         | OpFloatUnary u => mk_java_unary_op0 (^float_uarithToJavaMethod u) e1
+         | OpFloatTruncate => mk_java_unary_op0 (^"float_truncate") e1
+         | OpFloatSum =>  mk_java_unary_op0 (^"float_sum") e1
+         | OpFloatBagMin => mk_java_unary_op0 (^"float_list_min") e1
+         | OpFloatBagMax =>  mk_java_unary_op0 (^"float_list_max") e1
+         | OpFloatMean => mk_java_unary_op0 (^"float_list_mean") e1
+         | OpForeignUnary fu
+           => foreign_to_java_unary_op i eol quotel fu e1
+         end.
+
+    (* Checks whether [flatten(for x in a { flatten(for y in b { if k1 = k2 then ... else {} }) })]
+       can be evaluated as a hash join: [b] must not depend on [x], and each key must only
+       depend on one of [x] and [y].  Returns whether the keys need to be swapped so that
+       the first one is the key of [x]. *)
+    Definition hash_join_keys (x y:var) (b k1 k2:nnrc) : option bool
+      := let mentions v e := if in_dec string_dec v (nnrc_free_vars e) then true else false in
+         if string_dec x y then None
+         else if mentions x b then None
+         else if negb (mentions y k1) && negb (mentions x k2) then Some false
+         else if negb (mentions x k1) && negb (mentions y k2) then Some true
+         else None.
+
+    (* Statements for [if (c) { body } else { {} }], used for the remainder of a join condition *)
+    Definition mk_java_join_guard (t0:nat) (i:nat) (eol:nstring)
+               (sc:nstring) (ec:java_json) (sbody:nstring) (ebody:java_json)
+      : nstring * java_json * nat
+      := let v0 := ^"t" +++ (^nat_to_string10 t0) in
+         (sc +++ (indent i) +++ ^"final JsonElement " +++ v0 +++ ^";" +++ eol
+             +++ (indent i) +++ ^"if (RuntimeUtils.asBoolean(" +++ (from_java_json ec) +++ ^")) {" +++ eol
+             +++ sbody
+             +++ (indent (i+1)) +++ v0 +++ ^" = " +++ (from_java_json ebody) +++ ^";" +++ eol
+             +++ (indent i) +++ ^"} else {" +++ eol
+             +++ (indent (i+1)) +++ v0 +++ ^" = new JsonArray();" +++ eol
+             +++ (indent i) +++ ^"}" +++ eol,
+          mk_java_json v0, t0 + 1).
+
+    (* Call to the hash join operator. The statements of the keys and the body are
+       expected to be indented at level i+2, as they are emitted inside lambdas. *)
+    Definition mk_java_hash_join (t0:nat) (i:nat) (eol:nstring) (x y:var)
+               (sa:nstring) (ea:java_json) (sb:nstring) (eb:java_json)
+               (kx:nstring * java_json) (ky:nstring * java_json)
+               (sbody:nstring) (ebody:java_json)
+      : nstring * java_json * nat
+      := let vx := ^"v" +++ ^x in
+         let vy := ^"v" +++ ^y in
+         let probe := ^"src" +++ (^nat_to_string10 t0) in
+         let build := ^"build" +++ (^nat_to_string10 t0) in
+         let dst := ^"dst" +++ (^nat_to_string10 t0) in
+         (sa +++ (indent i) +++ ^"final JsonArray " +++ probe +++ ^" = (JsonArray) " +++ (from_java_json ea) +++ ^";" +++ eol
+             +++ sb +++ (indent i) +++ ^"final JsonArray " +++ build +++ ^" = (JsonArray) " +++ (from_java_json eb) +++ ^";" +++ eol
+             +++ (indent i) +++ ^"final JsonArray " +++ dst +++ ^" = HashJoin.join(" +++ probe +++ ^", " +++ build +++ ^"," +++ eol
+             +++ (indent (i+1)) +++ ^"(JsonElement " +++ vx +++ ^") -> {" +++ eol
+             +++ (fst kx)
+             +++ (indent (i+2)) +++ ^"return " +++ (from_java_json (snd kx)) +++ ^";" +++ eol
+             +++ (indent (i+1)) +++ ^"}," +++ eol
+             +++ (indent (i+1)) +++ ^"(JsonElement " +++ vy +++ ^") -> {" +++ eol
+             +++ (fst ky)
+             +++ (indent (i+2)) +++ ^"return " +++ (from_java_json (snd ky)) +++ ^";" +++ eol
+             +++ (indent (i+1)) +++ ^"}," +++ eol
+             +++ (indent (i+1)) +++ ^"(JsonElement " +++ vx +++ ^", JsonElement " +++ vy +++ ^") -> {" +++ eol
+             +++ sbody
+             +++ (indent (i+2)) +++ ^"return " +++ (from_java_json ebody) +++ ^";" +++ eol
+             +++ (indent (i+1)) +++ ^"});" +++ eol,
+          mk_java_json dst, t0 + 1).
+
+    (* A loop over a bag. The body is pure: the runtime may run it for several elements
+       concurrently. The loop is named after its result and its variable, for the profiler. *)
+    Definition mk_java_for (t0:nat) (i:nat) (eol:nstring) (v:var)
+               (s1:nstring) (e1:java_json) (s2:nstring) (e2:java_json)
+      : nstring * java_json * nat
+      := let elm := ^"v" +++ ^v in
+         let src := ^"src" +++ (^nat_to_string10 t0) in
+         let dst := ^"dst" +++ (^nat_to_string10 t0) in
+         let site := mk_java_string (dst +++ ^" for " +++ elm) in
+         (s1 +++ (indent i) +++ ^"final JsonArray " +++ src +++ ^" = (JsonArray) " +++ (from_java_json e1) +++ ^";" +++ eol
+             +++ (indent i) +++ ^"final JsonArray " +++ dst +++ ^" = ParallelLoops.map(" +++ site +++ ^", " +++ src +++ ^", (JsonElement " +++ elm +++ ^") -> {" +++ eol
+             +++ s2
+             +++ (indent (i+1)) +++ ^"return " +++ (from_java_json e2) +++ ^";" +++ eol
+             +++ (indent i) +++ ^"});" +++ eol,
+          (mk_java_json dst), t0 + 1).
+
+    (* Checks whether [flatten(for x in a { either cast[b](x) left(y) => body | right(_) => {} })]
+       can be evaluated as a loop over the instances of [b] in [a], given by the brand index of
+       the runtime: the cast must be of the loop variable, which must not occur in the body. *)
+    Definition is_cast_scan (x x':var) (body:nnrc) : bool
+      := if string_dec x x'
+         then if in_dec string_dec x (nnrc_free_vars body) then false else true
+         else false.
+
+    (* Checks whether the variables and keys of an expression of the shape of the expansion of
+       [e groupby[g,keys]] (see [nnrc_group_by]) are those of a group-by, so that it can be
+       evaluated with the group-by operator of the runtime. *)
+    Definition is_group_by (t0 t0' t0'' t1 t1' t2 t2' t2'' t3 t3' t3'':var) (sl sl':list string) : bool
+      := let same x y := if string_dec x y then true else false in
+         same t0 t0' && same t0 t0'' && same t1 t1' && same t2 t2' && same t2 t2'' && same t3 t3' && same t3 t3''
+              && negb (same t1 t0) && negb (same t2 t0) && negb (same t3 t0) && negb (same t3 t2)
+              && (if list_eq_dec string_dec sl sl' then true else false).
+
+    (* A let statement *)
+    Definition mk_java_let (t0:nat) (i:nat) (eol:nstring) (v:var)
+               (s1:nstring) (e1:java_json) (s2:nstring) (e2:java_json)
+      : nstring * java_json * nat
+      := let v0 := ^"v" +++ ^v in
+         let ret := ^"vletvar$" +++ ^v +++ ^"$" +++ (^nat_to_string10 t0) in
+         (s1
+            +++ (indent i) +++ ^"final JsonElement " +++ ret +++ ^";" +++ eol
+            +++ (indent i) +++ ^"{ // new scope introduced for a let statement" +++ eol
+            +++ (indent (i+1)) +++ ^"final JsonElement " +++ v0 +++ ^" = " +++ (from_java_json e1) +++ ^";" +++ eol
+            +++ s2
+            +++ (indent (i+1)) +++ ret +++ ^" = " +++ (from_java_json e2) +++ ^";" +++ eol
+            +++ (indent i) +++ ^"}" +++ eol,
+          mk_java_json ret, t0+1).
+
     Fixpoint nnrcToJava
              (n : nnrc)                      (* NNRC expression to translate *)
              (t : nat)                       (* next available unused temporary *)
@@ -169,56 +329,70 @@ Section NNRCtoJava.
            | None => (^"", mk_java_json (^"v" +++ ^v), t)
            end
          | NNRCConst d => (^"", (mk_java_json_data quotel d), t)
+         | NNRCUnop OpFlatten
+                    ((NNRCFor x a
+                              (NNRCUnop OpFlatten
+                                        (NNRCFor y b
+                                                 (NNRCIf (NNRCBinop OpEqual k1 k2)
+                                                         body
+                                                         (NNRCConst (dcoll nil)))))) as n1) =>
+           match hash_join_keys x y b k1 k2 with
+           | Some swapped =>
+             let '(sa, ea, t1) := nnrcToJava a t i eol quotel ivs in
+             let '(sb, eb, t2) := nnrcToJava b t1 i eol quotel ivs in
+             let '(sk1, ek1, t3) := nnrcToJava k1 t2 (i+2) eol quotel ivs in
+             let '(sk2, ek2, t4) := nnrcToJava k2 t3 (i+2) eol quotel ivs in
+             let '(sbody, ebody, t0) := nnrcToJava body t4 (i+2) eol quotel ivs in
+             mk_java_hash_join t0 i eol x y sa ea sb eb
+                               (if swapped then (sk2, ek2) else (sk1, ek1))
+                               (if swapped then (sk1, ek1) else (sk2, ek2))
+                               sbody ebody
+           | None =>
+             let '(s1, e1, t0) := nnrcToJava n1 t i eol quotel ivs in
+             (s1, nnrcUnopToJava i eol quotel OpFlatten e1, t0)
+           end
+         | NNRCUnop OpFlatten
+                    ((NNRCFor x a
+                              (NNRCUnop OpFlatten
+                                        (NNRCFor y b
+                                                 (NNRCIf (NNRCBinop OpAnd (NNRCBinop OpEqual k1 k2) c)
+                                                         body
+                                                         (NNRCConst (dcoll nil)))))) as n1) =>
+           match hash_join_keys x y b k1 k2 with
+           | Some swapped =>
+             let '(sa, ea, t1) := nnrcToJava a t i eol quotel ivs in
+             let '(sb, eb, t2) := nnrcToJava b t1 i eol quotel ivs in
+             let '(sk1, ek1, t3) := nnrcToJava k1 t2 (i+2) eol quotel ivs in
+             let '(sk2, ek2, t4) := nnrcToJava k2 t3 (i+2) eol quotel ivs in
+             let '(sc, ec, t5) := nnrcToJava c t4 (i+2) eol quotel ivs in
+             let '(sbody, ebody, t6) := nnrcToJava body t5 (i+3) eol quotel ivs in
+             let '(sguard, eguard, t0) := mk_java_join_guard t6 (i+2) eol sc ec sbody ebody in
+             mk_java_hash_join t0 i eol x y sa ea sb eb
+                               (if swapped then (sk2, ek2) else (sk1, ek1))
+                               (if swapped then (sk1, ek1) else (sk2, ek2))
+                               sguard eguard
+           | None =>
+             let '(s1, e1, t0) := nnrcToJava n1 t i eol quotel ivs in
+             (s1, nnrcUnopToJava i eol quotel OpFlatten e1, t0)
+           end
+         | NNRCUnop OpFlatten
+                    ((NNRCFor x a
+                              (NNRCEither (NNRCUnop (OpCast b) (NNRCVar x'))
+                                          y body
+                                          _ (NNRCConst (dcoll nil)))) as n1) =>
+           if is_cast_scan x x' body
+           then
+             let '(sa, ea, t1) := nnrcToJava a t i eol quotel ivs in
+             let '(sbody, ebody, t2) := nnrcToJava body t1 (i+1) eol quotel ivs in
+             let ei := mk_java_unary_opn (^"instances") [^"inheritance"; (mk_java_string_collection (map nstring_quote b))] ea in
+             let '(s0, e0, t0) := mk_java_for t2 i eol y sa ei sbody ebody in
+             (s0, nnrcUnopToJava i eol quotel OpFlatten e0, t0)
+           else
+             let '(s1, e1, t0) := nnrcToJava n1 t i eol quotel ivs in
+             (s1, nnrcUnopToJava i eol quotel OpFlatten e1, t0)
          | NNRCUnop op n1 =>
            let '(s1, e1, t0) := nnrcToJava n1 t i eol quotel ivs in
-           let e0 := match op with
-                     | OpIdentity => e1
-                     | OpNeg => mk_java_unary_op0 (^"neg") e1
-                     | OpRec s => mk_java_unary_op1 (^"rec") (mk_java_string (^s)) e1
-                     | OpDot s => mk_java_unary_op1 (^"dot") (mk_java_string (^s)) e1
-                     | OpRecRemove s => mk_java_unary_op1 (^"remove")  (mk_java_string (^s)) e1
-                     | OpRecProject sl => mk_java_unary_op1 (^"project") (mk_java_string_collection (map nstring_quote sl)) e1
-                     | OpBag => mk_java_unary_op0 (^"coll") e1
-                     | OpSingleton => mk_java_unary_op0 (^"singleton") e1
-                     | OpFlatten => mk_java_unary_op0 (^"flatten") e1
-                     | OpDistinct => mk_java_unary_op0 (^"distinct") e1
-                     | OpOrderBy sl =>
-                       mk_java_unary_op1 (^"sort")
-                                         (mk_java_string_collection (map nstring_quote (map fst sl))) e1 (* XXX TO FIX XXX *)
-                     | OpCount => mk_java_unary_op0 (^"count") e1
-                     | OpToString =>  mk_java_unary_op0 (^"tostring") e1
-                     | OpToText =>  mk_java_unary_op0 (^"totext") e1
-                     | OpLength =>  mk_java_unary_op0 (^"stringlength") e1
-                     | OpSubstring start olen =>
-                       match olen with
-                       | Some len => mk_java_unary_opn (^"substring") (map nstring_quote (map toString [start; len])) e1
-                       | None => mk_java_unary_op1 (^"substring") (^toString start) e1
-                       end
-                     | OpLike pat =>
-                       let lc := make_like_clause pat None in
-                       mk_java_unary_op1 (^"string_like") (^"new UnaryOperators.LikeClause[]{"
-                                         +++ (nstring_map_concat (^",") like_clause_to_java lc) +++ (^"}")) e1
-                     | OpLeft => mk_java_unary_op0 (^"left") e1
-                     | OpRight => mk_java_unary_op0 (^"right") e1
-                     | OpBrand b =>mk_java_unary_op1 (^"brand") (mk_java_string_collection (map nstring_quote b)) e1
-                     | OpUnbrand => mk_java_unary_op0 (^"unbrand") e1
-                     | OpCast b => mk_java_unary_opn (^"cast") [^"inheritance"; (mk_java_string_collection (map nstring_quote b))] e1
-                     | OpNatUnary u => mk_java_unary_op0 (^uarithToJavaMethod u) e1
-                     | OpNatSum =>  mk_java_unary_op0 (^"sum") e1
-                     | OpNatMin => mk_java_unary_op0 (^"list_min") e1
-                     | OpNatMax =>  mk_java_unary_op0 (^"list_max") e1
-                     | OpNatMean => mk_java_unary_op0 (^"list_mean") e1
-                     | OpFloatOfNat => mk_java_unary_op0 (^"float_of_int") e1
-                     | OpFloatUnary u => mk_java_unary_op0 (^float_uarithToJavaMethod u) e1
-                     | OpFloatTruncate => mk_java_unary_op0 (^"float_truncate") e1
-                     | OpFloatSum =>  mk_java_unary_op0 (^"float_sum") e1
-                     | OpFloatBagMin => mk_java_unary_op0 (^"float_list_min") e1
-                     | OpFloatBagMax =>  mk_java_unary_op0 (^"float_list_max") e1
-                     | OpFloatMean => mk_java_unary_op0 (^"float_list_mean") e1
-                     | OpForeignUnary fu
-                       => foreign_to_java_unary_op i eol quotel fu e1
-                     end in
-           (s1, e0, t0)
+           (s1, nnrcUnopToJava i eol quotel op e1, t0)
          | NNRCBinop op n1 n2 =>
            let '(s1, e1, t2) := nnrcToJava n1 t i eol quotel ivs in
            let '(s2, e2, t0) := nnrcToJava n2 t2 i eol quotel ivs in
@@ -245,34 +419,36 @@ Section NNRCtoJava.
                        => foreign_to_java_binary_op i eol quotel fb e1 e2
                      end in
            (s1 +++ s2, e0, t0)
+         | NNRCLet x0 e
+                   (NNRCFor x2
+                            (NNRCUnop OpDistinct
+                                      (NNRCFor x1 (NNRCVar x0') (NNRCUnop (OpRecProject sl) (NNRCVar x1'))))
+                            (NNRCBinop OpRecConcat
+                                       (NNRCVar x2')
+                                       (NNRCUnop (OpRec g)
+                                                 (NNRCUnop OpFlatten
+                                                           (NNRCFor x3 (NNRCVar x0'')
+                                                                    (NNRCIf (NNRCBinop OpEqual
+                                                                                       (NNRCUnop (OpRecProject sl')
+                                                                                                 (NNRCVar x3'))
+                                                                                       (NNRCVar x2''))
+                                                                            (NNRCUnop OpBag (NNRCVar x3''))
+                                                                            (NNRCConst (dcoll nil))))))) as body) =>
+           let '(s1, e1, t1) := nnrcToJava e t i eol quotel ivs in
+           if is_group_by x0 x0' x0'' x1 x1' x2 x2' x2'' x3 x3' x3'' sl sl'
+           then
+             (s1, mk_java_unary_opn (^"groupby") [(mk_java_string (^g));(mk_java_string_collection (map nstring_quote sl))] e1, t1)
+           else
+             let '(s2, e2, t0) := nnrcToJava body t1 i eol quotel ivs in
+             mk_java_let t0 i eol x0 s1 e1 s2 e2
          | NNRCLet v bind body =>
            let '(s1, e1, t2) := nnrcToJava bind t i eol quotel ivs in
            let '(s2, e2, t0) := nnrcToJava body t2 i eol quotel ivs in
-           let v0 := ^"v" +++ ^v in
-           let ret := ^"vletvar$" +++ ^v +++ ^"$" +++ (^nat_to_string10 t0) in
-           (s1
-              +++ (indent i) +++ ^"final JsonElement " +++ ret +++ ^";" +++ eol
-              +++ (indent i) +++ ^"{ // new scope introduced for a let statement" +++ eol
-              +++ (indent (i+1)) +++ ^"final JsonElement " +++ v0 +++ ^" = " +++ (from_java_json e1) +++ ^";" +++ eol
-              +++ s2
-              +++ (indent (i+1)) +++ ret +++ ^" = " +++ (from_java_json e2) +++ ^";" +++ eol
-              +++ (indent i) +++ ^"}" +++ eol,
-            mk_java_json ret, t0+1)
+           mk_java_let t0 i eol v s1 e1 s2 e2
          | NNRCFor v iter body =>
            let '(s1, e1, t2) := nnrcToJava iter t i eol quotel ivs in
            let '(s2, e2, t0) := nnrcToJava body t2 (i+1) eol quotel ivs in
-           let elm := ^"v" +++ ^v in
-           let src := ^"src" +++ (^nat_to_string10 t0) in
-           let idx := ^"i" +++ (^nat_to_string10 t0) in
-           let dst := ^"dst" +++ (^nat_to_string10 t0) in
-           (s1 +++ (indent i) +++ ^"final JsonArray " +++ src +++ ^" = (JsonArray) " +++ (from_java_json e1) +++ ^";" +++ eol
-               +++ (indent i) +++ ^"final JsonArray " +++ dst +++ ^" = new JsonArray();" +++ eol
-               +++ (indent i) +++ ^"for(int " +++ idx +++ ^" = 0; " +++ idx +++ ^" < " +++ src +++ ^".size(); " +++ idx +++ ^"++) {" +++ eol
-               +++ (indent (i+1)) +++ ^"final JsonElement " +++ elm +++ ^" = " +++ src +++ ^".get(" +++ idx +++ ^");" +++ eol
-               +++ s2
-               +++ (indent (i+1)) +++ dst +++ ^".add(" +++ (from_java_json e2) +++ ^");" +++ eol
-               +++ (indent i) +++ ^"}" +++ eol,
-            (mk_java_json dst), t0 + 1)
+           mk_java_for t0 i eol v s1 e1 s2 e2
          | NNRCIf c n1 n2 =>
            let '(s1, e1, t2) := nnrcToJava c t i eol quotel ivs in
            let '(s2, e2, t3) := nnrcToJava n1 t2 (i+1) eol quotel ivs in
@@ -339,6 +515,28 @@ Section NNRCtoJava.
                  +++ (indent i) +++ ^"  return " +++ (from_java_json v0) +++ ^";" +++ eol
                  +++ (indent i) +++ ^"}" +++ eol.
 
+    Fixpoint nnrc_like_patterns (e:nnrc) : list string
+      := match e with
+         | NNRCGetConstant _ => nil
+         | NNRCVar _ => nil
+         | NNRCConst _ => nil
+         | NNRCBinop _ e1 e2 => (nnrc_like_patterns e1 ++ nnrc_like_patterns e2)%list
+         | NNRCUnop (OpLike pat) e1 => pat :: nnrc_like_patterns e1
+         | NNRCUnop _ e1 => nnrc_like_patterns e1
+         | NNRCLet _ e1 e2 => (nnrc_like_patterns e1 ++ nnrc_like_patterns e2)%list
+         | NNRCFor _ e1 e2 => (nnrc_like_patterns e1 ++ nnrc_like_patterns e2)%list
+         | NNRCIf e1 e2 e3 => (nnrc_like_patterns e1 ++ nnrc_like_patterns e2 ++ nnrc_like_patterns e3)%list
+         | NNRCEither e1 _ e2 _ e3 => (nnrc_like_patterns e1 ++ nnrc_like_patterns e2 ++ nnrc_like_patterns e3)%list
+         | NNRCGroupBy _ _ e1 => nnrc_like_patterns e1
+         end.
+
+    (* The constants holding the compiled LIKE patterns of an expression *)
+    Definition like_matcher_fields (e:nnrc) (eol:nstring) : nstring
+      := nstring_map_concat (^"")
+                            (fun pat => ^"  private static final LikeMatcher " +++ like_matcher_name pat
+                                           +++ ^" = LikeMatcher.compile(" +++ mk_java_string (^pat) +++ ^");" +++ eol)
+                            (bdistinct (nnrc_like_patterns e)).
+
     Definition nnrcToJavaClass (class_name:nstring) (package_name:string) (imports:string) (input_v:string) (e:nnrc) (eol:nstring) (quotel:nstring) (ivs : list (string * nstring)) (fname:nstring) :=
       let f := nnrcToJavaFun 1 input_v e eol quotel ivs fname in
       (if(package_name == "")
@@ -353,6 +551,7 @@ Section NNRCtoJava.
             else ^"import org.qcert.runtime.*;" +++ eol)
       +++ eol
       +++ ^"public class " +++ class_name +++ ^" implements JavaQuery { " +++ eol
+      +++ like_matcher_fields e eol
       +++ f
       +++ ^"}" +++ eol
     .
@@ -24,20 +24,205 @@ let get_qcert_home () =
   try Sys.getenv "QCERT_HOME"
   with Not_found -> Static_config.qcert_home
 
+let java_jar () =
+  Format.sprintf "%s/bin/javaService.jar" (get_qcert_home ())
+
+let java_command (args: string) =
+  Format.sprintf "java -jar %s %s" (java_jar ()) args
+
+(* One-shot invocation: a new JVM for each request *)
+let main_process (verb: string) (s: string) =
+  let fromProcess, toProcess = Unix.open_process (java_command verb) in
+  output_string toProcess s;
+  close_out toProcess;
+  let result = input_line fromProcess in
+  close_in fromProcess;
+  result
+
+(* Long-lived invocation: a javaService daemon (see the -daemon option of
+   org.qcert.javasvc.Main) serves successive requests on its stdin/stdout, so
+   that JVM start-up and class loading are paid once per compiler run.
+   Setting QCERT_JAVA_SERVICE_DAEMON to false disables it.  A request which
+   gets no answer within QCERT_JAVA_SERVICE_TIMEOUT seconds (600 by default)
+   kills the daemon and is run by a one-shot invocation instead. *)
+
+let daemon_enabled () =
+  try Sys.getenv "QCERT_JAVA_SERVICE_DAEMON" <> "false"
+  with Not_found -> true
+
+let daemon_timeout () =
+  try float_of_string (Sys.getenv "QCERT_JAVA_SERVICE_TIMEOUT")
+  with Not_found | Failure _ -> 600.0
+
+(* The daemon does not answer in time *)
+exception Daemon_timeout
+
+(* The daemon does not follow the protocol *)
+exception Daemon_error of string
+
+type daemon = {
+  pid : int;
+  to_daemon : Unix.file_descr;
+  from_daemon : Unix.file_descr;
+}
+
+let daemon : daemon option ref = ref None
+let daemon_broken = ref false
+let daemon_at_exit = ref false
+
+(* Writing to a daemon which died must raise an exception (so that it can
+   be restarted) rather than kill the compiler, so SIGPIPE is ignored while
+   the compiler writes to the daemon *)
+let without_sigpipe f =
+  let previous =
+    try Some (Sys.signal Sys.sigpipe Sys.Signal_ignore)
+    with Invalid_argument _ -> None (* No SIGPIPE on Windows *)
+  in
+  let restore () =
+    match previous with
+    | Some behavior -> Sys.set_signal Sys.sigpipe behavior
+    | None -> ()
+  in
+  let result = try f () with exn -> restore (); raise exn in
+  restore ();
+  result
+
+(* Waits until the daemon's stdout can be read, or the deadline passes *)
+let rec wait_readable fd deadline =
+  let remaining = deadline -. Unix.gettimeofday () in
+  if remaining <= 0.0 then raise Daemon_timeout;
+  let readable, _, _ =
+    try Unix.select [fd] [] [] remaining
+    with Unix.Unix_error (Unix.EINTR, _, _) -> [], [], []
+  in
+  if readable = [] then wait_readable fd deadline
+
+(* A request is a header line with the verb and the length of the argument,
+   followed by the argument; a response is a header line with the length of
+   the result, followed by the result *)
+let daemon_request d (verb: string) (s: string) =
+  let request = Format.sprintf "%s %d\n%s" verb (String.length s) s in
+  without_sigpipe (fun () ->
+    ignore (Unix.write_substring d.to_daemon request 0 (String.length request)));
+  let deadline = Unix.gettimeofday () +. daemon_timeout () in
+  let chunk = Bytes.create 65536 in
+  let response = Buffer.create 1024 in
+  let read () =
+    wait_readable d.from_daemon deadline;
+    let n = Unix.read d.from_daemon chunk 0 (Bytes.length chunk) in
+    if n = 0 then raise End_of_file;
+    Buffer.add_string response (Bytes.sub_string chunk 0 n)
+  in
+  let rec header_end () =
+    try String.index (Buffer.contents response) '\n'
+    with Not_found -> read (); header_end ()
+  in
+  let header_end = header_end () in
+  let length =
+    let header = Buffer.sub response 0 header_end in
+    try int_of_string (String.trim header)
+    with Failure _ -> raise (Daemon_error ("bad response header: " ^ header))
+  in
+  let total = header_end + 1 + length in
+  while Buffer.length response < total do read () done;
+  if Buffer.length response > total then
+    raise (Daemon_error "unexpected output after the response");
+  Buffer.sub response (header_end + 1) length
+
+(* Closing its stdin makes the daemon exit; a daemon which does not answer
+   is killed first *)
+let stop_daemon ?(kill=false) () =
+  match !daemon with
+  | None -> ()
+  | Some d ->
+      daemon := None;
+      begin try Unix.close d.to_daemon with Unix.Unix_error _ -> () end;
+      if kill then
+        begin try Unix.kill d.pid Sys.sigkill with Unix.Unix_error _ -> () end;
+      begin try Unix.close d.from_daemon with Unix.Unix_error _ -> () end;
+      let rec wait () =
+        try ignore (Unix.waitpid [] d.pid)
+        with Unix.Unix_error (Unix.EINTR, _, _) -> wait ()
+      in
+      begin try wait () with Unix.Unix_error _ -> () end
+
+let start_daemon () =
+  if not !daemon_at_exit then begin
+    at_exit (fun () -> stop_daemon ());
+    daemon_at_exit := true
+  end;
+  let stdin_read, stdin_write = Unix.pipe () in
+  let stdout_read, stdout_write = Unix.pipe () in
+  (* The daemon must not inherit the compiler's ends of the pipes *)
+  Unix.set_close_on_exec stdin_write;
+  Unix.set_close_on_exec stdout_read;
+  let pid =
+    try
+      Unix.create_process "java" [| "java"; "-jar"; java_jar (); "-daemon" |]
+        stdin_read stdout_write Unix.stderr
+    with exn ->
+      List.iter Unix.close [stdin_read; stdin_write; stdout_read; stdout_write];
+      raise exn
+  in
+  Unix.close stdin_read;
+  Unix.close stdout_write;
+  let d = { pid = pid; to_daemon = stdin_write; from_daemon = stdout_read } in
+  daemon := Some d;
+  (* Health check *)
+  begin try
+    if daemon_request d "ping" "" <> "pong" then
+      raise (Daemon_error "no answer to ping")
+  with
+  | Daemon_timeout ->
+      stop_daemon ~kill:true ();
+      raise (Daemon_error "no answer to ping")
+  | exn ->
+      stop_daemon ~kill:true ();
+      raise exn
+  end;
+  d
+
+let get_daemon () =
+  match !daemon with
+  | Some d -> d
+  | None -> start_daemon ()
+
+(* Runs a request on the daemon, restarting it once if it died (but not if
+   it timed out, see main) *)
+let main_daemon (verb: string) (s: string) =
+  let result =
+    try daemon_request (get_daemon ()) verb s with
+    | Unix.Unix_error _ | End_of_file | Sys_error _ | Daemon_error _ ->
+        stop_daemon ~kill:true ();
+        daemon_request (get_daemon ()) verb s
+  in
+  (* Same answer as the one-shot invocation, which reads one line *)
+  try String.sub result 0 (String.index result '\n')
+  with Not_found -> result
+
 let main (verb: string) (s: string) =
 	(*
 	Format.printf "Input for verb %s: %s" verb s;
 	Format.print_newline ();
 	*)
   begin try
-    let cmd =
-      Format.sprintf "java -jar %s/bin/javaService.jar %s" (get_qcert_home ()) verb
+    let result =
+      if daemon_enabled () && not !daemon_broken then
+        begin try main_daemon verb s with
+        | Daemon_timeout ->
+            (* Kill the daemon, run this request on its own, and start a new
+               daemon for the next one *)
+            stop_daemon ~kill:true ();
+            main_process verb s
+        | Unix.Unix_error _ | End_of_file | Sys_error _ | Daemon_error _ ->
+            (* The daemon cannot be (re)started: stop trying *)
+            stop_daemon ~kill:true ();
+            daemon_broken := true;
+            main_process verb s
+        end
+      else
+        main_process verb s
     in
-    let fromProcess, toProcess = Unix.open_process cmd in
-    output_string toProcess s;
-    close_out toProcess;
-    let result = input_line fromProcess in
-    close_in fromProcess;
     (*
 		  Format.printf ">> Output for verb %s: %s" verb result;
 		  Format.print_newline ();
@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.javasvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * The "batch" verb: runs several requests given in one argument.  The argument is a JSON array of objects with members
+ *   "verb" and "arg" (a string).  The requests are run concurrently by the {@link WorkerPool} (a bounded number at a time),
+ *   and their results are returned in the order of the requests, as newline-delimited JSON: one line per request, holding
+ *   an object with members "index", "verb" and "result".  A batch may not contain "batch" or "cacheStats" requests: a
+ *   nested batch would wait, on a worker, for requests queued behind it.  A request which does not complete within
+ *   <b>qcert.javasvc.batch.timeout</b> milliseconds (ten minutes by default) is reported as an error.
+ * <p>In server mode, the results are streamed back as they become available (see {@link #stream(String)}).
+ */
+public class Batch implements Command {
+	/** The verb */
+	public static final String VERB = "batch";
+
+	/** How long to wait for the worker pool to accept a request, when it is saturated, before giving up */
+	private static final long BUSY_TIMEOUT_MILLIS = 30000;
+
+	/** How long to wait for the result of a request */
+	private static final long RESULT_TIMEOUT_MILLIS = Long.getLong("qcert.javasvc.batch.timeout", 600000);
+
+	@Override
+	public String invoke(String arg) {
+		try (InputStream results = stream(arg)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = results.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (Throwable t) {
+			return "ERROR: batch failed with the error -- " + t.getMessage();
+		}
+	}
+
+	@Override
+	public boolean isReentrant() {
+		return true;
+	}
+
+	/**
+	 * Parse the argument of a batch
+	 * @param arg the JSON array of requests
+	 * @return the (verb, argument) pairs
+	 * @throws IllegalArgumentException if the argument is not a valid batch
+	 */
+	public static List<String[]> parse(String arg) {
+		JsonElement parsed = new JsonParser().parse(arg);
+		if (!parsed.isJsonArray())
+			throw new IllegalArgumentException("A batch must be a JSON array of requests");
+		List<String[]> requests = new ArrayList<>();
+		for (JsonElement elem : parsed.getAsJsonArray()) {
+			if (!elem.isJsonObject())
+				throw new IllegalArgumentException("Batch requests must be JSON objects");
+			JsonObject request = elem.getAsJsonObject();
+			JsonElement verb = request.get("verb");
+			JsonElement reqArg = request.get("arg");
+			if (verb == null || !verb.isJsonPrimitive())
+				throw new IllegalArgumentException("Batch request without a verb: " + request);
+			if (VERB.equals(verb.getAsString()) || ResultCache.Stats.VERB.equals(verb.getAsString()))
+				throw new IllegalArgumentException("A batch may not contain " + verb.getAsString() + " requests");
+			requests.add(new String[] { verb.getAsString(), reqArg == null || reqArg.isJsonNull() ? "" : reqArg.getAsString() });
+		}
+		return requests;
+	}
+
+	/**
+	 * Start a batch
+	 * @param arg the JSON array of requests
+	 * @return a stream of the results (NDJSON), which are computed as it is read
+	 * @throws IllegalArgumentException if the argument is not a valid batch
+	 */
+	public static InputStream stream(String arg) {
+		return new Results(parse(arg));
+	}
+
+	/**
+	 * The results of a batch, as a stream.  Requests are submitted to the worker pool ahead of the one whose result is
+	 *   being read, up to one per worker, so a batch does not monopolize the pool.
+	 */
+	private static class Results extends InputStream {
+		private final List<String[]> requests;
+		private final int window = WorkerPool.WORKERS;
+		private final Deque<Future<String>> pending = new ArrayDeque<>();
+		/** Index of the next request to submit */
+		private int submitted = 0;
+		/** Index of the next result to read */
+		private int next = 0;
+		private byte[] line = new byte[0];
+		private int pos = 0;
+
+		Results(List<String[]> requests) {
+			this.requests = requests;
+		}
+
+		/** Submit requests while the window allows it and the pool accepts them */
+		private void submitAhead() {
+			while (submitted < requests.size() && pending.size() < window) {
+				String[] request = requests.get(submitted);
+				try {
+					pending.addLast(WorkerPool.getInstance().submit(request[0], request[1]));
+				} catch (WorkerPool.BusyException e) {
+					return;
+				}
+				submitted++;
+			}
+		}
+
+		/** Compute the line of the next result, if there is one */
+		private boolean advance() throws IOException {
+			if (next >= requests.size())
+				return false;
+			submitAhead();
+			String verb = requests.get(next)[0];
+			String result;
+			try {
+				long deadline = System.currentTimeMillis() + BUSY_TIMEOUT_MILLIS;
+				while (pending.isEmpty() && System.currentTimeMillis() < deadline) {
+					// The pool is saturated by other requests
+					Thread.sleep(10);
+					submitAhead();
+				}
+				result = pending.isEmpty() ? "ERROR: Java service busy: too many requests"
+						: WorkerPool.getResult(verb, pending.removeFirst(), RESULT_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Batch interrupted");
+			}
+			if (submitted == next)
+				// Gave up on this request
+				submitted++;
+			JsonObject ans = new JsonObject();
+			ans.addProperty("index", next);
+			ans.addProperty("verb", verb);
+			ans.addProperty("result", result);
+			line = (ans.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+			pos = 0;
+			next++;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (pos >= line.length && !advance())
+				return -1;
+			return line[pos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (pos >= line.length && !advance())
+				return -1;
+			int n = Math.min(len, line.length - pos);
+			System.arraycopy(line, pos, buf, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+			// Let the requests already submitted finish, but do not wait for them
+			for (Future<String> future : pending)
+				future.cancel(false);
+			pending.clear();
+			next = submitted = requests.size();
+		}
+	}
+}
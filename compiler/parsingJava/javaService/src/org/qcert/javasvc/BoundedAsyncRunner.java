@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.javasvc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.AsyncRunner;
+import fi.iki.elonen.NanoHTTPD.ClientHandler;
+
+/**
+ * Replaces NanoHTTPD's default runner (one new thread per connection) by a bounded pool of connection threads.
+ *   Connections beyond the capacity of the pool and of its queue are answered with status 503 (service unavailable), if the
+ *   server creates its handlers as {@link Connection}s, and closed immediately.
+ */
+public class BoundedAsyncRunner implements AsyncRunner {
+	/** The response to the connections which are refused */
+	private static final byte[] BUSY;
+	static {
+		String content = "ERROR: Java service busy: too many connections";
+		BUSY = ("HTTP/1.1 503 Service Unavailable\r\n"
+				+ "Content-Type: " + NanoHTTPD.MIME_PLAINTEXT + "\r\n"
+				+ "Content-Length: " + content.length() + "\r\n"
+				+ "Access-Control-Allow-Origin: *\r\n"
+				+ "Connection: close\r\n"
+				+ "\r\n"
+				+ content).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/** A connection handler which can tell the client that the server is busy */
+	public static class Connection extends ClientHandler {
+		private final Socket socket;
+
+		/**
+		 * @param server the server, whose createClientHandler method creates this handler
+		 * @param inputStream the input stream of the connection
+		 * @param socket the socket of the connection
+		 */
+		public Connection(NanoHTTPD server, InputStream inputStream, Socket socket) {
+			server.super(inputStream, socket);
+			this.socket = socket;
+		}
+
+		/** Answer that the server is busy (the request is not read) */
+		void refuse() {
+			try {
+				OutputStream out = socket.getOutputStream();
+				out.write(BUSY);
+				out.flush();
+			} catch (IOException e) {
+				// The connection is closed anyway
+			}
+		}
+	}
+
+	/** The pool of connection threads */
+	private final ThreadPoolExecutor executor;
+	/** The connections being served or waiting to be */
+	private final Set<ClientHandler> running = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param threads the maximum number of connections served at the same time
+	 * @param queued the maximum number of connections waiting for a thread
+	 */
+	public BoundedAsyncRunner(int threads, int queued) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "javaService connection " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				queued == 0 ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(queued), factory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void closeAll() {
+		for (ClientHandler handler : running)
+			handler.close();
+	}
+
+	@Override
+	public void closed(ClientHandler handler) {
+		running.remove(handler);
+	}
+
+	@Override
+	public void exec(ClientHandler handler) {
+		running.add(handler);
+		try {
+			executor.execute(handler);
+		} catch (RejectedExecutionException e) {
+			running.remove(handler);
+			if (handler instanceof Connection)
+				((Connection) handler).refuse();
+			handler.close();
+		}
+	}
+}
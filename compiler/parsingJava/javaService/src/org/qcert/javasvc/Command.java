@@ -18,4 +18,13 @@ package org.qcert.javasvc;
  */
 public interface Command {
 	public String invoke(String arg);
+
+	/**
+	 * Indicates whether one instance may execute several requests at the same time.  Instances of commands which are not
+	 *   re-entrant are only given one request at a time (the server creates as many as it needs).
+	 * @return true if the command is re-entrant (false by default)
+	 */
+	public default boolean isReentrant() {
+		return false;
+	}
 }
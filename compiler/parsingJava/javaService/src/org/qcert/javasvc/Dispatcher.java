@@ -13,8 +13,11 @@
  */
 package org.qcert.javasvc;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.qcert.util.CSV2JSON;
 
@@ -23,7 +26,7 @@ import org.qcert.util.CSV2JSON;
  */
 public class Dispatcher {
 	/** Mapping from verb names to class names where the class implements the Command interface and provides the logic for the verb */
-	static Map<String, String> verbToClass = new HashMap<>();
+	static Map<String, String> verbToClass = new ConcurrentHashMap<>();
 	static {
 		// Extend this table as needed as verbs are added to the system
 		verbToClass.put("parseSQL", "org.qcert.sql.EncodingService");
@@ -32,10 +35,70 @@ public class Dispatcher {
 		verbToClass.put("serialRule2CAMP", "org.qcert.camp.translator.SerialRule2CAMP");
 		verbToClass.put("csv2JSON", CSV2JSON.class.getName());
 		verbToClass.put("sqlSchema2JSON", "org.qcert.sql.SQLSchema2JSON");
+		verbToClass.put(Batch.VERB, Batch.class.getName());
+		verbToClass.put(ResultCache.Stats.VERB, ResultCache.Stats.class.getName());
+	}
+
+	/** Verbs whose result is a function of their argument only, and may thus be cached (see {@link ResultCache}) */
+	static Set<String> cacheableVerbs = ConcurrentHashMap.newKeySet();
+	static {
+		cacheableVerbs.add("parseSQL");
+		cacheableVerbs.add("parseSQLPP");
+		cacheableVerbs.add("sqlSchema2JSON");
+		cacheableVerbs.add("techRule2CAMP");
 	}
 	
-	/** Mapping from class names to Command instances (conserves instantiations in the long running case). */
-	static Map<String, Command> classToInstance = new HashMap<>(); 
+	/** Mapping from class names to pools of Command instances (conserves instantiations in the long running case). */
+	static Map<String, CommandPool> classToInstances = new ConcurrentHashMap<>();
+
+	/**
+	 * Register (or replace) the implementation of a verb
+	 * @param verb the verb
+	 * @param implClass the name of a class implementing Command
+	 */
+	public static void register(String verb, String implClass) {
+		verbToClass.put(verb, implClass);
+	}
+
+	/**
+	 * The instances of a Command class.  A re-entrant command is instantiated once and shared.  Other commands are
+	 *   instantiated as needed so that each instance serves one request at a time, and idle instances are kept for reuse.
+	 */
+	static class CommandPool {
+		private final String implClass;
+		private volatile Command shared;
+		private final Queue<Command> idle = new ConcurrentLinkedQueue<>();
+
+		CommandPool(String implClass) {
+			this.implClass = implClass;
+		}
+
+		/**
+		 * Obtain an instance for one request
+		 * @return the instance or null if the class could not be instantiated
+		 */
+		Command acquire() {
+			Command cmd = shared;
+			if (cmd != null)
+				return cmd;
+			cmd = idle.poll();
+			if (cmd != null)
+				return cmd;
+			cmd = instantiate(implClass);
+			if (cmd != null && cmd.isReentrant())
+				shared = cmd;
+			return cmd;
+		}
+
+		/**
+		 * Give back an instance after a request
+		 * @param cmd the instance obtained from {@link #acquire()}
+		 */
+		void release(Command cmd) {
+			if (cmd != shared)
+				idle.offer(cmd);
+		}
+	}
 
 	/**
 	 * Dispatch a request no matter how it arrived.  
@@ -47,30 +110,50 @@ public class Dispatcher {
 		String implClass = Dispatcher.verbToClass.get(verb);
 		if (implClass == null)
 			return "ERROR: no implementation class for verb " + verb;
-		Command cmd = instantiate(implClass);
+		if (!cacheableVerbs.contains(verb))
+			return invoke(verb, implClass, arg);
+		ResultCache cache = ResultCache.getInstance();
+		String result = cache.get(verb, arg);
+		if (result == null) {
+			result = invoke(verb, implClass, arg);
+			// Errors are not cached: they may be due to the environment (e.g. a missing class)
+			if (result != null && !result.startsWith("ERROR:"))
+				cache.put(verb, arg, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Invoke the implementation of a verb
+	 * @param verb the request verb
+	 * @param implClass the class implementing the verb
+	 * @param arg the request argument
+	 * @return the request result
+	 */
+	private static String invoke(String verb, String implClass, String arg) {
+		CommandPool pool = classToInstances.computeIfAbsent(implClass, CommandPool::new);
+		Command cmd = pool.acquire();
 		if (cmd == null)
 			return "ERROR: implementation of " + verb + " is not available";
 		try {
 			return cmd.invoke(arg);
 		} catch (Throwable t) {
 			return "ERROR: implementation of " + verb + " failed with the error -- " + t.getMessage();
+		} finally {
+			pool.release(cmd);
 		}
 	}
 
 	/**
-	 * Retrieve a valid instance of a class that implements Command
+	 * Create an instance of a class that implements Command
 	 * @param implClass the class name
 	 * @return the Command or null if the class could not be instantiated
 	 */
 	private static Command instantiate(String implClass) {
-		Command cmd = Dispatcher.classToInstance.get(implClass);
-		if (cmd == null) {
-			try {
-				cmd = (Command) Class.forName(implClass).newInstance();
-				Dispatcher.classToInstance.put(implClass, cmd);
-			} catch (Exception e) {
-			}
+		try {
+			return (Command) Class.forName(implClass).newInstance();
+		} catch (Exception e) {
+			return null;
 		}
-		return cmd;
 	}
 }
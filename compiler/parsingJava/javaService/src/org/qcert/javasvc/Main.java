@@ -13,12 +13,21 @@
  */
 package org.qcert.javasvc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +52,15 @@ public class Main extends NanoHTTPD {
 		super(port);
 	}
 	
+	/* (non-Javadoc)
+	 * @see fi.iki.elonen.NanoHTTPD#createClientHandler(java.net.Socket, java.io.InputStream)
+	 */
+	@Override
+	protected ClientHandler createClientHandler(Socket finalAccept, InputStream inputStream) {
+		// So that BoundedAsyncRunner can answer the connections it refuses
+		return new BoundedAsyncRunner.Connection(this, inputStream, finalAccept);
+	}
+
 	/* (non-Javadoc)
 	 * @see fi.iki.elonen.NanoHTTPD#serve(fi.iki.elonen.NanoHTTPD.IHTTPSession)
 	 */
@@ -62,7 +80,17 @@ public class Main extends NanoHTTPD {
               return respond(re.getStatus(), re.getMessage());
           }
           String arg = files.get("postData");
-          String response = Dispatcher.dispatch(verb.get(0), arg);
+          if (Batch.VERB.equals(verb.get(0)))
+              return respondBatch(arg);
+          String response;
+          try {
+              response = WorkerPool.getInstance().execute(verb.get(0), arg);
+          } catch (WorkerPool.BusyException be) {
+              return respond(Response.Status.SERVICE_UNAVAILABLE, "ERROR: " + be.getMessage());
+          } catch (InterruptedException ie) {
+              Thread.currentThread().interrupt();
+              return respond(Response.Status.SERVICE_UNAVAILABLE, "ERROR: request interrupted");
+          }
           return respond(Response.Status.OK, response);
         } else if (Method.OPTIONS.equals(method)) {
             Response response = respond(Response.Status.OK, "");
@@ -75,6 +103,19 @@ public class Main extends NanoHTTPD {
         }
 	}
 
+	/** Respond to a batch of requests, streaming the results (as newline-delimited JSON) as they are computed */
+	private Response respondBatch(String arg) {
+		InputStream results;
+		try {
+			results = Batch.stream(arg);
+		} catch (RuntimeException e) {
+			return respond(Response.Status.BAD_REQUEST, "ERROR: " + e.getMessage());
+		}
+		Response response = newChunkedResponse(Response.Status.OK, "application/x-ndjson", results);
+		response.addHeader("Access-Control-Allow-Origin", "*");
+		return response;
+	}
+
 	/** Issue a response from server mode */
 	private Response respond(Response.Status status, String content) {
 		Response response = newFixedLengthResponse(status, NanoHTTPD.MIME_PLAINTEXT, content);
@@ -88,11 +129,16 @@ public class Main extends NanoHTTPD {
 	 * <ol>
 	 * <li><em>verb</em>
 	 * <li><b>-server</b> <em>portnumber</em>
+	 * <li><b>-daemon</b>
 	 * </ol>
 	 * <p>In the first template, the verb must be one recognized by the Java service dispatcher.  The argument is read from stdin and
 	 *   the result posted to stdout.
 	 * <p>In the second template, the server is started on the given port.  It then responds to "old-style" Java service requests via
-	 *   http Post (verb passed in the URL query and argument passed in the POST body).
+	 *   http Post (verb passed in the URL query and argument passed in the POST body).  Requests are executed by a bounded
+	 *   {@link WorkerPool}; when it is saturated, requests are answered with status 503 (service unavailable).  The verb "batch"
+	 *   runs several requests at once and streams back their results (see {@link Batch}).
+	 * <p>In the third template, requests are read from stdin and their results written to stdout, one after the other, until stdin
+	 *   is closed (see {@link #runAsDaemon()}).  This lets a client keep one warm JVM for many requests.
 	 */
 	public static void main(String[] args) {
 		String portString = null;
@@ -102,6 +148,11 @@ public class Main extends NanoHTTPD {
 			if (args.length != 2)
 				error("Port number (only) required with -server option");
 			portString = args[1];
+		} else if (args[0].equals("-daemon")) {
+			if (args.length != 1)
+				error("No arguments allowed with -daemon option");
+			runAsDaemon();
+			return;
 		} else if (args.length != 1)
 			error("Unless -server is specified, there must be exactly one (method name) argument");
 		else
@@ -159,6 +210,69 @@ public class Main extends NanoHTTPD {
 		System.out.println(Dispatcher.dispatch(verb, arg));
 	}
 
+	/** Verb answered by the daemon itself, to check that it is alive */
+	static final String PING = "ping";
+
+	/**
+	 * Run as a daemon serving a sequence of requests on stdin/stdout.
+	 * <p>Each request is a header line containing the verb and the length in bytes of the argument, separated by a space,
+	 *   followed by the argument (in UTF-8).  Each response is a header line containing the length in bytes of the result,
+	 *   followed by the result.  The verb "ping" is answered with "pong".  The daemon exits when stdin is closed.
+	 * <p>Anything the commands print on stdout is redirected to stderr, so as not to corrupt the responses.
+	 */
+	private static void runAsDaemon() {
+		InputStream in = new BufferedInputStream(System.in);
+		OutputStream out = new BufferedOutputStream(System.out);
+		System.setOut(new PrintStream(System.err, true));
+		try {
+			String header;
+			while ((header = readHeader(in)) != null) {
+				int space = header.lastIndexOf(' ');
+				if (space < 0)
+					throw new IOException("Malformed request header: " + header);
+				String verb = header.substring(0, space);
+				byte[] argBytes = readFully(in, Integer.parseInt(header.substring(space + 1)));
+				String result = PING.equals(verb) ? "pong" : Dispatcher.dispatch(verb, new String(argBytes, StandardCharsets.UTF_8));
+				byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+				out.write((resultBytes.length + "\n").getBytes(StandardCharsets.UTF_8));
+				out.write(resultBytes);
+				out.flush();
+			}
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("ERROR: Java service daemon stopping: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+	/** Read a header line (up to, and excluding, a newline), or return null at end of stream */
+	private static String readHeader(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c = in.read();
+		if (c < 0)
+			return null;
+		while (c != '\n') {
+			if (c < 0)
+				throw new EOFException("End of stream in request header");
+			if (c != '\r')
+				line.write(c);
+			c = in.read();
+		}
+		return new String(line.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/** Read exactly the given number of bytes */
+	private static byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int done = 0;
+		while (done < length) {
+			int n = in.read(bytes, done, length - done);
+			if (n < 0)
+				throw new EOFException("End of stream in request argument");
+			done += n;
+		}
+		return bytes;
+	}
+
 	/**
 	 * Run as an http service.
 	 * @param port the port to listen on for http post requests
@@ -167,6 +281,9 @@ public class Main extends NanoHTTPD {
 	private static void runAsServer(int port) {
 		try {
 			Main svc = new Main(port);
+			// Connection threads mostly wait for workers: allow one per worker or queued request, plus a few
+			int connections = WorkerPool.WORKERS + WorkerPool.QUEUE + 4;
+			svc.setAsyncRunner(new BoundedAsyncRunner(connections, connections));
 			svc.start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
 		} catch (Exception e) {
 			error("Could not start: " + e.getMessage());
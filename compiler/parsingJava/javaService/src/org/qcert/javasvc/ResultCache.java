@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.javasvc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the results of verbs which are pure functions of their argument, keyed by the verb and the SHA-256 digest of
+ *   the version of its implementation and the argument.  The version of an implementation is its class name and the
+ *   identity (implementation version, size and date) of the jar or directory it is loaded from, so that the results of a
+ *   previous release are not served by a new one.
+ * <p>Results are kept in memory, up to a total size given by the system property <b>qcert.javasvc.cache.size</b> (in
+ *   characters, default 64M), evicting the least recently used ones.  If the system property <b>qcert.javasvc.cache.dir</b>
+ *   names a directory, results are also stored there (one file per result), so that they survive the service process.
+ *   The files are bounded to a total size given by <b>qcert.javasvc.cache.disk.size</b> (in bytes, default 256M),
+ *   evicting the least recently used ones.
+ */
+public class ResultCache {
+	/** The shared instance */
+	private static final ResultCache INSTANCE = new ResultCache(
+			Long.getLong("qcert.javasvc.cache.size", 64L * 1024 * 1024),
+			System.getProperty("qcert.javasvc.cache.dir"),
+			Long.getLong("qcert.javasvc.cache.disk.size", 256L * 1024 * 1024));
+
+	/** Returns the shared instance */
+	public static ResultCache getInstance() {
+		return INSTANCE;
+	}
+
+	/** The in-memory tier, in access order */
+	private final LinkedHashMap<String, String> memory = new LinkedHashMap<>(64, 0.75f, true);
+	/** The total size of the keys and results in memory */
+	private long memorySize = 0;
+	private final long maxMemorySize;
+	/** The on-disk tier, or null */
+	private final Path directory;
+	/** The total size of the files of the on-disk tier (as far as this process knows) */
+	private long diskSize = 0;
+	private final long maxDiskSize;
+	/** The versions of the implementations of verbs */
+	private static final Map<String, String> versions = new ConcurrentHashMap<>();
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxMemorySize the maximum total size of the results kept in memory
+	 * @param directory the directory of the on-disk tier, or null
+	 * @param maxDiskSize the maximum total size of the files of the on-disk tier
+	 */
+	public ResultCache(long maxMemorySize, String directory, long maxDiskSize) {
+		this.maxMemorySize = maxMemorySize;
+		this.maxDiskSize = maxDiskSize;
+		Path dir = null;
+		if (directory != null && !directory.isEmpty()) {
+			try {
+				dir = Files.createDirectories(Paths.get(directory));
+			} catch (IOException e) {
+				System.err.println("Java service result cache: cannot use directory " + directory + ": " + e.getMessage());
+			}
+		}
+		this.directory = dir;
+		if (dir != null)
+			diskSize = evictFromDisk();
+	}
+
+	/**
+	 * The version of the implementation of a verb
+	 * @param verb the verb
+	 * @return the class implementing the verb and the identity of the jar or directory it comes from
+	 */
+	static String version(String verb) {
+		String implClass = Dispatcher.verbToClass.get(verb);
+		if (implClass == null)
+			return "";
+		return versions.computeIfAbsent(implClass, ResultCache::classVersion);
+	}
+
+	private static String classVersion(String implClass) {
+		StringBuilder version = new StringBuilder(implClass);
+		try {
+			Class<?> cls = Class.forName(implClass);
+			Package pkg = cls.getPackage();
+			if (pkg != null && pkg.getImplementationVersion() != null)
+				version.append(' ').append(pkg.getImplementationVersion());
+			CodeSource source = cls.getProtectionDomain().getCodeSource();
+			if (source != null && source.getLocation() != null) {
+				Path location = Paths.get(source.getLocation().toURI());
+				if (Files.isDirectory(location))
+					// classes loaded from a directory: use the date of the class file itself
+					location = location.resolve(implClass.replace('.', '/') + ".class");
+				version.append(' ').append(location).append(' ').append(Files.size(location))
+						.append(' ').append(Files.getLastModifiedTime(location).toMillis());
+			}
+		} catch (Exception | LinkageError e) {
+			// The class cannot be loaded or located, so it will not run either: the name will do
+		}
+		return version.toString();
+	}
+
+	/**
+	 * Make the key of a request
+	 * @param verb the request verb
+	 * @param arg the request argument
+	 * @return the verb and the hex SHA-256 digest of the version of its implementation and the argument
+	 */
+	static String key(String verb, String arg) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(version(verb).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			byte[] hash = digest.digest((arg == null ? "" : arg).getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder(verb.length() + 1 + 2 * hash.length);
+			key.append(verb).append('-');
+			for (byte b : hash)
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform implements SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Look up the result of a request
+	 * @param verb the request verb
+	 * @param arg the request argument
+	 * @return the cached result or null
+	 */
+	public String get(String verb, String arg) {
+		String key = key(verb, arg);
+		String result;
+		synchronized (this) {
+			result = memory.get(key);
+		}
+		if (result != null) {
+			memoryHits.incrementAndGet();
+			return result;
+		}
+		result = readFromDisk(key);
+		if (result != null) {
+			diskHits.incrementAndGet();
+			putInMemory(key, result);
+			return result;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Record the result of a request
+	 * @param verb the request verb
+	 * @param arg the request argument
+	 * @param result the result
+	 */
+	public void put(String verb, String arg, String result) {
+		String key = key(verb, arg);
+		putInMemory(key, result);
+		writeToDisk(key, result);
+	}
+
+	private synchronized void putInMemory(String key, String result) {
+		long size = key.length() + result.length();
+		if (size > maxMemorySize)
+			return;
+		String old = memory.put(key, result);
+		if (old != null)
+			memorySize -= key.length() + old.length();
+		memorySize += size;
+		Iterator<Map.Entry<String, String>> lru = memory.entrySet().iterator();
+		while (memorySize > maxMemorySize && lru.hasNext()) {
+			Map.Entry<String, String> eldest = lru.next();
+			memorySize -= eldest.getKey().length() + eldest.getValue().length();
+			lru.remove();
+		}
+	}
+
+	private String readFromDisk(String key) {
+		if (directory == null)
+			return null;
+		Path file = directory.resolve(key);
+		try {
+			if (!Files.isRegularFile(file))
+				return null;
+			String result = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+			// The date of a file is its last use, for eviction
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return result;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void writeToDisk(String key, String result) {
+		if (directory == null)
+			return;
+		Path temp = null;
+		try {
+			// Write then rename, so that readers (possibly in other processes) never see a partial result
+			byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > maxDiskSize)
+				return;
+			temp = Files.createTempFile(directory, key, ".tmp");
+			Files.write(temp, bytes);
+			Path file = directory.resolve(key);
+			synchronized (this) {
+				// A result written before (possibly by another process) is replaced
+				long replaced = 0;
+				try {
+					replaced = Files.size(file);
+				} catch (NoSuchFileException e) {
+					// a new result
+				}
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				diskSize += bytes.length - replaced;
+				if (diskSize > maxDiskSize)
+					diskSize = evictFromDisk();
+			}
+		} catch (IOException e) {
+			System.err.println("Java service result cache: cannot write " + key + ": " + e.getMessage());
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete the least recently used files of the on-disk tier until it fits in its maximum size.  The directory is
+	 *   listed, so that the files written by other processes are accounted for.
+	 * @return the total size of the remaining files
+	 */
+	private long evictFromDisk() {
+		List<Path> files = new ArrayList<>();
+		Map<Path, Long> dates = new HashMap<>();
+		long total = 0;
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory)) {
+			for (Path file : dir) {
+				if (!Files.isRegularFile(file) || file.getFileName().toString().endsWith(".tmp"))
+					continue;
+				try {
+					total += Files.size(file);
+					dates.put(file, Files.getLastModifiedTime(file).toMillis());
+					files.add(file);
+				} catch (IOException e) {
+					// deleted meanwhile
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Java service result cache: cannot list " + directory + ": " + e.getMessage());
+			return total;
+		}
+		if (total <= maxDiskSize)
+			return total;
+		files.sort(Comparator.comparing(dates::get));
+		for (Path file : files) {
+			if (total <= maxDiskSize)
+				break;
+			try {
+				long size = Files.size(file);
+				Files.deleteIfExists(file);
+				total -= size;
+			} catch (IOException e) {
+				// deleted meanwhile, or in use
+			}
+		}
+		return total;
+	}
+
+	/** Empty the in-memory tier (the on-disk tier is left alone) */
+	public synchronized void clear() {
+		memory.clear();
+		memorySize = 0;
+	}
+
+	/**
+	 * @return the counters of the cache, as a JSON object
+	 */
+	public String stats() {
+		long entries, size, disk;
+		synchronized (this) {
+			entries = memory.size();
+			size = memorySize;
+			disk = diskSize;
+		}
+		return String.format("{\"memoryHits\":%d,\"diskHits\":%d,\"misses\":%d,\"entries\":%d,\"size\":%d,\"diskSize\":%d}",
+				memoryHits.get(), diskHits.get(), misses.get(), entries, size, disk);
+	}
+
+	/** The "cacheStats" verb, which returns the counters of the shared cache */
+	public static class Stats implements Command {
+		/** The verb */
+		public static final String VERB = "cacheStats";
+
+		@Override
+		public String invoke(String arg) {
+			return getInstance().stats();
+		}
+
+		@Override
+		public boolean isReentrant() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.javasvc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads executing requests in server mode.  At most <em>workers</em> requests run at the same time
+ *   and at most <em>queued</em> more wait for a worker; beyond that, requests are rejected so that the server can answer
+ *   that it is busy rather than accumulate work (and threads).
+ * <p>The sizes are taken from the system properties <b>qcert.javasvc.workers</b> (defaults to the number of processors)
+ *   and <b>qcert.javasvc.queue</b> (defaults to four times the number of workers).
+ */
+public class WorkerPool {
+	/** The number of workers */
+	public static final int WORKERS = Math.max(1, Integer.getInteger("qcert.javasvc.workers", Runtime.getRuntime().availableProcessors()));
+	/** The number of requests which may wait for a worker */
+	public static final int QUEUE = Math.max(0, Integer.getInteger("qcert.javasvc.queue", 4 * WORKERS));
+
+	/** The shared instance */
+	private static final WorkerPool INSTANCE = new WorkerPool(WORKERS, QUEUE);
+
+	/** Returns the shared instance */
+	public static WorkerPool getInstance() {
+		return INSTANCE;
+	}
+
+	/** Thrown when a request is rejected because all workers are busy and the queue is full */
+	public static class BusyException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		BusyException() {
+			super("Java service busy: too many requests");
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	private WorkerPool(int workers, int queued) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "javaService worker " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				queued == 0 ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(queued), factory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Submit a request for execution by a worker
+	 * @param verb the request verb
+	 * @param arg the request argument
+	 * @return the future result
+	 * @throws BusyException if the request cannot be accepted now
+	 */
+	public Future<String> submit(String verb, String arg) throws BusyException {
+		return submit(() -> Dispatcher.dispatch(verb, arg));
+	}
+
+	/**
+	 * Submit a task for execution by a worker
+	 * @param task the task
+	 * @return the future result
+	 * @throws BusyException if the task cannot be accepted now
+	 */
+	public <T> Future<T> submit(Callable<T> task) throws BusyException {
+		try {
+			return executor.submit(task);
+		} catch (RejectedExecutionException e) {
+			throw new BusyException();
+		}
+	}
+
+	/**
+	 * Execute a request with a worker and wait for its result
+	 * @param verb the request verb
+	 * @param arg the request argument
+	 * @return the request result
+	 * @throws BusyException if the request cannot be accepted now
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public String execute(String verb, String arg) throws BusyException, InterruptedException {
+		return getResult(verb, submit(verb, arg));
+	}
+
+	/**
+	 * Wait for the result of a request
+	 * @param verb the request verb (for diagnostics)
+	 * @param future the future result of the request
+	 * @return the request result
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public static String getResult(String verb, Future<String> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			// Dispatcher.dispatch catches the failures of commands, so this is not expected
+			return "ERROR: implementation of " + verb + " failed with the error -- " + e.getCause().getMessage();
+		}
+	}
+
+	/**
+	 * Wait (for a bounded time) for the result of a request
+	 * @param verb the request verb (for diagnostics)
+	 * @param future the future result of the request
+	 * @param timeoutMillis how long to wait, in milliseconds
+	 * @return the request result (an error if it did not complete in time, in which case it is cancelled)
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public static String getResult(String verb, Future<String> future, long timeoutMillis) throws InterruptedException {
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			// Dispatcher.dispatch catches the failures of commands, so this is not expected
+			return "ERROR: implementation of " + verb + " failed with the error -- " + e.getCause().getMessage();
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			return "ERROR: " + verb + " did not complete within " + timeoutMillis + " ms";
+		}
+	}
+}
@@ -0,0 +1,455 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Writes Q*cert data in a compact binary format, which can be read (from a memory mapping of the file) by
+ *   <b>org.qcert.runtime.BinaryDataReader</b> in the Java runtime, instead of parsing the JSON encoding of the data.
+ * <p>A file starts with the four bytes <b>QCBD</b> and a version byte (1), followed by a single value.  A value is a tag byte
+ *   followed by its contents; integers are variable-length (zigzag for signed ones) unless stated, strings are a length and UTF-8 bytes:
+ * <ul><li><b>0</b> null, <b>1</b> false, <b>2</b> true
+ * <li><b>3</b> an integral JSON number (signed), <b>4</b> any other JSON number (as an 8-byte double), <b>5</b> a JSON number too large
+ *   for either (as a string)
+ * <li><b>6</b> a string
+ * <li><b>7</b> a nat, <b>{"$nat": n}</b> (signed)
+ * <li><b>8</b> <b>{"$left": v}</b> and <b>9</b> <b>{"$right": v}</b> (followed by <b>v</b>)
+ * <li><b>10</b> a branded value <b>{"$class": [b1, ...], "$data": v}</b> (the number of brands, the brands as strings, then <b>v</b>)
+ * <li><b>11</b> a date <b>{"$foreign": {"$date": {"year": y, "month": m, "day": d}}}</b> (<b>y</b> signed, <b>m</b>, <b>d</b>)
+ * <li><b>12</b> a record and <b>13</b> a bag: the length in bytes of the rest of the value (8 bytes) and the number of fields or
+ *   elements (4 bytes), followed by the fields (name as a string and value) or the elements.  The lengths make it possible to
+ *   skip over records and bags without decoding them.
+ * </ul>
+ * <p>Records and bags can be written whole, with {@link #write(JsonElement)}, or a field or element at a time between
+ *   {@link #beginRecord()} and {@link #endRecord()} or {@link #beginBag()} and {@link #endBag()}, in which case their lengths
+ *   are filled in at the end (the output is a file for that reason).
+ */
+public class BinaryDataWriter implements Closeable {
+	static final byte[] MAGIC = { 'Q', 'C', 'B', 'D' };
+	static final byte VERSION = 1;
+
+	static final byte NULL = 0;
+	static final byte FALSE = 1;
+	static final byte TRUE = 2;
+	static final byte LONG = 3;
+	static final byte DOUBLE = 4;
+	static final byte NUMBER = 5;
+	static final byte STRING = 6;
+	static final byte NAT = 7;
+	static final byte LEFT = 8;
+	static final byte RIGHT = 9;
+	static final byte BRAND = 10;
+	static final byte DATE = 11;
+	static final byte RECORD = 12;
+	static final byte BAG = 13;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	/** The position in the file of the start of the buffer */
+	private long flushed;
+	/** The records and bags being written a field or element at a time */
+	private final Deque<Container> open = new ArrayDeque<>();
+
+	/** A record or bag whose length and count are filled in when it is complete */
+	private static class Container {
+		final byte tag;
+		/** The position of the length */
+		final long start;
+		int count;
+		boolean named;
+
+		Container(byte tag, long start) {
+			this.tag = tag;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * @param file the file to write (replacing any existing file)
+	 * @throws IOException
+	 */
+	public BinaryDataWriter(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.put(MAGIC).put(VERSION);
+	}
+
+	/**
+	 * Write a complete value: the whole content of the file, the next element of the current bag, or the value of the current field
+	 * @param value the value
+	 * @throws IOException
+	 */
+	public void write(JsonElement value) throws IOException {
+		beginValue();
+		encode(value);
+	}
+
+	/** Start writing a record, a field at a time, with {@link #name(String)} followed by the value */
+	public void beginRecord() throws IOException {
+		beginValue();
+		begin(RECORD);
+	}
+
+	/**
+	 * Start writing a field of the current record
+	 * @param name the name of the field
+	 */
+	public void name(String name) throws IOException {
+		Container current = open.peek();
+		if (current == null || current.tag != RECORD || current.named)
+			throw new IllegalStateException("Not expecting a field name");
+		current.named = true;
+		current.count++;
+		putString(name);
+	}
+
+	/** Finish writing the current record */
+	public void endRecord() throws IOException {
+		end(RECORD);
+	}
+
+	/** Start writing a bag, an element at a time, with {@link #write(JsonElement)} or by writing a nested record or bag */
+	public void beginBag() throws IOException {
+		beginValue();
+		begin(BAG);
+	}
+
+	/** Finish writing the current bag */
+	public void endBag() throws IOException {
+		end(BAG);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!open.isEmpty())
+				throw new IllegalStateException("Unfinished record or bag");
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Convert a JSON value to the binary format.  The fields of a top-level object whose values are arrays are converted an element at a
+	 *   time, so that (like the data produced by DataLoader) they are never entirely in memory.
+	 * @param in a reader positioned before the value
+	 * @throws IOException
+	 */
+	public void convert(JsonReader in) throws IOException {
+		if (in.peek() != JsonToken.BEGIN_OBJECT) {
+			write(Streams.parse(in));
+			return;
+		}
+		beginRecord();
+		in.beginObject();
+		while (in.hasNext()) {
+			name(in.nextName());
+			if (in.peek() == JsonToken.BEGIN_ARRAY) {
+				beginBag();
+				in.beginArray();
+				while (in.hasNext())
+					write(Streams.parse(in));
+				in.endArray();
+				endBag();
+			} else
+				write(Streams.parse(in));
+		}
+		in.endObject();
+		endRecord();
+	}
+
+	/**
+	 * Converts a JSON file to the binary format
+	 * <p>Command line arguments are the JSON file and the binary file
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2)
+			throw new IllegalArgumentException("Usage: BinaryDataWriter <JSON file> <binary file>");
+		try (JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)));
+				BinaryDataWriter out = new BinaryDataWriter(Paths.get(args[1]))) {
+			in.setLenient(true);
+			out.convert(in);
+		}
+	}
+
+	/** Account for a value about to be written in the current container, if any */
+	private void beginValue() {
+		Container current = open.peek();
+		if (current == null)
+			return;
+		if (current.tag == BAG)
+			current.count++;
+		else if (current.named)
+			current.named = false;
+		else
+			throw new IllegalStateException("A record field needs a name");
+	}
+
+	private void begin(byte tag) throws IOException {
+		ensure(13);
+		buffer.put(tag);
+		open.push(new Container(tag, position()));
+		buffer.putLong(0).putInt(0);
+	}
+
+	private void end(byte tag) throws IOException {
+		Container current = open.peek();
+		if (current == null || current.tag != tag || current.named)
+			throw new IllegalStateException(tag == RECORD ? "Not writing a record" : "Not writing a bag");
+		open.pop();
+		patch(current.start, position() - current.start - 8, current.count);
+	}
+
+	private void encode(JsonElement value) throws IOException {
+		if (value == null || value.isJsonNull())
+			putTag(NULL);
+		else if (value.isJsonPrimitive())
+			encode(value.getAsJsonPrimitive());
+		else if (value.isJsonArray()) {
+			JsonArray bag = value.getAsJsonArray();
+			long start = startContainer(BAG);
+			for (JsonElement elem : bag)
+				encode(elem);
+			patch(start, position() - start - 8, bag.size());
+		} else
+			encode(value.getAsJsonObject());
+	}
+
+	private void encode(JsonPrimitive prim) throws IOException {
+		if (prim.isBoolean())
+			putTag(prim.getAsBoolean() ? TRUE : FALSE);
+		else if (prim.isString()) {
+			putTag(STRING);
+			putString(prim.getAsString());
+		} else {
+			Number num = prim.getAsNumber();
+			if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
+				putTag(LONG);
+				putSignedVarLong(num.longValue());
+			} else if (num instanceof Double || num instanceof Float) {
+				putDouble(num.doubleValue());
+			} else {
+				/* Numbers parsed from JSON text are kept as text until used */
+				String text = num.toString();
+				Long integral = parseIntegral(text);
+				if (integral != null) {
+					putTag(LONG);
+					putSignedVarLong(integral);
+				} else if (isIntegralText(text)) {
+					putTag(NUMBER);
+					putString(text);
+				} else
+					putDouble(Double.parseDouble(text));
+			}
+		}
+	}
+
+	private void encode(JsonObject obj) throws IOException {
+		if (obj.size() == 1) {
+			Entry<String, JsonElement> entry = obj.entrySet().iterator().next();
+			JsonElement value = entry.getValue();
+			switch (entry.getKey()) {
+			case "$nat":
+				Long nat = value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber() ? parseIntegral(value.getAsString()) : null;
+				if (nat != null) {
+					putTag(NAT);
+					putSignedVarLong(nat);
+					return;
+				}
+				break;
+			case "$left":
+				putTag(LEFT);
+				encode(value);
+				return;
+			case "$right":
+				putTag(RIGHT);
+				encode(value);
+				return;
+			case "$foreign":
+				if (encodeDate(value))
+					return;
+				break;
+			default:
+				break;
+			}
+		} else if (obj.size() == 2 && obj.has("$data") && isBrands(obj.get("$class"))) {
+			JsonArray brands = obj.get("$class").getAsJsonArray();
+			putTag(BRAND);
+			putVarLong(brands.size());
+			for (JsonElement brand : brands)
+				putString(brand.getAsString());
+			encode(obj.get("$data"));
+			return;
+		}
+		long start = startContainer(RECORD);
+		for (Entry<String, JsonElement> entry : obj.entrySet()) {
+			putString(entry.getKey());
+			encode(entry.getValue());
+		}
+		patch(start, position() - start - 8, obj.size());
+	}
+
+	/** Encode the value of a $foreign member if it is a date, returning false if it is not */
+	private boolean encodeDate(JsonElement foreign) throws IOException {
+		if (!foreign.isJsonObject() || foreign.getAsJsonObject().size() != 1 || !foreign.getAsJsonObject().has("$date"))
+			return false;
+		JsonElement date = foreign.getAsJsonObject().get("$date");
+		if (!date.isJsonObject() || date.getAsJsonObject().size() != 3)
+			return false;
+		Long year = dateComponent(date, "year"), month = dateComponent(date, "month"), day = dateComponent(date, "day");
+		if (year == null || month == null || day == null || month < 0 || day < 0)
+			return false;
+		putTag(DATE);
+		putSignedVarLong(year);
+		putVarLong(month);
+		putVarLong(day);
+		return true;
+	}
+
+	private static Long dateComponent(JsonElement date, String name) {
+		JsonElement value = date.getAsJsonObject().get(name);
+		if (value == null || !value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber())
+			return null;
+		return parseIntegral(value.getAsString());
+	}
+
+	private static boolean isBrands(JsonElement brands) {
+		if (brands == null || !brands.isJsonArray())
+			return false;
+		for (JsonElement brand : brands.getAsJsonArray())
+			if (!brand.isJsonPrimitive() || !brand.getAsJsonPrimitive().isString())
+				return false;
+		return true;
+	}
+
+	private static boolean isIntegralText(String text) {
+		int start = text.startsWith("-") ? 1 : 0;
+		if (start == text.length())
+			return false;
+		for (int i = start; i < text.length(); i++)
+			if (!Character.isDigit(text.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/** The value of the text of an integral number, or null if it is not one or does not fit in a long */
+	private static Long parseIntegral(String text) {
+		if (!isIntegralText(text))
+			return null;
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/* Low-level output */
+
+	private long startContainer(byte tag) throws IOException {
+		ensure(13);
+		buffer.put(tag);
+		long start = position();
+		buffer.putLong(0).putInt(0);
+		return start;
+	}
+
+	/** Fill in the length and count of a container, in the buffer if it is still there */
+	private void patch(long start, long length, int count) throws IOException {
+		if (start >= flushed)
+			buffer.putLong((int) (start - flushed), length).putInt((int) (start - flushed) + 8, count);
+		else {
+			ByteBuffer fields = ByteBuffer.allocate(12);
+			fields.putLong(length).putInt(count).flip();
+			while (fields.hasRemaining())
+				channel.write(fields, start + fields.position());
+		}
+	}
+
+	private long position() {
+		return flushed + buffer.position();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer, flushed + buffer.position());
+		flushed += buffer.limit();
+		buffer.clear();
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void putTag(byte tag) throws IOException {
+		ensure(1);
+		buffer.put(tag);
+	}
+
+	private void putDouble(double value) throws IOException {
+		ensure(9);
+		buffer.put(DOUBLE).putDouble(value);
+	}
+
+	private void putVarLong(long value) throws IOException {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void putSignedVarLong(long value) throws IOException {
+		putVarLong((value << 1) ^ (value >> 63));
+	}
+
+	private void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putVarLong(bytes.length);
+		if (bytes.length <= buffer.capacity()) {
+			ensure(bytes.length);
+			buffer.put(bytes);
+		} else {
+			flush();
+			ByteBuffer large = ByteBuffer.wrap(bytes);
+			while (large.hasRemaining())
+				channel.write(large, flushed + large.position());
+			flushed += bytes.length;
+		}
+	}
+}
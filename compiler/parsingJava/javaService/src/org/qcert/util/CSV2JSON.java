@@ -64,4 +64,9 @@ public class CSV2JSON implements Command {
 			return "ERROR: " + t.getMessage();
 		}
 	}
+
+	@Override
+	public boolean isReentrant() {
+		return true;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.csv.CSVFormat;
+
+/**
+ * Splits CSV text into chunks of whole records, so that the chunks can be parsed independently (and in parallel).
+ * <p>Records are delimited by a scan which follows the quoting rules of RFC 4180 (a field is quoted only if it starts with the
+ *   quote character, and a quote character is doubled inside a quoted field), so a line break inside a quoted field never ends
+ *   a chunk.  The scan does not attempt to follow escape characters, comments or ignored surrounding spaces: text in a format
+ *   using any of those is returned as a single chunk.
+ */
+class CsvChunker {
+	private final Reader in;
+	private final int chunkSize;
+	private final char delimiter;
+	private final Character quote;
+	private final boolean splittable;
+	private final boolean ignoreEmptyLines;
+	private final char[] buffer = new char[8192];
+	private int position, limit;
+
+	/**
+	 * @param in the CSV text
+	 * @param format the format of the text
+	 * @param chunkSize the number of characters after which a chunk is ended (at the end of the current record)
+	 */
+	CsvChunker(Reader in, CSVFormat format, int chunkSize) {
+		this.in = in;
+		this.chunkSize = chunkSize;
+		this.delimiter = format.getDelimiter();
+		this.quote = format.getQuoteCharacter();
+		this.splittable = format.getEscapeCharacter() == null && format.getCommentMarker() == null && !format.getIgnoreSurroundingSpaces();
+		this.ignoreEmptyLines = format.getIgnoreEmptyLines();
+	}
+
+	/**
+	 * Reads the next (non-empty, if the format ignores empty lines) record, used for reading the header
+	 * @return the text of the record, or null at the end of the text
+	 * @throws IOException
+	 */
+	String nextRecord() throws IOException {
+		StringBuilder record = new StringBuilder();
+		while (readRecord(record)) {
+			if (!ignoreEmptyLines || !isEmptyLine(record))
+				return record.toString();
+			record.setLength(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the next chunk
+	 * @return the text of the chunk, or null at the end of the text
+	 * @throws IOException
+	 */
+	String nextChunk() throws IOException {
+		StringBuilder chunk = new StringBuilder();
+		while (readRecord(chunk) && (!splittable || chunk.length() < chunkSize))
+			;
+		return chunk.length() == 0 ? null : chunk.toString();
+	}
+
+	/** Appends the text of the next record, including its line break, and returns false if there is none */
+	private boolean readRecord(StringBuilder text) throws IOException {
+		int start = text.length();
+		boolean quoted = false, closing = false, fieldStart = true;
+		int c;
+		while ((c = read()) >= 0) {
+			char ch = (char) c;
+			text.append(ch);
+			if (quoted) {
+				if (quote != null && ch == quote) {
+					/* Either the end of the field or the first of a doubled quote */
+					quoted = false;
+					closing = true;
+				}
+				continue;
+			}
+			if (closing) {
+				closing = false;
+				if (ch == quote) {
+					quoted = true;
+					continue;
+				}
+			}
+			if (ch == '\n')
+				return true;
+			if (fieldStart && quote != null && ch == quote)
+				quoted = true;
+			fieldStart = ch == delimiter || ch == '\r';
+		}
+		return text.length() > start;
+	}
+
+	private static boolean isEmptyLine(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			char ch = text.charAt(i);
+			if (ch != '\r' && ch != '\n')
+				return false;
+		}
+		return true;
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++];
+	}
+}
@@ -1,335 +1,651 @@
-/*
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.qcert.util;
-
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
-import org.qcert.util.SchemaUtil.ListType;
-import org.qcert.util.SchemaUtil.ObjectType;
-import org.qcert.util.SchemaUtil.PrimitiveType;
-import org.qcert.util.SchemaUtil.Type;
-
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.internal.Streams;
-import com.google.gson.stream.JsonWriter;
-
-/**
- * Generates the standard qcert input format from one or more "CSV" files and a qcert schema.
- * 
- * <p>There are two public methods, a <b>loadData</b> method, which is flexible enough to handle all sorts of file naming conventions
- *   and "CSV" formats, and a <b>main</b> method, which can be invoked from the command line but requires a strict file naming
- *   convention and handles only strict the RFC 4180 CSV interpretation, with a required header line in each file.
- *    
- * <p>Most generally, the input consists of
- * <ol><li>a set of CSV files and their associated internal type ("table") names.  On the command line, the association is strict:
- *   the file name must be the table name plus the suffix <b>.csv</b> and be found in a specific directory.  For <b>loadData</b>
- *   the association is given explicitly in a Map argument.
- * <li>a CSV format designation (all formats supported by Apache commons-csv, but a header must be available somehow, 
- *  either from the format or from each file).  On the command line, the format is not specified and must be RFC 4180 with in-file
- *  headers (the delimiter may optionally be set to something other than comma).
- *  <li>a qcert schema.  On the command line, this is given as a file path.  For <b>loadData</b> it is given as a <b>JsonElement</b>.
- *  </ol>
- * <p>Each CSV file should contain just data for its corresponding internal type.  That type may be either a brand in 
- *   the schema's <b>brandTypes</b> or a partition name in the schema's <b>globals</b>, depending on the memory
- *  layout intended.
- * <p>The schema should be in one of qcert standard JSON formats supported by <b>SchemaUtil</b>.  
- *   The two different ways that the set of "table" names can match names in the schema gives rise to a different memory layout.
- * <ol><li>If the table name matches a brand in the <b>brandTypes</b>, the type definition is taken from <b>typeDefs</b>
- *  and the input of that type will go in the partition called "WORLD", marked by its type.  
- *  This is a heuristic but works for present cases because, depending on the source language, we either assume this case or the
- *   next one.
- *  <li>If the table name matches a member of <b>globals</b>, the type definition is the <b>type</b> of that member
- *  and input of that type will go in a homogeneous memory partition named for the type.
- *  </ol>
- * In either case, the names of the attributes in the type definition are matched against header names in the CSV file.  A column in 
- * the CSV file that does not match an attribute name is an error.
- * <p>For this to work, all types in the schema must be primitive (numbers, booleans strings, and dates).  Embedded list and
- * object types are not handled.
- * <p>Currently, if the type is "date" (ignoring case), the field is formatted as a date JSON object with members "year", "month" and "day".
- * This is a good convention for SQL but other formats probably need to be investigated.
- */
-public class DataLoader {
-	private DataLoader() {}
-	
-	/** Primary entry point to this service.  The 'main' method is also useful but can be bypassed to call this instead
-	 *   when files are named in non-standard ways or to use a CSV format understood by Apache commons-csv but other than strict RFC 4180.
-	 * @param tableMap a map from "table names" (type names matching CSV files) to the corresponding CSV file contents (as Strings)
-	 * @param jsonSchema the JSON format schema in one of several possible variations, as a JsonElement (array or object)
-	 * @param format the CSV format to use (if the format does not include a header we assume that the first line of 
-	 *   each file constitutes a header
-	 * @return a JsonObject representing the loaded data
-	 * @throws Exception
-	 */
-	public static JsonObject loadData(Map<String, String> tableMap, JsonElement jsonSchema, CSVFormat format) throws Exception {
-		if (format.getHeader() == null)
-			format = format.withHeader();
-		Map<String, ObjectType> types = SchemaUtil.getSchema(jsonSchema);
-		boolean partitioned = types.size() == 0;
-		if (partitioned) {
-			if (jsonSchema.isJsonObject())
-				types = SchemaUtil.getGlobalsFromSchema(jsonSchema.getAsJsonObject());
-			if (types.size() == 0)
-				throw new IllegalArgumentException("Schema contains no useful information");
-		}
-			
-		/* Process the data files */
-		JsonObject ans = new JsonObject();
-		JsonArray world = partitioned ? null : new JsonArray();
-		if (!partitioned)
-			ans.add("WORLD", world);
-		for (Entry<String, String> filePair : tableMap.entrySet()) {
-			String table = filePair.getKey();
-			ObjectType def = types.get(table);
-			if (def == null)
-				throw new IllegalArgumentException("Type " + table + " is not in the schema");
-			JsonArray thisType = process(filePair.getValue(), def, format);
-			if (partitioned)
-				ans.add(table, thisType);
-			else {
-				for (JsonElement elem : thisType) {
-					JsonObject toAdd = new JsonObject();
-					JsonArray brands = new JsonArray();
-					brands.add(new JsonPrimitive(table));
-					toAdd.add("type", brands);
-					toAdd.add("data", elem);
-					world.add(toAdd);
-				}
-			}
-		}
-		return ans;
-	}
-
-	/**
-	 * Main program.  
-	 * <p>Command line arguments are
-	 * <ul><li><b>-dir &lt;path&gt;</b> (optional) the directory in which to find or create all other files, defaults to current directory
-	 * <li><b>-output &lt;filename&gt;</b> (required) the name of the output file (absolute or relative to <b>-dir</b>)
-	 * <li><b>-schema &lt;filename&gt;</b> (required) the name of the schema file (absolute or relative to <b>-dir</b>)
-	 * <li><b>-delimiter &lt;char&gl;</b> (optional) a character to use as delimiter (defaults to comma; if the chose character is shell-sensitive, be sure to quote it)
-	 * <li>all other arguments are assumed to be type names.  A file of that name with extension <b>.csv</b> must be present in <b>-dir</b>
-	 * </ul>
-	 */
-	public static void main(String[] args) throws Exception {
-		
-		/* Parse the command line */
-		String directory = null, schema = null, output = null; char delimiter = 0;
-		List<String> tables = new ArrayList<>();
-		boolean dirFlag = false, outFlag = false, schemaFlag = false, delimiterFlag = false;
-		for (String arg : args) {
-			boolean table = false;
-			if (dirFlag)
-				directory = arg;
-			else if (outFlag)
-				output = arg;
-			else if (schemaFlag)
-				schema = arg;
-			else if (delimiterFlag) {
-				if (arg.length() != 1)
-					throw new IllegalArgumentException("Delimiters must be single character");
-				else
-					delimiter = arg.charAt(0);
-			} else
-				table = true;
-			dirFlag = outFlag = schemaFlag = delimiterFlag = false;
-			if (arg.charAt(0) == '-') {
-				switch(arg) {
-				case "-dir":
-					if (directory != null)
-						throw new IllegalArgumentException("Duplicate -dir");
-					else
-						dirFlag = true;
-					continue;
-				case "-output":
-					if (output != null)
-						throw new IllegalArgumentException("Duplicate -output");
-					else
-						outFlag = true;
-					continue;
-				case "-schema":
-					if (schema != null)
-						throw new IllegalArgumentException("Duplicate -schema");
-					else
-						schemaFlag = true;
-					continue;
-				case "-delimiter":
-					if (delimiter != 0)
-						throw new IllegalArgumentException("Duplicate -delimiter");
-					else
-						delimiterFlag = true;
-					continue;
-				default:
-					throw new IllegalArgumentException("Unknown option :" + arg);
-				}
-			}
-			if (table)
-				tables.add(arg);
-		}
-		if (output == null)
-			throw new IllegalArgumentException("Output file must be specified");
-		if (schema == null)
-			throw new IllegalArgumentException("Schema file must be specified");
-		File outputFile = new File(output);
-		File schemaFile = new File(schema);
-		if (directory != null) {
-			if (!outputFile.isAbsolute())
-				outputFile = new File(directory, output);
-			if (!schemaFile.isAbsolute())
-				schemaFile = new File(directory, schema);
-		}
-		
-		/* Canonicalize the file names, read the contents, and associate each with its corresponding table name */
-		Map<String, String> tableMap = new HashMap<>();
-		for (String table : tables) {
-			File toRead = directory == null ? new File(table + ".csv") : new File(directory, table + ".csv");
-			String contents = new String(Files.readAllBytes(Paths.get(toRead.getAbsolutePath())));
-			tableMap.put(table, contents);
-		}
-		
-		/* Parse the schema */
-		JsonElement jsonSchema = new JsonParser().parse(new FileReader(schemaFile));
-
-		/* Process, using callable service */
-		CSVFormat format = CSVFormat.RFC4180;
-		if (delimiter != 0)
-			format = format.withDelimiter(delimiter);
-		JsonObject ans = loadData(tableMap, jsonSchema, format);
-		
-		/* Write the result */
-		FileWriter wtr = new FileWriter(outputFile);
-		JsonWriter json = new JsonWriter(wtr);
-		json.setLenient(true);
-		json.setIndent("  ");
-		Streams.write(ans, json);
-		json.close();
-	}
-
-	/**
-	 * Convert a primitive value of designated type to a JsonElement
-	 * @param value the value to convert
-	 * @param fieldType the type of the field
-	 * @return a JsonElement (either a primitive or a date object)
-	 */
-	private static JsonElement convertPrimitiveValue(String value, Type fieldType) {
-		String typeName = ((PrimitiveType) fieldType).typeName;
-		switch(typeName) {
-		case "String":
-			return new JsonPrimitive(value);
-		case "Nat":
-      JsonObject ans = new JsonObject();
-			/* We are a little loosy-goosy with numbers since the sources of information are often inexact */
-			try {
-			    ans.add("$nat",new JsonPrimitive(Integer.parseInt(value)));
-			    return ans;
-			} catch (NumberFormatException ig) {
-			    ans.add("$nat",new JsonPrimitive(Double.parseDouble(value)));
-			    return ans;
-			}
-		case "Float":
-        return new JsonPrimitive(Double.parseDouble(value));
-		case "ESqlDate":
-			return formatDate(value);
-		case "Bool":
-			return new JsonPrimitive(value.equalsIgnoreCase("true"));
-		default:
-			throw new UnsupportedOperationException("Don't known how to convert primitive schema type " + typeName);
-		}
-	}
-
-	/**
-	 * Format a SQL-style String date into a JSON date object, which, by convention, we use for this type
-	 * TODO support other kinds of dates
-	 * @param stringDate the date to format
-	 * @return the JSON result
-	 */
-	private static JsonElement formatDate(String stringDate) {
-		String[] dateParts = stringDate.split("-");
-		assert dateParts.length == 3;
-		String[] names = {"year",  "month", "day"};
-		JsonObject ans = new JsonObject();
-		JsonObject ansIn = new JsonObject();
-		JsonObject ansIn2 = new JsonObject();
-		for (int i = 0; i < 3; i++) {
-      ansIn2.add(names[i], new JsonPrimitive(Integer.parseInt(dateParts[i])));
-		}
-    ansIn.add("$date", ansIn2);
-    ans.add("$foreign", ansIn);
-		return ans;
-	}
-
-	/** Process an individual table, producing its rows in JSON form 
-	 * @param data the CSV file contents as a String
-	 * @param def the type definition as an ObjectType
-	 * @param format the CSVFormat to use
-	 * @return a JsonArray of the translation of the rows
-	 * @throws Exception
-	 */
-	private static JsonArray process(String data, ObjectType def, CSVFormat format) throws Exception {
-		JsonArray ans = new JsonArray();
-		List<CSVRecord> records = CSVParser.parse(data, format).getRecords();
-		for (CSVRecord record : records) {
-			Map<String, String> recmap = record.toMap();
-			JsonObject datum = new JsonObject();
-			for (Entry<String, String> col : recmap.entrySet()) {
-				datum.add(col.getKey(), processColumn(col.getKey(), col.getValue(), def));
-			}
-			ans.add(datum);
-		}
-		return ans;
-	}
-
-	/**
-	 * Process an individual column of an individual row of an individual table, producing its JSON representation as a JSON object
-	 * @param fieldName the name of the column
-	 * @param value the raw (String) value in the CSV file
-	 * @param def the ObjectType that should produce the type for each field name, allowing the value to be interpreted
-	 * @return a JsonObject encoding the column of the row
-	 */
-	private static JsonElement processColumn(String fieldName, String value, ObjectType def) {
-		if (fieldName == null)
-			throw new IllegalArgumentException("No header information in CSV file");
-		Type fieldType = def.attributes.get(fieldName);
-		if (fieldType == null)
-			throw new IllegalArgumentException("Field " + fieldName + " is not among the attributes of type " + def.brand);
-		if (fieldType instanceof PrimitiveType) {
-			return convertPrimitiveValue(value, fieldType);
-		}
-		if (fieldType instanceof ListType) {
-			Type elementType = ((ListType) fieldType).elementType;
-			if (elementType instanceof PrimitiveType) {
-				JsonArray ans = new JsonArray();
-				String[] values = value.split(",");
-				for (String val : values)
-					ans.add(convertPrimitiveValue(val, elementType));
-				return ans;
-			}
-		}
-		throw new UnsupportedOperationException("Can't handle embedded object types, lists thereof, or lists of lists, when loading data");
-	}
-}
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.qcert.util.SchemaUtil.ListType;
+import org.qcert.util.SchemaUtil.ObjectType;
+import org.qcert.util.SchemaUtil.PrimitiveType;
+import org.qcert.util.SchemaUtil.Type;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Generates the standard qcert input format from one or more "CSV" files and a qcert schema.
+ * 
+ * <p>There are three public methods, a <b>loadData</b> method, which is flexible enough to handle all sorts of file naming conventions
+ *   and "CSV" formats, a <b>streamData</b> method, which does the same but reads the CSV data from Readers and writes the result to
+ *   a JsonWriter one row at a time (so that its memory use does not depend on the size of the data), and a <b>main</b> method, which
+ *   can be invoked from the command line but requires a strict file naming convention and handles only strict the RFC 4180 CSV
+ *   interpretation, with a required header line in each file.  The <b>main</b> method streams.  <b>streamBinary</b> is like
+ *   <b>streamData</b> but writes the compact binary format of <b>BinaryDataWriter</b> instead of JSON.
+ *    
+ * <p>Most generally, the input consists of
+ * <ol><li>a set of CSV files and their associated internal type ("table") names.  On the command line, the association is strict:
+ *   the file name must be the table name plus the suffix <b>.csv</b> and be found in a specific directory.  For <b>loadData</b>
+ *   the association is given explicitly in a Map argument.
+ * <li>a CSV format designation (all formats supported by Apache commons-csv, but a header must be available somehow, 
+ *  either from the format or from each file).  On the command line, the format is not specified and must be RFC 4180 with in-file
+ *  headers (the delimiter may optionally be set to something other than comma).
+ *  <li>a qcert schema.  On the command line, this is given as a file path.  For <b>loadData</b> it is given as a <b>JsonElement</b>.
+ *  </ol>
+ * <p>Each CSV file should contain just data for its corresponding internal type.  That type may be either a brand in 
+ *   the schema's <b>brandTypes</b> or a partition name in the schema's <b>globals</b>, depending on the memory
+ *  layout intended.
+ * <p>The schema should be in one of qcert standard JSON formats supported by <b>SchemaUtil</b>.  
+ *   The two different ways that the set of "table" names can match names in the schema gives rise to a different memory layout.
+ * <ol><li>If the table name matches a brand in the <b>brandTypes</b>, the type definition is taken from <b>typeDefs</b>
+ *  and the input of that type will go in the partition called "WORLD", marked by its type.  
+ *  This is a heuristic but works for present cases because, depending on the source language, we either assume this case or the
+ *   next one.
+ *  <li>If the table name matches a member of <b>globals</b>, the type definition is the <b>type</b> of that member
+ *  and input of that type will go in a homogeneous memory partition named for the type.
+ *  </ol>
+ * In either case, the names of the attributes in the type definition are matched against header names in the CSV file.  A column in 
+ * the CSV file that does not match an attribute name is an error.
+ * <p>For this to work, all types in the schema must be primitive (numbers, booleans strings, and dates).  Embedded list and
+ * object types are not handled.
+ * <p>Currently, if the type is "date" (ignoring case), the field is formatted as a date JSON object with members "year", "month" and "day".
+ * This is a good convention for SQL but other formats probably need to be investigated.
+ * <p>The CSV text of each table is cut into chunks of whole records (of about <b>qcert.loader.chunk</b> characters, default 1M), which are
+ *  converted in parallel by <b>qcert.loader.threads</b> threads (defaulting to the number of processors).  <b>loadData</b> converts all
+ *  the tables at the same time; <b>streamData</b> converts the chunks of one table at a time, keeping a bounded number in memory.  
+ *  Either way, the rows of each table are produced in file order.
+ */
+public class DataLoader {
+	private DataLoader() {}
+
+	/** The number of threads converting chunks */
+	private static final int THREADS = Math.max(1, Integer.getInteger("qcert.loader.threads", Runtime.getRuntime().availableProcessors()));
+	/** The size (in characters) after which a chunk ends, at the end of the current record */
+	private static final int CHUNK_SIZE = Math.max(1, Integer.getInteger("qcert.loader.chunk", 1 << 20));
+	/** The number of chunks <b>streamData</b> may have converted, or being converted, ahead of the one being written */
+	private static final int WINDOW = 2 * THREADS;
+	/** The threads converting chunks (null when there is only one, in which case chunks are converted by the calling thread) */
+	private static final ExecutorService POOL = THREADS == 1 ? null : newPool(THREADS);
+	
+	/** Primary entry point to this service.  The 'main' method is also useful but can be bypassed to call this instead
+	 *   when files are named in non-standard ways or to use a CSV format understood by Apache commons-csv but other than strict RFC 4180.
+	 * @param tableMap a map from "table names" (type names matching CSV files) to the corresponding CSV file contents (as Strings)
+	 * @param jsonSchema the JSON format schema in one of several possible variations, as a JsonElement (array or object)
+	 * @param format the CSV format to use (if the format does not include a header we assume that the first line of 
+	 *   each file constitutes a header
+	 * @return a JsonObject representing the loaded data
+	 * @throws Exception
+	 */
+	public static JsonObject loadData(Map<String, String> tableMap, JsonElement jsonSchema, CSVFormat format) throws Exception {
+		return loadData(tableMap, jsonSchema, format, CHUNK_SIZE);
+	}
+
+	/** <b>loadData</b> with a given chunk size */
+	static JsonObject loadData(Map<String, String> tableMap, JsonElement jsonSchema, CSVFormat format, int chunkSize) throws Exception {
+		if (format.getHeader() == null)
+			format = format.withHeader();
+		Layout layout = new Layout(jsonSchema, tableMap.keySet());
+			
+		/* Start converting all the chunks of all the data files */
+		Map<String, List<Future<JsonArray>>> pending = new LinkedHashMap<>();
+		try {
+			for (Entry<String, String> filePair : tableMap.entrySet()) {
+				String table = filePair.getKey();
+				ObjectType def = layout.types.get(table);
+				List<Future<JsonArray>> chunks = new ArrayList<>();
+				pending.put(table, chunks);
+				CsvChunker chunker = new CsvChunker(new StringReader(filePair.getValue()), format, chunkSize);
+				CSVFormat chunkFormat = chunkFormat(chunker, format);
+				if (chunkFormat == null)
+					continue;
+				for (String chunk = chunker.nextChunk(); chunk != null; chunk = chunker.nextChunk())
+					chunks.add(convert(chunk, def, chunkFormat));
+			}
+
+			/* Assemble the results, in order */
+			JsonObject ans = new JsonObject();
+			JsonArray world = layout.partitioned ? null : new JsonArray();
+			if (!layout.partitioned)
+				ans.add("WORLD", world);
+			for (Entry<String, List<Future<JsonArray>>> tablePair : pending.entrySet()) {
+				String table = tablePair.getKey();
+				JsonArray thisType = new JsonArray();
+				for (Future<JsonArray> chunk : tablePair.getValue())
+					thisType.addAll(await(chunk));
+				if (layout.partitioned)
+					ans.add(table, thisType);
+				else {
+					for (JsonElement elem : thisType) {
+						world.add(worldEntry(table, elem));
+					}
+				}
+			}
+			return ans;
+		} finally {
+			for (List<Future<JsonArray>> chunks : pending.values())
+				for (Future<JsonArray> chunk : chunks)
+					chunk.cancel(false);
+		}
+	}
+
+	/** Streaming variant of <b>loadData</b>: the CSV data is read from Readers and the result is written to a JsonWriter as it is
+	 *   produced, one row at a time.  The tables are converted one after the other.
+	 * @param tableMap a map from "table names" (type names matching CSV files) to Readers of the corresponding CSV file contents
+	 *   (which are closed when read)
+	 * @param jsonSchema the JSON format schema in one of several possible variations, as a JsonElement (array or object)
+	 * @param format the CSV format to use (if the format does not include a header we assume that the first line of 
+	 *   each file constitutes a header
+	 * @param out the JsonWriter to which the loaded data (the same JSON object as returned by <b>loadData</b>) is written
+	 * @throws Exception
+	 */
+	public static void streamData(Map<String, Reader> tableMap, JsonElement jsonSchema, CSVFormat format, JsonWriter out) throws Exception {
+		streamData(tableMap, jsonSchema, format, out, CHUNK_SIZE);
+	}
+
+	/** <b>streamData</b> with a given chunk size */
+	static void streamData(Map<String, Reader> tableMap, JsonElement jsonSchema, CSVFormat format, JsonWriter out, int chunkSize) throws Exception {
+		stream(tableMap, jsonSchema, format, chunkSize, new Output() {
+			@Override
+			public void beginObject() throws IOException {
+				out.beginObject();
+			}
+			@Override
+			public void name(String name) throws IOException {
+				out.name(name);
+			}
+			@Override
+			public void beginArray() throws IOException {
+				out.beginArray();
+			}
+			@Override
+			public void value(JsonElement value) throws IOException {
+				Streams.write(value, out);
+			}
+			@Override
+			public void endArray() throws IOException {
+				out.endArray();
+			}
+			@Override
+			public void endObject() throws IOException {
+				out.endObject();
+			}
+		});
+	}
+
+	/** Variant of <b>streamData</b> writing the binary format instead of JSON
+	 * @param tableMap a map from "table names" (type names matching CSV files) to Readers of the corresponding CSV file contents
+	 *   (which are closed when read)
+	 * @param jsonSchema the JSON format schema in one of several possible variations, as a JsonElement (array or object)
+	 * @param format the CSV format to use (if the format does not include a header we assume that the first line of 
+	 *   each file constitutes a header
+	 * @param out the BinaryDataWriter to which the loaded data is written
+	 * @throws Exception
+	 */
+	public static void streamBinary(Map<String, Reader> tableMap, JsonElement jsonSchema, CSVFormat format, BinaryDataWriter out) throws Exception {
+		stream(tableMap, jsonSchema, format, CHUNK_SIZE, new Output() {
+			@Override
+			public void beginObject() throws IOException {
+				out.beginRecord();
+			}
+			@Override
+			public void name(String name) throws IOException {
+				out.name(name);
+			}
+			@Override
+			public void beginArray() throws IOException {
+				out.beginBag();
+			}
+			@Override
+			public void value(JsonElement value) throws IOException {
+				out.write(value);
+			}
+			@Override
+			public void endArray() throws IOException {
+				out.endBag();
+			}
+			@Override
+			public void endObject() throws IOException {
+				out.endRecord();
+			}
+		});
+	}
+
+	/** Where the streaming methods write the loaded data */
+	private interface Output {
+		void beginObject() throws IOException;
+		void name(String name) throws IOException;
+		void beginArray() throws IOException;
+		void value(JsonElement value) throws IOException;
+		void endArray() throws IOException;
+		void endObject() throws IOException;
+	}
+
+	private static void stream(Map<String, Reader> tableMap, JsonElement jsonSchema, CSVFormat format, int chunkSize, Output out) throws Exception {
+		if (format.getHeader() == null)
+			format = format.withHeader();
+		Layout layout = new Layout(jsonSchema, tableMap.keySet());
+		out.beginObject();
+		if (!layout.partitioned) {
+			out.name("WORLD");
+			out.beginArray();
+		}
+		for (Entry<String, Reader> filePair : tableMap.entrySet()) {
+			String table = filePair.getKey();
+			ObjectType def = layout.types.get(table);
+			if (layout.partitioned) {
+				out.name(table);
+				out.beginArray();
+			}
+			Deque<Future<JsonArray>> window = new ArrayDeque<>();
+			try (Reader reader = filePair.getValue()) {
+				CsvChunker chunker = new CsvChunker(reader, format, chunkSize);
+				CSVFormat chunkFormat = chunkFormat(chunker, format);
+				if (chunkFormat != null) {
+					for (String chunk = chunker.nextChunk(); chunk != null; chunk = chunker.nextChunk()) {
+						window.add(convert(chunk, def, chunkFormat));
+						if (window.size() > WINDOW)
+							write(table, await(window.remove()), layout.partitioned, out);
+					}
+				}
+				while (!window.isEmpty())
+					write(table, await(window.remove()), layout.partitioned, out);
+			} finally {
+				for (Future<JsonArray> chunk : window)
+					chunk.cancel(false);
+			}
+			if (layout.partitioned)
+				out.endArray();
+		}
+		if (!layout.partitioned)
+			out.endArray();
+		out.endObject();
+	}
+
+	/** How the tables map to the schema: either to brands (whose data goes in WORLD), or to partitions */
+	private static class Layout {
+		Map<String, ObjectType> types;
+		boolean partitioned;
+
+		/**
+		 * @param jsonSchema the schema
+		 * @param tables the names of the tables, which must all be in the schema
+		 */
+		Layout(JsonElement jsonSchema, Iterable<String> tables) {
+			types = SchemaUtil.getSchema(jsonSchema);
+			partitioned = types.size() == 0;
+			if (partitioned) {
+				if (jsonSchema.isJsonObject())
+					types = SchemaUtil.getGlobalsFromSchema(jsonSchema.getAsJsonObject());
+				if (types.size() == 0)
+					throw new IllegalArgumentException("Schema contains no useful information");
+			}
+			for (String table : tables)
+				if (!types.containsKey(table))
+					throw new IllegalArgumentException("Type " + table + " is not in the schema");
+		}
+	}
+
+	/** Write some rows of a table, as elements of its partition or of WORLD */
+	private static void write(String table, JsonArray rows, boolean partitioned, Output out) throws IOException {
+		for (JsonElement row : rows)
+			out.value(partitioned ? row : worldEntry(table, row));
+	}
+
+	/**
+	 * Determine the format in which the chunks of a table are parsed: the header of the table, whether given by the format
+	 *   or read from the start of the text, is made explicit since only the first chunk would contain it
+	 * @param chunker the chunker, positioned at the start of the text, and left after the header record, if any
+	 * @param format the format of the table
+	 * @return the format of the chunks, or null if the text is empty
+	 * @throws IOException
+	 */
+	private static CSVFormat chunkFormat(CsvChunker chunker, CSVFormat format) throws IOException {
+		String[] names = format.getHeader();
+		if (names.length > 0) {
+			if (format.getSkipHeaderRecord() && chunker.nextRecord() == null)
+				return null;
+			return format.withSkipHeaderRecord(false);
+		}
+		String header = chunker.nextRecord();
+		if (header == null)
+			return null;
+		try (CSVParser parser = new CSVParser(new StringReader(header), format)) {
+			Map<String, Integer> map = parser.getHeaderMap();
+			int columns = 0;
+			for (int index : map.values())
+				columns = Math.max(columns, index + 1);
+			names = new String[columns];
+			for (Entry<String, Integer> col : map.entrySet())
+				names[col.getValue()] = col.getKey();
+			for (int i = 0; i < columns; i++)
+				if (names[i] == null)
+					names[i] = "";
+		}
+		return format.withHeader(names).withSkipHeaderRecord(false);
+	}
+
+	/** Start converting a chunk (immediately, by the calling thread, if there is no pool) */
+	private static Future<JsonArray> convert(String chunk, ObjectType def, CSVFormat format) {
+		FutureTask<JsonArray> task = new FutureTask<>(() -> process(chunk, def, format));
+		if (POOL == null)
+			task.run();
+		else
+			POOL.execute(task);
+		return task;
+	}
+
+	/** Wait for the conversion of a chunk, rethrowing its failure if any */
+	private static JsonArray await(Future<JsonArray> chunk) throws Exception {
+		try {
+			return chunk.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	private static ExecutorService newPool(int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "DataLoader " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/** Wrap a row of a table whose type is a brand, as an element of WORLD */
+	private static JsonObject worldEntry(String table, JsonElement elem) {
+		JsonObject toAdd = new JsonObject();
+		JsonArray brands = new JsonArray();
+		brands.add(new JsonPrimitive(table));
+		toAdd.add("type", brands);
+		toAdd.add("data", elem);
+		return toAdd;
+	}
+
+	/**
+	 * Main program.  
+	 * <p>Command line arguments are
+	 * <ul><li><b>-dir &lt;path&gt;</b> (optional) the directory in which to find or create all other files, defaults to current directory
+	 * <li><b>-output &lt;filename&gt;</b> (required) the name of the output file (absolute or relative to <b>-dir</b>)
+	 * <li><b>-schema &lt;filename&gt;</b> (required) the name of the schema file (absolute or relative to <b>-dir</b>)
+	 * <li><b>-delimiter &lt;char&gl;</b> (optional) a character to use as delimiter (defaults to comma; if the chose character is shell-sensitive, be sure to quote it)
+	 * <li><b>-binary</b> (optional) write the output in the binary format of <b>BinaryDataWriter</b> rather than JSON
+	 * <li>all other arguments are assumed to be type names.  A file of that name with extension <b>.csv</b> must be present in <b>-dir</b>
+	 * </ul>
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		/* Parse the command line */
+		String directory = null, schema = null, output = null; char delimiter = 0; boolean binary = false;
+		List<String> tables = new ArrayList<>();
+		boolean dirFlag = false, outFlag = false, schemaFlag = false, delimiterFlag = false;
+		for (String arg : args) {
+			boolean table = false;
+			if (dirFlag)
+				directory = arg;
+			else if (outFlag)
+				output = arg;
+			else if (schemaFlag)
+				schema = arg;
+			else if (delimiterFlag) {
+				if (arg.length() != 1)
+					throw new IllegalArgumentException("Delimiters must be single character");
+				else
+					delimiter = arg.charAt(0);
+			} else
+				table = true;
+			dirFlag = outFlag = schemaFlag = delimiterFlag = false;
+			if (arg.charAt(0) == '-') {
+				switch(arg) {
+				case "-dir":
+					if (directory != null)
+						throw new IllegalArgumentException("Duplicate -dir");
+					else
+						dirFlag = true;
+					continue;
+				case "-output":
+					if (output != null)
+						throw new IllegalArgumentException("Duplicate -output");
+					else
+						outFlag = true;
+					continue;
+				case "-schema":
+					if (schema != null)
+						throw new IllegalArgumentException("Duplicate -schema");
+					else
+						schemaFlag = true;
+					continue;
+				case "-binary":
+					binary = true;
+					continue;
+				case "-delimiter":
+					if (delimiter != 0)
+						throw new IllegalArgumentException("Duplicate -delimiter");
+					else
+						delimiterFlag = true;
+					continue;
+				default:
+					throw new IllegalArgumentException("Unknown option :" + arg);
+				}
+			}
+			if (table)
+				tables.add(arg);
+		}
+		if (output == null)
+			throw new IllegalArgumentException("Output file must be specified");
+		if (schema == null)
+			throw new IllegalArgumentException("Schema file must be specified");
+		File outputFile = new File(output);
+		File schemaFile = new File(schema);
+		if (directory != null) {
+			if (!outputFile.isAbsolute())
+				outputFile = new File(directory, output);
+			if (!schemaFile.isAbsolute())
+				schemaFile = new File(directory, schema);
+		}
+		
+		/* Canonicalize the file names and associate each with its corresponding table name (the files are read as they are processed) */
+		Map<String, File> tableFiles = new LinkedHashMap<>();
+		for (String table : tables) {
+			File toRead = directory == null ? new File(table + ".csv") : new File(directory, table + ".csv");
+			tableFiles.put(table, toRead.getAbsoluteFile());
+		}
+		
+		/* Parse the schema */
+		JsonElement jsonSchema;
+		try (FileReader schemaReader = new FileReader(schemaFile)) {
+			jsonSchema = new JsonParser().parse(schemaReader);
+		}
+
+		/* Process and write the result, one row at a time */
+		CSVFormat format = CSVFormat.RFC4180;
+		if (delimiter != 0)
+			format = format.withDelimiter(delimiter);
+		Map<String, Reader> tableMap = new LinkedHashMap<>();
+		try {
+			for (Entry<String, File> tableFile : tableFiles.entrySet())
+				tableMap.put(tableFile.getKey(), new BufferedReader(new FileReader(tableFile.getValue())));
+			if (binary) {
+				try (BinaryDataWriter out = new BinaryDataWriter(outputFile.toPath())) {
+					streamBinary(tableMap, jsonSchema, format, out);
+				}
+			} else {
+				try (JsonWriter json = new JsonWriter(new BufferedWriter(new FileWriter(outputFile)))) {
+					json.setLenient(true);
+					json.setIndent("  ");
+					streamData(tableMap, jsonSchema, format, json);
+				}
+			}
+		} finally {
+			for (Reader reader : tableMap.values())
+				closeQuietly(reader);
+		}
+	}
+
+	private static void closeQuietly(Reader reader) {
+		try {
+			reader.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Convert a primitive value of designated type to a JsonElement
+	 * @param value the value to convert
+	 * @param fieldType the type of the field
+	 * @return a JsonElement (either a primitive or a date object)
+	 */
+	private static JsonElement convertPrimitiveValue(String value, Type fieldType) {
+		String typeName = ((PrimitiveType) fieldType).typeName;
+		switch(typeName) {
+		case "String":
+			return new JsonPrimitive(value);
+		case "Nat":
+      JsonObject ans = new JsonObject();
+			/* We are a little loosy-goosy with numbers since the sources of information are often inexact */
+			try {
+			    ans.add("$nat",new JsonPrimitive(Integer.parseInt(value)));
+			    return ans;
+			} catch (NumberFormatException ig) {
+			    ans.add("$nat",new JsonPrimitive(Double.parseDouble(value)));
+			    return ans;
+			}
+		case "Float":
+        return new JsonPrimitive(Double.parseDouble(value));
+		case "ESqlDate":
+			return formatDate(value);
+		case "Bool":
+			return new JsonPrimitive(value.equalsIgnoreCase("true"));
+		default:
+			throw new UnsupportedOperationException("Don't known how to convert primitive schema type " + typeName);
+		}
+	}
+
+	/**
+	 * Format a SQL-style String date into a JSON date object, which, by convention, we use for this type
+	 * TODO support other kinds of dates
+	 * @param stringDate the date to format
+	 * @return the JSON result
+	 */
+	private static JsonElement formatDate(String stringDate) {
+		String[] dateParts = stringDate.split("-");
+		assert dateParts.length == 3;
+		String[] names = {"year",  "month", "day"};
+		JsonObject ans = new JsonObject();
+		JsonObject ansIn = new JsonObject();
+		JsonObject ansIn2 = new JsonObject();
+		for (int i = 0; i < 3; i++) {
+      ansIn2.add(names[i], new JsonPrimitive(Integer.parseInt(dateParts[i])));
+		}
+    ansIn.add("$date", ansIn2);
+    ans.add("$foreign", ansIn);
+		return ans;
+	}
+
+	/** Process an individual table or chunk of a table, producing its rows in JSON form 
+	 * @param data the CSV file contents (or chunk) as a String
+	 * @param def the type definition as an ObjectType
+	 * @param format the CSVFormat to use
+	 * @return a JsonArray of the translation of the rows
+	 * @throws Exception
+	 */
+	private static JsonArray process(String data, ObjectType def, CSVFormat format) throws Exception {
+		JsonArray ans = new JsonArray();
+		try (CSVParser parser = new CSVParser(new StringReader(data), format)) {
+			Map<String, Integer> header = parser.getHeaderMap();
+			for (CSVRecord record : parser) {
+				ans.add(processRecord(record, header, def));
+			}
+		}
+		return ans;
+	}
+
+	/** Process an individual row
+	 * @param record the row
+	 * @param header the mapping from column names to indices
+	 * @param def the type definition as an ObjectType
+	 * @return a JsonObject representing the row
+	 */
+	private static JsonObject processRecord(CSVRecord record, Map<String, Integer> header, ObjectType def) {
+		JsonObject datum = new JsonObject();
+		for (Entry<String, Integer> col : header.entrySet()) {
+			int index = col.getValue();
+			if (index < record.size())
+				datum.add(col.getKey(), processColumn(col.getKey(), record.get(index), def));
+		}
+		return datum;
+	}
+
+	/**
+	 * Process an individual column of an individual row of an individual table, producing its JSON representation as a JSON object
+	 * @param fieldName the name of the column
+	 * @param value the raw (String) value in the CSV file
+	 * @param def the ObjectType that should produce the type for each field name, allowing the value to be interpreted
+	 * @return a JsonObject encoding the column of the row
+	 */
+	private static JsonElement processColumn(String fieldName, String value, ObjectType def) {
+		if (fieldName == null)
+			throw new IllegalArgumentException("No header information in CSV file");
+		Type fieldType = def.attributes.get(fieldName);
+		if (fieldType == null)
+			throw new IllegalArgumentException("Field " + fieldName + " is not among the attributes of type " + def.brand);
+		if (fieldType instanceof PrimitiveType) {
+			return convertPrimitiveValue(value, fieldType);
+		}
+		if (fieldType instanceof ListType) {
+			Type elementType = ((ListType) fieldType).elementType;
+			if (elementType instanceof PrimitiveType) {
+				JsonArray ans = new JsonArray();
+				String[] values = value.split(",");
+				for (String val : values)
+					ans.add(convertPrimitiveValue(val, elementType));
+				return ans;
+			}
+		}
+		throw new UnsupportedOperationException("Can't handle embedded object types, lists thereof, or lists of lists, when loading data");
+	}
+}
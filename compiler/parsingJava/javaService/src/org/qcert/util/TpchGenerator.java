@@ -0,0 +1,379 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generates the eight TPC-H tables, at a given scale factor, as CSV files which <b>DataLoader</b> can load (the delimiter is '|',
+ *   the first line is a header naming the columns as in <b>dss.ddl</b>, and each data line ends with a delimiter, as in the
+ *   output of the TPC's <b>dbgen</b>).
+ * <p>The generator follows the cardinalities and value distributions of the TPC-H specification closely enough that all the
+ *   queries select and join meaningful amounts of data: the same table sizes per unit of scale factor, the same key relationships
+ *   (including the four suppliers of each part and the customers without orders), the same vocabularies for the columns which
+ *   queries compare with constants, and the same rules relating order and line item dates, flags and prices.  It is not
+ *   <b>dbgen</b>, however: order keys are dense, and comments, names and addresses are drawn from a smaller grammar.  Its
+ *   output is therefore good for comparing runs with each other but not with published TPC-H results.
+ * <p>The output depends only on the scale factor and the seed.  Each table is generated from its own random stream, so the
+ *   contents of one table do not depend on the order in which the tables are written.
+ * <p>From the command line: <b>TpchGenerator -sf scale [-dir directory] [-seed seed]</b>.
+ */
+public class TpchGenerator {
+	/** The tables, in the order in which they are written */
+	public static final String[] TABLES = { "region", "nation", "supplier", "customer", "part", "partsupp", "orders", "lineitem" };
+
+	private static final String[] REGIONS = { "AFRICA", "AMERICA", "ASIA", "EUROPE", "MIDDLE EAST" };
+	private static final String[] NATIONS = { "ALGERIA", "ARGENTINA", "BRAZIL", "CANADA", "EGYPT", "ETHIOPIA", "FRANCE", "GERMANY",
+			"INDIA", "INDONESIA", "IRAN", "IRAQ", "JAPAN", "JORDAN", "KENYA", "MOROCCO", "MOZAMBIQUE", "PERU", "CHINA", "ROMANIA",
+			"SAUDI ARABIA", "VIETNAM", "RUSSIA", "UNITED KINGDOM", "UNITED STATES" };
+	private static final int[] NATION_REGIONS = { 0, 1, 1, 1, 4, 0, 3, 3, 2, 2, 4, 4, 2, 4, 0, 0, 0, 1, 2, 3, 4, 2, 3, 3, 1 };
+	private static final String[] COLORS = { "almond", "antique", "aquamarine", "azure", "beige", "bisque", "black", "blanched",
+			"blue", "blush", "brown", "burlywood", "burnished", "chartreuse", "chiffon", "chocolate", "coral", "cornflower",
+			"cornsilk", "cream", "cyan", "dark", "deep", "dim", "dodger", "drab", "firebrick", "floral", "forest", "frosted",
+			"gainsboro", "ghost", "goldenrod", "green", "grey", "honeydew", "hot", "indian", "ivory", "khaki", "lace", "lavender",
+			"lawn", "lemon", "light", "lime", "linen", "magenta", "maroon", "medium", "metallic", "midnight", "mint", "misty",
+			"moccasin", "navajo", "navy", "olive", "orange", "orchid", "pale", "papaya", "peach", "peru", "pink", "plum", "powder",
+			"puff", "purple", "red", "rose", "rosy", "royal", "saddle", "salmon", "sandy", "seashell", "sienna", "sky", "slate",
+			"smoke", "snow", "spring", "steel", "tan", "thistle", "tomato", "turquoise", "violet", "wheat", "white", "yellow" };
+	private static final String[] TYPE_SIZES = { "STANDARD", "SMALL", "MEDIUM", "LARGE", "ECONOMY", "PROMO" };
+	private static final String[] TYPE_FINISHES = { "ANODIZED", "BURNISHED", "PLATED", "POLISHED", "BRUSHED" };
+	private static final String[] TYPE_METALS = { "TIN", "NICKEL", "BRASS", "STEEL", "COPPER" };
+	private static final String[] CONTAINER_SIZES = { "SM", "LG", "MED", "JUMBO", "WRAP" };
+	private static final String[] CONTAINER_KINDS = { "CASE", "BOX", "BAG", "JAR", "PKG", "PACK", "CAN", "DRUM" };
+	private static final String[] SEGMENTS = { "AUTOMOBILE", "BUILDING", "FURNITURE", "MACHINERY", "HOUSEHOLD" };
+	private static final String[] PRIORITIES = { "1-URGENT", "2-HIGH", "3-MEDIUM", "4-NOT SPECIFIED", "5-LOW" };
+	private static final String[] INSTRUCTIONS = { "DELIVER IN PERSON", "COLLECT COD", "NONE", "TAKE BACK RETURN" };
+	private static final String[] MODES = { "REG AIR", "AIR", "RAIL", "SHIP", "TRUCK", "MAIL", "FOB" };
+	private static final String[] WORDS = { "the", "furiously", "carefully", "slyly", "quickly", "blithely", "fluffily", "regular",
+			"final", "ironic", "pending", "express", "special", "even", "bold", "silent", "unusual", "packages", "deposits", "requests",
+			"accounts", "instructions", "foxes", "theodolites", "ideas", "dependencies", "pinto", "beans", "platelets", "excuses",
+			"sleep", "haggle", "nag", "cajole", "boost", "detect", "integrate", "wake", "use", "among", "above", "after", "according",
+			"to", "about", "across", "along", "against" };
+	private static final String ADDRESS_CHARS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ,. ";
+
+	private static final LocalDate START_DATE = LocalDate.of(1992, 1, 1);
+	private static final LocalDate CURRENT_DATE = LocalDate.of(1995, 6, 17);
+	private static final LocalDate END_DATE = LocalDate.of(1998, 12, 31);
+	/** Orders are placed early enough for all their line items to be received by the end date */
+	private static final int ORDER_DAYS = (int) (END_DATE.toEpochDay() - START_DATE.toEpochDay()) - 151;
+
+	private final File directory;
+	private final long seed;
+	private final long suppliers, customers, parts, orders, clerks;
+
+	/**
+	 * @param directory the directory in which to write the CSV files (it is created if it does not exist)
+	 * @param scaleFactor the TPC-H scale factor (1 is about a gigabyte of CSV)
+	 * @param seed the seed of the random streams
+	 */
+	public TpchGenerator(File directory, double scaleFactor, long seed) {
+		if (!(scaleFactor > 0))
+			throw new IllegalArgumentException("The scale factor must be positive");
+		this.directory = directory;
+		this.seed = seed;
+		this.suppliers = scale(10000, scaleFactor);
+		this.customers = scale(150000, scaleFactor);
+		this.parts = scale(200000, scaleFactor);
+		this.orders = scale(1500000, scaleFactor);
+		this.clerks = scale(1000, scaleFactor);
+	}
+
+	/**
+	 * Writes all the tables
+	 * @throws IOException
+	 */
+	public void generate() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		region();
+		nation();
+		supplier();
+		customer();
+		part();
+		partsupp();
+		ordersAndLineitems();
+	}
+
+	private void region() throws IOException {
+		Random random = random(0);
+		try (Writer out = open("region", "r_regionkey|r_name|r_comment")) {
+			for (int i = 0; i < REGIONS.length; i++)
+				out.write(row(new StringBuilder(), i, REGIONS[i], comment(random, 31, 115)));
+		}
+	}
+
+	private void nation() throws IOException {
+		Random random = random(1);
+		try (Writer out = open("nation", "n_nationkey|n_name|n_regionkey|n_comment")) {
+			for (int i = 0; i < NATIONS.length; i++)
+				out.write(row(new StringBuilder(), i, NATIONS[i], NATION_REGIONS[i], comment(random, 31, 114)));
+		}
+	}
+
+	private void supplier() throws IOException {
+		Random random = random(2);
+		try (Writer out = open("supplier", "s_suppkey|s_name|s_address|s_nationkey|s_phone|s_acctbal|s_comment")) {
+			for (long key = 1; key <= suppliers; key++) {
+				int nation = random.nextInt(NATIONS.length);
+				String comment = comment(random, 25, 100);
+				/* As in dbgen, a few suppliers have complaints (which query 16 excludes) or recommendations */
+				int remark = random.nextInt(2000);
+				if (remark == 0)
+					comment = embed(random, comment, "Customer ", "Complaints");
+				else if (remark == 1)
+					comment = embed(random, comment, "Customer ", "Recommends");
+				out.write(row(new StringBuilder(), key, name("Supplier#", key), address(random), nation, phone(random, nation),
+						money(random, -99999, 999999), comment));
+			}
+		}
+	}
+
+	private void customer() throws IOException {
+		Random random = random(3);
+		try (Writer out = open("customer", "c_custkey|c_name|c_address|c_nationkey|c_phone|c_acctbal|c_mktsegment|c_comment")) {
+			for (long key = 1; key <= customers; key++) {
+				int nation = random.nextInt(NATIONS.length);
+				out.write(row(new StringBuilder(), key, name("Customer#", key), address(random), nation, phone(random, nation),
+						money(random, -99999, 999999), pick(random, SEGMENTS), comment(random, 29, 116)));
+			}
+		}
+	}
+
+	private void part() throws IOException {
+		Random random = random(4);
+		try (Writer out = open("part", "p_partkey|p_name|p_mfgr|p_brand|p_type|p_size|p_container|p_retailprice|p_comment")) {
+			for (long key = 1; key <= parts; key++) {
+				int mfgr = 1 + random.nextInt(5);
+				String type = pick(random, TYPE_SIZES) + " " + pick(random, TYPE_FINISHES) + " " + pick(random, TYPE_METALS);
+				String container = pick(random, CONTAINER_SIZES) + " " + pick(random, CONTAINER_KINDS);
+				out.write(row(new StringBuilder(), key, partName(random), "Manufacturer#" + mfgr, "Brand#" + mfgr + (1 + random.nextInt(5)),
+						type, 1 + random.nextInt(50), container, decimal(retailPrice(key)), comment(random, 5, 22)));
+			}
+		}
+	}
+
+	private void partsupp() throws IOException {
+		Random random = random(5);
+		try (Writer out = open("partsupp", "ps_partkey|ps_suppkey|ps_availqty|ps_supplycost|ps_comment")) {
+			for (long key = 1; key <= parts; key++) {
+				for (int i = 0; i < 4; i++)
+					out.write(row(new StringBuilder(), key, partSupplier(key, i), 1 + random.nextInt(9999), money(random, 100, 100000),
+							comment(random, 49, 198)));
+			}
+		}
+	}
+
+	private void ordersAndLineitems() throws IOException {
+		Random random = random(6);
+		try (Writer orderOut = open("orders", "o_orderkey|o_custkey|o_orderstatus|o_totalprice|o_orderdate|o_orderpriority|o_clerk|o_shippriority|o_comment");
+				Writer lineOut = open("lineitem", "l_orderkey|l_partkey|l_suppkey|l_linenumber|l_quantity|l_extendedprice|l_discount|l_tax|"
+						+ "l_returnflag|l_linestatus|l_shipdate|l_commitdate|l_receiptdate|l_shipinstruct|l_shipmode|l_comment")) {
+			StringBuilder lines = new StringBuilder();
+			for (long key = 1; key <= orders; key++) {
+				long customer = orderCustomer(random);
+				LocalDate orderDate = START_DATE.plusDays(random.nextInt(ORDER_DAYS + 1));
+				int count = 1 + random.nextInt(7);
+				int shipped = 0;
+				/* The total price in units of 1/1000000 (cents times the percentages of tax and discount) */
+				long total = 0;
+				lines.setLength(0);
+				for (int line = 1; line <= count; line++) {
+					long part = 1 + nextLong(random, parts);
+					long supplier = partSupplier(part, random.nextInt(4));
+					int quantity = 1 + random.nextInt(50);
+					long price = quantity * retailPrice(part);
+					int discount = random.nextInt(11);
+					int tax = random.nextInt(9);
+					LocalDate shipDate = orderDate.plusDays(1 + random.nextInt(121));
+					LocalDate commitDate = orderDate.plusDays(30 + random.nextInt(61));
+					LocalDate receiptDate = shipDate.plusDays(1 + random.nextInt(30));
+					String returnFlag = receiptDate.isAfter(CURRENT_DATE) ? "N" : random.nextBoolean() ? "R" : "A";
+					boolean open = shipDate.isAfter(CURRENT_DATE);
+					if (!open)
+						shipped++;
+					total += price * (100 + tax) * (100 - discount);
+					row(lines, key, part, supplier, line, quantity, decimal(price), decimal(discount), decimal(tax), returnFlag,
+							open ? "O" : "F", shipDate, commitDate, receiptDate, pick(random, INSTRUCTIONS), pick(random, MODES),
+							comment(random, 10, 43));
+				}
+				String status = shipped == count ? "F" : shipped == 0 ? "O" : "P";
+				orderOut.write(row(new StringBuilder(), key, customer, status, decimal((total + 5000) / 10000), orderDate,
+						pick(random, PRIORITIES), name("Clerk#", 1 + nextLong(random, clerks)), 0, comment(random, 19, 78)));
+				lineOut.write(lines.toString());
+			}
+		}
+	}
+
+	/** As in the specification, customers whose key is a multiple of three place no orders */
+	private long orderCustomer(Random random) {
+		if (customers < 3)
+			return 1;
+		long customer;
+		do {
+			customer = 1 + nextLong(random, customers);
+		} while (customer % 3 == 0);
+		return customer;
+	}
+
+	/** The i-th (of four) supplier of a part, as in the specification */
+	private long partSupplier(long part, int i) {
+		return (part + i * (suppliers / 4 + (part - 1) / suppliers)) % suppliers + 1;
+	}
+
+	/** The retail price of a part, in cents, as in the specification */
+	private static long retailPrice(long part) {
+		return 90000 + (part / 10) % 20001 + 100 * (part % 1000);
+	}
+
+	private Random random(int table) {
+		return new Random(seed * 31 + table);
+	}
+
+	private Writer open(String table, String header) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, table + ".csv")),
+				StandardCharsets.UTF_8), 1 << 16);
+		out.write(header);
+		out.write('\n');
+		return out;
+	}
+
+	/** Appends a data line, each field followed by the delimiter, and returns it */
+	private static String row(StringBuilder line, Object... fields) {
+		for (Object field : fields)
+			line.append(field).append('|');
+		line.append('\n');
+		return line.toString();
+	}
+
+	private static long scale(long base, double scaleFactor) {
+		return Math.max(1, (long) (base * scaleFactor));
+	}
+
+	private static long nextLong(Random random, long bound) {
+		return bound <= Integer.MAX_VALUE ? random.nextInt((int) bound) : (random.nextLong() >>> 1) % bound;
+	}
+
+	private static String pick(Random random, String[] choices) {
+		return choices[random.nextInt(choices.length)];
+	}
+
+	private static String name(String prefix, long key) {
+		return String.format("%s%09d", prefix, key);
+	}
+
+	/** Five distinct colors */
+	private static String partName(Random random) {
+		StringBuilder name = new StringBuilder();
+		int[] chosen = new int[5];
+		for (int i = 0; i < chosen.length; i++) {
+			int color;
+			boolean repeated;
+			do {
+				color = random.nextInt(COLORS.length);
+				repeated = false;
+				for (int j = 0; j < i; j++)
+					repeated |= chosen[j] == color;
+			} while (repeated);
+			chosen[i] = color;
+			if (i > 0)
+				name.append(' ');
+			name.append(COLORS[color]);
+		}
+		return name.toString();
+	}
+
+	private static String address(Random random) {
+		char[] chars = new char[10 + random.nextInt(31)];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = ADDRESS_CHARS.charAt(random.nextInt(ADDRESS_CHARS.length()));
+		return new String(chars);
+	}
+
+	/** A phone number whose country code is derived from the nation, as query 22 expects */
+	private static String phone(Random random, int nation) {
+		return String.format("%d-%03d-%03d-%04d", nation + 10, 100 + random.nextInt(900), 100 + random.nextInt(900),
+				1000 + random.nextInt(9000));
+	}
+
+	/** Words of the comment grammar, between the given lengths */
+	private static String comment(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder text = new StringBuilder();
+		while (text.length() < length) {
+			if (text.length() > 0)
+				text.append(random.nextInt(8) == 0 ? ", " : " ");
+			text.append(pick(random, WORDS));
+		}
+		text.setLength(length);
+		return text.toString();
+	}
+
+	/** Replaces part of a comment by the two words, in order, with some of the comment between them */
+	private static String embed(Random random, String comment, String first, String second) {
+		int room = comment.length() - first.length() - second.length();
+		if (room < 0)
+			return first + second;
+		int start = random.nextInt(room + 1);
+		int gap = random.nextInt(room - start + 1);
+		return comment.substring(0, start) + first + comment.substring(start, start + gap) + second
+				+ comment.substring(start + gap + first.length() + second.length());
+	}
+
+	/** A random amount, between the given numbers of cents */
+	private static String money(Random random, int minCents, int maxCents) {
+		return decimal(minCents + random.nextInt(maxCents - minCents + 1));
+	}
+
+	/** Formats a number of hundredths with two decimals */
+	private static String decimal(long hundredths) {
+		long abs = Math.abs(hundredths);
+		long fraction = abs % 100;
+		return (hundredths < 0 ? "-" : "") + abs / 100 + (fraction < 10 ? ".0" : ".") + fraction;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String directory = ".";
+		Double scaleFactor = null;
+		long seed = 0;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			switch (arg) {
+			case "-sf":
+				scaleFactor = Double.valueOf(args[++i]);
+				break;
+			case "-dir":
+				directory = args[++i];
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option :" + arg);
+			}
+		}
+		if (scaleFactor == null)
+			throw new IllegalArgumentException("The scale factor (-sf) is required");
+		new TpchGenerator(new File(directory), scaleFactor, seed).generate();
+	}
+}
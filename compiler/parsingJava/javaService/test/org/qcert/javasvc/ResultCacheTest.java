@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.javasvc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qcert.util.CSV2JSON;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks the eviction of the two tiers of ResultCache and the keys of its results
+ */
+public class ResultCacheTest {
+	/** A verb without an implementation, whose version is empty */
+	private static final String VERB = "test";
+	/** The size of an entry in memory, for a result of 10 characters */
+	private static final long ENTRY = ResultCache.key(VERB, "").length() + 10;
+
+	private Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("qcert-cache-test");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory)) {
+			for (Path file : dir)
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	private static String result(char c, int length) {
+		char[] chars = new char[length];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static long stat(ResultCache cache, String name) {
+		JsonObject stats = new JsonParser().parse(cache.stats()).getAsJsonObject();
+		return stats.get(name).getAsLong();
+	}
+
+	private long filesSize() throws IOException {
+		long total = 0;
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory)) {
+			for (Path file : dir)
+				total += Files.size(file);
+		}
+		return total;
+	}
+
+	/** Make the file of a result look as if it was last used at the given time */
+	private void touch(String arg, long millis) throws IOException {
+		Files.setLastModifiedTime(directory.resolve(ResultCache.key(VERB, arg)), FileTime.fromMillis(millis));
+	}
+
+	@Test
+	public void memoryEvictsTheLeastRecentlyUsed() {
+		ResultCache cache = new ResultCache(3 * ENTRY, null, 0);
+		cache.put(VERB, "a", result('a', 10));
+		cache.put(VERB, "b", result('b', 10));
+		cache.put(VERB, "c", result('c', 10));
+		assertEquals(3, stat(cache, "entries"));
+		// a is used again, so b is now the least recently used
+		assertEquals(result('a', 10), cache.get(VERB, "a"));
+		cache.put(VERB, "d", result('d', 10));
+		assertEquals(3, stat(cache, "entries"));
+		assertEquals(3 * ENTRY, stat(cache, "size"));
+		assertNull(cache.get(VERB, "b"));
+		assertEquals(result('a', 10), cache.get(VERB, "a"));
+		assertEquals(result('c', 10), cache.get(VERB, "c"));
+		assertEquals(result('d', 10), cache.get(VERB, "d"));
+		assertEquals(4, stat(cache, "memoryHits"));
+		assertEquals(1, stat(cache, "misses"));
+	}
+
+	@Test
+	public void memoryAccountsForReplacedResults() {
+		ResultCache cache = new ResultCache(3 * ENTRY, null, 0);
+		for (int i = 0; i < 10; i++)
+			cache.put(VERB, "a", result((char) ('a' + i), 10));
+		assertEquals(1, stat(cache, "entries"));
+		assertEquals(ENTRY, stat(cache, "size"));
+		assertEquals(result('j', 10), cache.get(VERB, "a"));
+	}
+
+	@Test
+	public void resultsLargerThanTheCacheAreNotKept() {
+		ResultCache cache = new ResultCache(ENTRY, null, 0);
+		cache.put(VERB, "a", result('a', 11));
+		assertEquals(0, stat(cache, "entries"));
+		assertNull(cache.get(VERB, "a"));
+	}
+
+	private static String sha256(String text) throws NoSuchAlgorithmException {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)))
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	@Test
+	public void keysDigestTheVersionAndTheArgument() throws NoSuchAlgorithmException {
+		assertEquals("", ResultCache.version(VERB));
+		assertEquals(VERB + "-" + sha256("\0" + "arg"), ResultCache.key(VERB, "arg"));
+		assertEquals(ResultCache.key(VERB, ""), ResultCache.key(VERB, null));
+		assertFalse(ResultCache.key(VERB, "arg").equals(ResultCache.key(VERB, "arg2")));
+
+		// the version of an implementation is its class and the identity of where it is loaded from
+		String version = ResultCache.version("csv2JSON");
+		assertTrue(version, version.startsWith(CSV2JSON.class.getName() + " "));
+		assertEquals("csv2JSON-" + sha256(version + "\0" + "arg"), ResultCache.key("csv2JSON", "arg"));
+
+		// the same argument, for verbs implemented by different classes or by a class which cannot be loaded
+		Dispatcher.register("test.csv", CSV2JSON.class.getName());
+		Dispatcher.register("test.batch", Batch.class.getName());
+		Dispatcher.register("test.missing", "org.qcert.NoSuchClass");
+		assertEquals(version, ResultCache.version("test.csv"));
+		assertEquals("org.qcert.NoSuchClass", ResultCache.version("test.missing"));
+		String csv = ResultCache.key("test.csv", "arg"), batch = ResultCache.key("test.batch", "arg"), missing = ResultCache.key("test.missing", "arg");
+		assertEquals(csv.substring(csv.indexOf('-')), ResultCache.key("csv2JSON", "arg").substring("csv2JSON".length()));
+		assertFalse(csv.substring(csv.indexOf('-')).equals(batch.substring(batch.indexOf('-'))));
+		assertFalse(csv.substring(csv.indexOf('-')).equals(missing.substring(missing.indexOf('-'))));
+	}
+
+	@Test
+	public void diskKeepsResultsForLaterProcesses() {
+		ResultCache cache = new ResultCache(3 * ENTRY, directory.toString(), 1000);
+		cache.put(VERB, "a", result('a', 10));
+		ResultCache later = new ResultCache(3 * ENTRY, directory.toString(), 1000);
+		assertEquals(result('a', 10), later.get(VERB, "a"));
+		assertEquals(1, stat(later, "diskHits"));
+		// and now in memory
+		assertEquals(result('a', 10), later.get(VERB, "a"));
+		assertEquals(1, stat(later, "memoryHits"));
+	}
+
+	@Test
+	public void diskEvictsTheLeastRecentlyUsed() throws IOException {
+		ResultCache cache = new ResultCache(0, directory.toString(), 1000);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			cache.put(VERB, "r" + i, result('x', 300));
+			touch("r" + i, now - 100000 + i * 1000);
+		}
+		// r0 is used again, so r1 is now the least recently used
+		assertEquals(result('x', 300), cache.get(VERB, "r0"));
+		cache.put(VERB, "r3", result('x', 300));
+		assertEquals(900, filesSize());
+		assertEquals(900, stat(cache, "diskSize"));
+		assertFalse(Files.exists(directory.resolve(ResultCache.key(VERB, "r1"))));
+		assertNull(cache.get(VERB, "r1"));
+		assertEquals(result('x', 300), cache.get(VERB, "r2"));
+	}
+
+	@Test
+	public void diskAccountsForReplacedResults() throws IOException {
+		ResultCache cache = new ResultCache(0, directory.toString(), 1000);
+		cache.put(VERB, "a", result('a', 300));
+		cache.put(VERB, "b", result('b', 300));
+		cache.put(VERB, "a", result('c', 200));
+		assertEquals(500, filesSize());
+		assertEquals(500, stat(cache, "diskSize"));
+		for (int i = 0; i < 10; i++)
+			cache.put(VERB, "a", result('d', 300));
+		assertEquals(600, stat(cache, "diskSize"));
+		assertEquals(result('b', 300), cache.get(VERB, "b"));
+	}
+
+	@Test
+	public void diskIsTrimmedWhenOpened() throws IOException {
+		ResultCache cache = new ResultCache(0, directory.toString(), 1000);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			cache.put(VERB, "r" + i, result('x', 300));
+			touch("r" + i, now - 100000 + i * 1000);
+		}
+		ResultCache smaller = new ResultCache(0, directory.toString(), 700);
+		assertEquals(600, filesSize());
+		assertEquals(600, stat(smaller, "diskSize"));
+		assertNull(smaller.get(VERB, "r0"));
+		assertEquals(result('x', 300), smaller.get(VERB, "r2"));
+	}
+
+	@Test
+	public void resultsLargerThanTheDiskAreNotWritten() throws IOException {
+		ResultCache cache = new ResultCache(0, directory.toString(), 100);
+		cache.put(VERB, "a", result('a', 101));
+		assertEquals(0, filesSize());
+		assertEquals(0, stat(cache, "diskSize"));
+	}
+}
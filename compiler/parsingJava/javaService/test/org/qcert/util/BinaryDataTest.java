@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qcert.runtime.BinaryDataReader;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Checks that what BinaryDataWriter writes is read back by BinaryDataReader (in the Java runtime) as the same data
+ */
+public class BinaryDataTest {
+	private Path file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("qcert-test", ".qcbd");
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private JsonElement roundTrip(JsonElement value) throws IOException {
+		try (BinaryDataWriter writer = new BinaryDataWriter(file)) {
+			writer.write(value);
+		}
+		return read();
+	}
+
+	private JsonElement read() throws IOException {
+		assertTrue(BinaryDataReader.isBinary(file.toString()));
+		return BinaryDataReader.open(file.toString()).read();
+	}
+
+	private static JsonElement parse(String json) {
+		return new JsonParser().parse(json);
+	}
+
+	private void checkRoundTrip(String json) throws IOException {
+		JsonElement value = parse(json);
+		assertEquals(json, value, roundTrip(value));
+	}
+
+	@Test
+	public void scalars() throws IOException {
+		assertEquals(JsonNull.INSTANCE, roundTrip(JsonNull.INSTANCE));
+		checkRoundTrip("true");
+		checkRoundTrip("false");
+		checkRoundTrip("[null, true, false]");
+	}
+
+	@Test
+	public void integers() throws IOException {
+		for (long n : new long[] { 0, 1, -1, 63, 64, -64, -65, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE }) {
+			JsonElement read = roundTrip(new JsonPrimitive(n));
+			assertEquals(n, read.getAsLong());
+			// parsed from JSON text
+			assertEquals(n, roundTrip(parse(Long.toString(n))).getAsLong());
+		}
+		// too large for a long, kept as its text
+		assertEquals("12345678901234567890", roundTrip(parse("12345678901234567890")).getAsString());
+		assertEquals("-92233720368547758080", roundTrip(parse("-92233720368547758080")).getAsString());
+	}
+
+	@Test
+	public void floats() throws IOException {
+		for (double d : new double[] { 1.5, -2.25, 1e300, Double.MIN_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0 }) {
+			JsonElement read = roundTrip(new JsonPrimitive(d));
+			assertEquals(Double.doubleToRawLongBits(d), Double.doubleToRawLongBits(read.getAsDouble()));
+		}
+		assertTrue(Double.isNaN(roundTrip(new JsonPrimitive(Double.NaN)).getAsDouble()));
+		// parsed from JSON text
+		assertEquals(0.1, roundTrip(parse("0.1")).getAsDouble(), 0.0);
+		assertEquals(-1.5e-10, roundTrip(parse("-1.5e-10")).getAsDouble(), 0.0);
+	}
+
+	@Test
+	public void strings() throws IOException {
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+			large.append((char) ('a' + i % 26));
+		for (String s : new String[] { "", "a", "\u00e9t\u00e9", "\u6771\u4eac \ud83d\ude00", "\"quoted\"\n", large.toString() })
+			assertEquals(s, roundTrip(new JsonPrimitive(s)).getAsString());
+	}
+
+	@Test
+	public void nats() throws IOException {
+		checkRoundTrip("{\"$nat\":0}");
+		checkRoundTrip("{\"$nat\":42}");
+		checkRoundTrip("{\"$nat\":-7}");
+		checkRoundTrip("{\"$nat\":9223372036854775807}");
+		// not nats: kept as records
+		checkRoundTrip("{\"$nat\":1.5}");
+		checkRoundTrip("{\"$nat\":\"1\"}");
+		checkRoundTrip("{\"$nat\":1,\"x\":2}");
+	}
+
+	@Test
+	public void eithers() throws IOException {
+		checkRoundTrip("{\"$left\":1}");
+		checkRoundTrip("{\"$right\":\"a\"}");
+		checkRoundTrip("{\"$left\":{\"$right\":{\"$left\":null}}}");
+		checkRoundTrip("{\"$right\":{\"a\":[1,{\"$left\":2}]}}");
+		checkRoundTrip("{\"$left\":1,\"$right\":2}");
+	}
+
+	@Test
+	public void brands() throws IOException {
+		checkRoundTrip("{\"$class\":[\"A\"],\"$data\":{\"x\":1}}");
+		checkRoundTrip("{\"$class\":[\"org.A\",\"org.B\"],\"$data\":[1,2]}");
+		checkRoundTrip("{\"$class\":[],\"$data\":null}");
+		checkRoundTrip("{\"$data\":3,\"$class\":[\"A\"]}");
+		// not branded values: kept as records
+		checkRoundTrip("{\"$class\":[1],\"$data\":2}");
+		checkRoundTrip("{\"$class\":\"A\",\"$data\":2}");
+		checkRoundTrip("{\"$class\":[\"A\"],\"$data\":2,\"x\":3}");
+	}
+
+	@Test
+	public void dates() throws IOException {
+		checkRoundTrip("{\"$foreign\":{\"$date\":{\"year\":2016,\"month\":2,\"day\":29}}}");
+		checkRoundTrip("{\"$foreign\":{\"$date\":{\"year\":-44,\"month\":3,\"day\":15}}}");
+		checkRoundTrip("{\"$foreign\":{\"$date\":{\"day\":1,\"month\":12,\"year\":1999}}}");
+		// not dates: kept as records
+		checkRoundTrip("{\"$foreign\":{\"$date\":{\"year\":2016,\"month\":-1,\"day\":1}}}");
+		checkRoundTrip("{\"$foreign\":{\"$date\":{\"year\":2016,\"month\":1}}}");
+		checkRoundTrip("{\"$foreign\":{\"$date\":{\"year\":2016.5,\"month\":1,\"day\":1}}}");
+		checkRoundTrip("{\"$foreign\":{\"$time\":12}}");
+	}
+
+	@Test
+	public void recordsAndBags() throws IOException {
+		checkRoundTrip("{}");
+		checkRoundTrip("[]");
+		checkRoundTrip("{\"a\":1,\"b\":[1,\"x\",[]],\"c\":{\"d\":{}}}");
+		checkRoundTrip("[{\"a\":[{\"b\":[[],[[]]]}]},{\"$nat\":1},{\"$left\":[]}]");
+	}
+
+	private static JsonObject input(int size) {
+		JsonArray bag = new JsonArray();
+		for (int i = 0; i < size; i++) {
+			JsonObject rec = new JsonObject();
+			rec.addProperty("id", i);
+			rec.addProperty("name", "name" + i);
+			rec.addProperty("score", i / 8.0);
+			JsonObject nat = new JsonObject();
+			nat.addProperty("$nat", i);
+			rec.add("count", nat);
+			bag.add(rec);
+		}
+		JsonObject input = new JsonObject();
+		input.add("WORLD", bag);
+		input.addProperty("size", size);
+		return input;
+	}
+
+	@Test
+	public void largeValues() throws IOException {
+		// larger than the buffer of the writer, so that lengths are filled in the file
+		JsonObject input = input(20000);
+		assertEquals(input, roundTrip(input));
+	}
+
+	@Test
+	public void writtenAFieldOrElementAtATime() throws IOException {
+		JsonObject input = input(20000);
+		try (BinaryDataWriter writer = new BinaryDataWriter(file)) {
+			writer.beginRecord();
+			writer.name("WORLD");
+			writer.beginBag();
+			for (JsonElement elem : input.getAsJsonArray("WORLD"))
+				writer.write(elem);
+			writer.beginBag();
+			writer.endBag();
+			writer.endBag();
+			writer.name("size");
+			writer.write(input.get("size"));
+			writer.endRecord();
+		}
+		input.getAsJsonArray("WORLD").add(new JsonArray());
+		assertEquals(input, read());
+	}
+
+	@Test
+	public void converted() throws IOException {
+		JsonObject input = input(5000);
+		input.add("branded", parse("{\"$class\":[\"A\"],\"$data\":{\"$foreign\":{\"$date\":{\"year\":1,\"month\":1,\"day\":1}}}}"));
+		try (BinaryDataWriter writer = new BinaryDataWriter(file)) {
+			writer.convert(new JsonReader(new StringReader(input.toString())));
+		}
+		assertEquals(input, read());
+	}
+
+	@Test
+	public void notBinary() throws IOException {
+		Files.write(file, "{\"a\":1}".getBytes("UTF-8"));
+		assertFalse(BinaryDataReader.isBinary(file.toString()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unnamedFieldIsRejected() throws IOException {
+		try (BinaryDataWriter writer = new BinaryDataWriter(file)) {
+			writer.beginRecord();
+			writer.write(new JsonPrimitive(1));
+		}
+	}
+}
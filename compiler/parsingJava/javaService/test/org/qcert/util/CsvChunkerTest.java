@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+/**
+ * Checks that the chunks of CsvChunker, parsed one by one, give the records of the whole text
+ */
+public class CsvChunkerTest {
+	private static final int[] CHUNK_SIZES = { 1, 2, 7, 64, Integer.MAX_VALUE };
+
+	/** A random field, quoted if it needs to be, with delimiters, quotes and line breaks */
+	static String field(Random random, char delimiter) {
+		String[] pieces = { "a", "bc", " ", String.valueOf(delimiter), "\"", "\n", "\r\n", "x\"y", "" };
+		StringBuilder value = new StringBuilder();
+		for (int i = random.nextInt(5); i > 0; i--)
+			value.append(pieces[random.nextInt(pieces.length)]);
+		String text = value.toString();
+		boolean quoted = random.nextInt(4) == 0 || text.indexOf(delimiter) >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+		return quoted ? "\"" + text.replace("\"", "\"\"") + "\"" : text;
+	}
+
+	/** A random CSV text, with a header and line breaks which are either LF or CRLF, and possibly none at the end */
+	static String text(Random random, char delimiter, int rows, int columns) {
+		StringBuilder text = new StringBuilder();
+		for (int c = 0; c < columns; c++)
+			text.append(c == 0 ? "" : String.valueOf(delimiter)).append("c").append(c);
+		for (int r = 0; r < rows; r++) {
+			text.append(random.nextBoolean() ? "\n" : "\r\n");
+			for (int c = 0; c < columns; c++)
+				text.append(c == 0 ? "" : String.valueOf(delimiter)).append(field(random, delimiter));
+		}
+		if (random.nextBoolean())
+			text.append(random.nextBoolean() ? "\n" : "\r\n");
+		return text.toString();
+	}
+
+	private static List<List<String>> records(CSVParser parser) {
+		List<List<String>> records = new ArrayList<>();
+		for (CSVRecord record : parser) {
+			List<String> values = new ArrayList<>();
+			for (String value : record)
+				values.add(value);
+			records.add(values);
+		}
+		return records;
+	}
+
+	private static List<List<String>> whole(String text, CSVFormat format) throws IOException {
+		try (CSVParser parser = new CSVParser(new StringReader(text), format)) {
+			return records(parser);
+		}
+	}
+
+	private static List<String> chunks(String text, CSVFormat format, int chunkSize) throws IOException {
+		CsvChunker chunker = new CsvChunker(new StringReader(text), format, chunkSize);
+		List<String> chunks = new ArrayList<>();
+		for (String chunk = chunker.nextChunk(); chunk != null; chunk = chunker.nextChunk())
+			chunks.add(chunk);
+		return chunks;
+	}
+
+	private static List<List<String>> chunked(String text, CSVFormat format, int chunkSize) throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		for (String chunk : chunks(text, format, chunkSize))
+			records.addAll(whole(chunk, format));
+		return records;
+	}
+
+	private static void check(String text, CSVFormat format) throws IOException {
+		List<List<String>> expected = whole(text, format);
+		for (int chunkSize : CHUNK_SIZES) {
+			assertEquals(text, String.join("", chunks(text, format, chunkSize)));
+			assertEquals(text.replace("\r", "\\r").replace("\n", "\\n") + " in chunks of " + chunkSize, expected, chunked(text, format, chunkSize));
+		}
+	}
+
+	@Test
+	public void quotedFields() throws IOException {
+		check("a,b\n1,\"x,\ny\"\n2,\"\"\"q\"\",\r\n\"\n3,\"\"\n", CSVFormat.RFC4180);
+	}
+
+	@Test
+	public void crlf() throws IOException {
+		check("a,b\r\n1,2\r\n\"3\r\n\",4\r\n", CSVFormat.RFC4180);
+	}
+
+	@Test
+	public void noFinalLineBreak() throws IOException {
+		check("a,b\n1,2\n3,\"4\n5\"", CSVFormat.RFC4180);
+		check("a,b\r\n1,2\r\n3,4", CSVFormat.RFC4180);
+		check("a", CSVFormat.RFC4180);
+	}
+
+	@Test
+	public void emptyLines() throws IOException {
+		check("a,b\n\n1,2\r\n\r\n\n3,4\n\n", CSVFormat.DEFAULT);
+		check("a,b\n\n1,2\r\n\r\n\n3,4\n\n", CSVFormat.RFC4180);
+	}
+
+	@Test
+	public void quotesInsideUnquotedFields() throws IOException {
+		// only a quote at the start of a field opens a quoted field
+		check("a,b\n1,x\"y\n2,3\n", CSVFormat.DEFAULT);
+	}
+
+	@Test
+	public void randomTexts() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			check(text(random, ',', random.nextInt(20), 1 + random.nextInt(4)), CSVFormat.RFC4180);
+			check(text(random, ';', random.nextInt(20), 1 + random.nextInt(4)), CSVFormat.RFC4180.withDelimiter(';'));
+		}
+	}
+
+	@Test
+	public void chunksEndAtRecords() throws IOException {
+		List<String> chunks = chunks("a\n\"1\n2\"\n3\n4", CSVFormat.RFC4180, 1);
+		assertEquals(4, chunks.size());
+		assertEquals("\"1\n2\"\n", chunks.get(1));
+		assertEquals("4", chunks.get(3));
+	}
+
+	@Test
+	public void unsplittableFormatsGiveOneChunk() throws IOException {
+		String text = "a,b\n1,\\\"2\n3,4\n";
+		for (CSVFormat format : new CSVFormat[] { CSVFormat.RFC4180.withEscape('\\'), CSVFormat.RFC4180.withCommentMarker('#'),
+				CSVFormat.RFC4180.withIgnoreSurroundingSpaces() }) {
+			assertEquals(1, chunks(text, format, 1).size());
+			check(text, format);
+		}
+	}
+
+	@Test
+	public void header() throws IOException {
+		CsvChunker chunker = new CsvChunker(new StringReader("\r\n\n\"a\nb\",c\r\n1,2\n"), CSVFormat.DEFAULT, 1);
+		assertEquals("\"a\nb\",c\r\n", chunker.nextRecord());
+		assertEquals("1,2\n", chunker.nextChunk());
+		assertNull(chunker.nextChunk());
+		assertNull(new CsvChunker(new StringReader(""), CSVFormat.RFC4180, 1).nextRecord());
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Test;
+import org.qcert.runtime.BinaryDataReader;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Checks that the streaming variants of DataLoader give the same data as <b>loadData</b>, and the data expected from the CSV text,
+ *   and that converting tables in chunks gives the data of converting them whole
+ */
+public class DataLoaderTest {
+	/** Customers and orders, as brands (in WORLD) */
+	static final JsonElement BRANDS = parse("{\"brandTypes\":[{\"brand\":\"Customer\",\"typeName\":\"Customer\"},{\"brand\":\"Order\",\"typeName\":\"Order\"}],"
+			+ "\"typeDefs\":[{\"typeName\":\"Customer\",\"typeDef\":{\"id\":\"Nat\",\"name\":\"String\",\"since\":\"ESqlDate\",\"vip\":\"Bool\"}},"
+			+ "{\"typeName\":\"Order\",\"typeDef\":{\"id\":\"Nat\",\"customer\":\"Nat\",\"total\":\"Float\",\"note\":\"String\"}}]}");
+	/** The same, as partitions */
+	static final JsonElement PARTITIONS = parse("{\"brandTypes\":[],\"typeDefs\":[],\"globals\":{"
+			+ "\"Customer\":{\"type\":{\"$coll\":{\"id\":\"Nat\",\"name\":\"String\",\"since\":\"ESqlDate\",\"vip\":\"Bool\"}}},"
+			+ "\"Order\":{\"type\":{\"$coll\":{\"id\":\"Nat\",\"customer\":\"Nat\",\"total\":\"Float\",\"note\":\"String\"}}}}}");
+
+	/* CRLF line breaks, quoted fields with delimiters, quotes and line breaks, and no line break at the end */
+	static final String CUSTOMERS = "id,name,since,vip\r\n"
+			+ "1,Ann,2016-02-29,true\r\n"
+			+ "2,\"Smith, Bob\",1999-12-31,false\r\n"
+			+ "3,\"Carl \"\"C\"\" Jones\r\nthe second\",2001-01-01,TRUE";
+	static final String ORDERS = "id,customer,total,note\n"
+			+ "10,1,12.5,\"first,\nsecond line\"\n"
+			+ "11,3,0.25,\n"
+			+ "12,1,100,\"\"\"quoted\"\"\"\n";
+
+	static final String EXPECTED_CUSTOMERS = "["
+			+ "{\"id\":{\"$nat\":1},\"name\":\"Ann\",\"since\":{\"$foreign\":{\"$date\":{\"year\":2016,\"month\":2,\"day\":29}}},\"vip\":true},"
+			+ "{\"id\":{\"$nat\":2},\"name\":\"Smith, Bob\",\"since\":{\"$foreign\":{\"$date\":{\"year\":1999,\"month\":12,\"day\":31}}},\"vip\":false},"
+			+ "{\"id\":{\"$nat\":3},\"name\":\"Carl \\\"C\\\" Jones\\r\\nthe second\",\"since\":{\"$foreign\":{\"$date\":{\"year\":2001,\"month\":1,\"day\":1}}},\"vip\":true}]";
+	static final String EXPECTED_ORDERS = "["
+			+ "{\"id\":{\"$nat\":10},\"customer\":{\"$nat\":1},\"total\":12.5,\"note\":\"first,\\nsecond line\"},"
+			+ "{\"id\":{\"$nat\":11},\"customer\":{\"$nat\":3},\"total\":0.25,\"note\":\"\"},"
+			+ "{\"id\":{\"$nat\":12},\"customer\":{\"$nat\":1},\"total\":100.0,\"note\":\"\\\"quoted\\\"\"}]";
+
+	static JsonElement parse(String json) {
+		return new JsonParser().parse(json);
+	}
+
+	static Map<String, String> tables(String... namesAndTexts) {
+		Map<String, String> tables = new LinkedHashMap<>();
+		for (int i = 0; i < namesAndTexts.length; i += 2)
+			tables.put(namesAndTexts[i], namesAndTexts[i + 1]);
+		return tables;
+	}
+
+	static Map<String, Reader> readers(Map<String, String> tables) {
+		Map<String, Reader> readers = new LinkedHashMap<>();
+		for (Entry<String, String> table : tables.entrySet())
+			readers.put(table.getKey(), new StringReader(table.getValue()));
+		return readers;
+	}
+
+	static JsonElement streamed(Map<String, String> tables, JsonElement schema) throws Exception {
+		return streamed(tables, schema, CSVFormat.RFC4180, Integer.MAX_VALUE);
+	}
+
+	static JsonElement streamed(Map<String, String> tables, JsonElement schema, CSVFormat format, int chunkSize) throws Exception {
+		StringWriter text = new StringWriter();
+		try (JsonWriter out = new JsonWriter(text)) {
+			DataLoader.streamData(readers(tables), schema, format, out, chunkSize);
+		}
+		return parse(text.toString());
+	}
+
+	/** The rows of a table, as elements of WORLD */
+	private static String world(String table, String rows) {
+		StringBuilder world = new StringBuilder();
+		for (JsonElement row : parse(rows).getAsJsonArray()) {
+			world.append(world.length() == 0 ? "" : ",");
+			world.append("{\"type\":[\"").append(table).append("\"],\"data\":").append(row).append("}");
+		}
+		return world.toString();
+	}
+
+	@Test
+	public void brands() throws Exception {
+		Map<String, String> tables = tables("Customer", CUSTOMERS, "Order", ORDERS);
+		JsonElement expected = parse("{\"WORLD\":[" + world("Customer", EXPECTED_CUSTOMERS) + "," + world("Order", EXPECTED_ORDERS) + "]}");
+		assertEquals(expected, DataLoader.loadData(tables, BRANDS, CSVFormat.RFC4180));
+		assertEquals(expected, streamed(tables, BRANDS));
+	}
+
+	@Test
+	public void partitions() throws Exception {
+		Map<String, String> tables = tables("Order", ORDERS, "Customer", CUSTOMERS);
+		JsonElement expected = parse("{\"Order\":" + EXPECTED_ORDERS + ",\"Customer\":" + EXPECTED_CUSTOMERS + "}");
+		assertEquals(expected, DataLoader.loadData(tables, PARTITIONS, CSVFormat.RFC4180));
+		assertEquals(expected, streamed(tables, PARTITIONS));
+	}
+
+	@Test
+	public void headerOnlyAndEmptyTables() throws Exception {
+		Map<String, String> tables = tables("Customer", "id,name,since,vip\r\n", "Order", "");
+		JsonElement expected = parse("{\"Customer\":[],\"Order\":[]}");
+		assertEquals(expected, DataLoader.loadData(tables, PARTITIONS, CSVFormat.RFC4180));
+		assertEquals(expected, streamed(tables, PARTITIONS));
+	}
+
+	@Test
+	public void headerInTheFormat() throws Exception {
+		CSVFormat format = CSVFormat.RFC4180.withHeader("id", "customer", "total", "note");
+		String orders = ORDERS.substring(ORDERS.indexOf('\n') + 1);
+		JsonElement expected = parse("{\"Order\":" + EXPECTED_ORDERS + "}");
+		assertEquals(expected, DataLoader.loadData(tables("Order", orders), PARTITIONS, format));
+		StringWriter text = new StringWriter();
+		try (JsonWriter out = new JsonWriter(text)) {
+			DataLoader.streamData(readers(tables("Order", orders)), PARTITIONS, format, out);
+		}
+		assertEquals(expected, parse(text.toString()));
+	}
+
+	@Test
+	public void otherDelimiter() throws Exception {
+		CSVFormat format = CSVFormat.RFC4180.withDelimiter('|');
+		String orders = "id|customer|total|note\n10|1|12.5|\"a|b\nc\"\n11|3|0.25|a,b";
+		JsonElement expected = parse("{\"Order\":[{\"id\":{\"$nat\":10},\"customer\":{\"$nat\":1},\"total\":12.5,\"note\":\"a|b\\nc\"},"
+				+ "{\"id\":{\"$nat\":11},\"customer\":{\"$nat\":3},\"total\":0.25,\"note\":\"a,b\"}]}");
+		assertEquals(expected, DataLoader.loadData(tables("Order", orders), PARTITIONS, format));
+	}
+
+	/** A random table of orders, whose notes have delimiters, quotes and line breaks */
+	static String orders(Random random, int rows) {
+		StringBuilder text = new StringBuilder("id,customer,total,note");
+		for (int r = 0; r < rows; r++) {
+			text.append(random.nextBoolean() ? "\n" : "\r\n");
+			text.append(r).append(',').append(random.nextInt(100)).append(',').append(random.nextInt(10000) / 100.0).append(',');
+			text.append(CsvChunkerTest.field(random, ','));
+		}
+		if (random.nextBoolean())
+			text.append(random.nextBoolean() ? "\n" : "\r\n");
+		return text.toString();
+	}
+
+	/** Converting in chunks of any size, including a single one, gives the same data, whether loaded or streamed */
+	private static void checkChunked(Map<String, String> tables, JsonElement schema) throws Exception {
+		checkChunked(tables, schema, CSVFormat.RFC4180);
+	}
+
+	private static void checkChunked(Map<String, String> tables, JsonElement schema, CSVFormat format) throws Exception {
+		JsonElement whole = DataLoader.loadData(tables, schema, format, Integer.MAX_VALUE);
+		for (int chunkSize : new int[] { 1, 2, 7, 64, 1000 }) {
+			assertEquals("loaded in chunks of " + chunkSize, whole, DataLoader.loadData(tables, schema, format, chunkSize));
+			assertEquals("streamed in chunks of " + chunkSize, whole, streamed(tables, schema, format, chunkSize));
+		}
+	}
+
+	@Test
+	public void chunked() throws Exception {
+		checkChunked(tables("Customer", CUSTOMERS, "Order", ORDERS), BRANDS);
+		checkChunked(tables("Order", ORDERS, "Customer", CUSTOMERS), PARTITIONS);
+		JsonElement expected = parse("{\"Order\":" + EXPECTED_ORDERS + ",\"Customer\":" + EXPECTED_CUSTOMERS + "}");
+		assertEquals(expected, DataLoader.loadData(tables("Order", ORDERS, "Customer", CUSTOMERS), PARTITIONS, CSVFormat.RFC4180, 1));
+	}
+
+	@Test
+	public void chunkedRandomTables() throws Exception {
+		Random random = new Random(42);
+		for (int i = 0; i < 20; i++) {
+			Map<String, String> tables = tables("Order", orders(random, random.nextInt(300)), "Customer", CUSTOMERS);
+			checkChunked(tables, PARTITIONS);
+			checkChunked(tables, BRANDS);
+			assertEquals(DataLoader.loadData(tables, PARTITIONS, CSVFormat.RFC4180, Integer.MAX_VALUE), streamed(tables, PARTITIONS, CSVFormat.RFC4180, 1));
+		}
+	}
+
+	@Test
+	public void chunkedWithOtherFormats() throws Exception {
+		String orders = orders(new Random(7), 200);
+		String rows = orders.substring(orders.indexOf('\n') + 1);
+		CSVFormat header = CSVFormat.RFC4180.withHeader("id", "customer", "total", "note");
+		checkChunked(tables("Order", rows), PARTITIONS, header);
+		checkChunked(tables("Order", orders), PARTITIONS, header.withSkipHeaderRecord());
+		// not split
+		checkChunked(tables("Order", orders), PARTITIONS, CSVFormat.RFC4180.withEscape('\\'));
+	}
+
+	@Test
+	public void failureInAChunk() throws Exception {
+		String orders = orders(new Random(3), 100) + "\n100,1,not a number,x\n";
+		for (int chunkSize : new int[] { 1, 64, Integer.MAX_VALUE }) {
+			try {
+				DataLoader.loadData(tables("Order", orders), PARTITIONS, CSVFormat.RFC4180, chunkSize);
+				fail("no error in chunks of " + chunkSize);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	@Test
+	public void binary() throws Exception {
+		Map<String, String> tables = tables("Customer", CUSTOMERS, "Order", ORDERS);
+		Path file = Files.createTempFile("qcert-test", ".qcbd");
+		try {
+			try (BinaryDataWriter out = new BinaryDataWriter(file)) {
+				DataLoader.streamBinary(readers(tables), BRANDS, CSVFormat.RFC4180, out);
+			}
+			assertEquals(DataLoader.loadData(tables, BRANDS, CSVFormat.RFC4180), BinaryDataReader.open(file.toString()).read());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void readersAreClosed() throws Exception {
+		final boolean[] closed = new boolean[1];
+		Map<String, Reader> tables = new LinkedHashMap<>();
+		tables.put("Order", new StringReader(ORDERS) {
+			@Override
+			public void close() {
+				closed[0] = true;
+				super.close();
+			}
+		});
+		try (JsonWriter out = new JsonWriter(new StringWriter())) {
+			DataLoader.streamData(tables, PARTITIONS, CSVFormat.RFC4180, out);
+		}
+		assertTrue(closed[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownTable() throws Exception {
+		DataLoader.loadData(tables("Product", "id\n1\n"), BRANDS, CSVFormat.RFC4180);
+	}
+
+	@Test
+	public void unknownTableWhenStreaming() throws IOException {
+		StringWriter text = new StringWriter();
+		try {
+			DataLoader.streamData(readers(tables("Product", "id\n1\n")), BRANDS, CSVFormat.RFC4180, new JsonWriter(text));
+			fail("no error for an unknown table");
+		} catch (Exception e) {
+			assertTrue(e.toString(), e instanceof IllegalArgumentException);
+		}
+		// nothing was written
+		assertEquals("", text.toString());
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.google.gson.*;
+import com.google.gson.internal.LazilyParsedNumber;
+
+/**
+ * Reads data in the compact binary format written by <b>org.qcert.util.BinaryDataWriter</b>
+ * (see there for the format), from a memory mapping of the file.
+ *
+ * <p>The content is decoded to its JSON encoding as a whole, since compiled queries take their
+ * input as a JsonObject; what the format saves is the parsing of the JSON text.
+ */
+public class BinaryDataReader {
+	private static final byte[] MAGIC = { 'Q', 'C', 'B', 'D' };
+	private static final byte VERSION = 1;
+	/* The position of the top-level value */
+	private static final long START = MAGIC.length + 1;
+
+	private static final byte NULL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte NUMBER = 5;
+	private static final byte STRING = 6;
+	private static final byte NAT = 7;
+	private static final byte LEFT = 8;
+	private static final byte RIGHT = 9;
+	private static final byte BRAND = 10;
+	private static final byte DATE = 11;
+	private static final byte RECORD = 12;
+	private static final byte BAG = 13;
+
+	/* Files are mapped in segments of this size, since a single mapping is limited to 2GB */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final String file;
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	private BinaryDataReader(String file, MappedByteBuffer[] segments, long size) {
+		this.file = file;
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * Checks whether a file is in the binary format
+	 * @param file the path to the file
+	 * @return true if the file starts as a file in the binary format does
+	 */
+	public static boolean isBinary(String file) throws IOException {
+		final byte[] header = new byte[MAGIC.length];
+		try(InputStream in = new FileInputStream(file)) {
+			int read = 0;
+			while(read < header.length) {
+				final int n = in.read(header, read, header.length - read);
+				if(n < 0) {
+					return false;
+				}
+				read += n;
+			}
+		}
+		return Arrays.equals(header, MAGIC);
+	}
+
+	/**
+	 * Maps a file in the binary format
+	 * @param file the path to the file
+	 * @return a reader of the file
+	 */
+	public static BinaryDataReader open(String file) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for(int i = 0; i < segments.length; i++) {
+				final long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, 1L << SEGMENT_BITS));
+			}
+			final BinaryDataReader reader = new BinaryDataReader(file, segments, size);
+			final Cursor cursor = reader.new Cursor(0);
+			for(byte b : MAGIC) {
+				if(size < START || cursor.readByte() != b) {
+					throw new IOException(file + " is not in the Q*cert binary data format");
+				}
+			}
+			if(cursor.readByte() != VERSION) {
+				throw new IOException(file + " is in an unsupported version of the Q*cert binary data format");
+			}
+			return reader;
+		}
+	}
+
+	/**
+	 * Decodes the whole content of the file
+	 * @return the JSON encoding of the content
+	 */
+	public JsonElement read() {
+		return new Cursor(START).readValue();
+	}
+
+	/* A position in the file, from which values are decoded */
+	private final class Cursor {
+		long position;
+
+		Cursor(long position) {
+			this.position = position;
+		}
+
+		byte readByte() {
+			if(position >= size) {
+				throw new IllegalStateException("Unexpected end of " + file);
+			}
+			final byte b = segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+			position++;
+			return b;
+		}
+
+		long readLong() {
+			long value = 0;
+			for(int i = 0; i < 8; i++) {
+				value = (value << 8) | (readByte() & 0xFF);
+			}
+			return value;
+		}
+
+		int readCount() {
+			int value = 0;
+			for(int i = 0; i < 4; i++) {
+				value = (value << 8) | (readByte() & 0xFF);
+			}
+			return value;
+		}
+
+		long readVarLong() {
+			long value = 0;
+			for(int shift = 0; ; shift += 7) {
+				final byte b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return value;
+				}
+			}
+		}
+
+		long readSignedVarLong() {
+			final long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		String readString() {
+			final int length = (int) readVarLong();
+			final byte[] bytes = new byte[length];
+			final int offset = (int) (position & SEGMENT_MASK);
+			final ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+			if(offset + length <= segment.limit()) {
+				final ByteBuffer view = segment.duplicate();
+				view.position(offset);
+				view.get(bytes);
+				position += length;
+			} else {
+				for(int i = 0; i < length; i++) {
+					bytes[i] = readByte();
+				}
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		JsonElement readValue() {
+			final byte tag = readByte();
+			switch(tag) {
+			case NULL:
+				return JsonNull.INSTANCE;
+			case FALSE:
+				return new JsonPrimitive(false);
+			case TRUE:
+				return new JsonPrimitive(true);
+			case LONG:
+				return new JsonPrimitive(readSignedVarLong());
+			case DOUBLE:
+				return new JsonPrimitive(Double.longBitsToDouble(readLong()));
+			case NUMBER:
+				return new JsonPrimitive(new LazilyParsedNumber(readString()));
+			case STRING:
+				return new JsonPrimitive(readString());
+			case NAT:
+				return wrap("$nat", new JsonPrimitive(readSignedVarLong()));
+			case LEFT:
+				return wrap("$left", readValue());
+			case RIGHT:
+				return wrap("$right", readValue());
+			case BRAND: {
+				final JsonArray brands = new JsonArray();
+				for(long count = readVarLong(); count > 0; count--) {
+					brands.add(new JsonPrimitive(readString()));
+				}
+				final JsonObject obj = new JsonObject();
+				obj.add("$class", brands);
+				obj.add("$data", readValue());
+				return obj;
+			}
+			case DATE: {
+				final JsonObject date = new JsonObject();
+				date.add("year", new JsonPrimitive(readSignedVarLong()));
+				date.add("month", new JsonPrimitive(readVarLong()));
+				date.add("day", new JsonPrimitive(readVarLong()));
+				return wrap("$foreign", wrap("$date", date));
+			}
+			case RECORD: {
+				readLong();
+				final JsonObject obj = new JsonObject();
+				for(int count = readCount(); count > 0; count--) {
+					final String name = readString();
+					obj.add(name, readValue());
+				}
+				return obj;
+			}
+			case BAG: {
+				readLong();
+				final JsonArray coll = new JsonArray();
+				for(int count = readCount(); count > 0; count--) {
+					coll.add(readValue());
+				}
+				return coll;
+			}
+			default:
+				throw new IllegalStateException("Unknown tag " + tag + " at " + (position - 1) + " in " + file);
+			}
+		}
+	}
+
+	private static JsonObject wrap(String name, JsonElement value) {
+		final JsonObject obj = new JsonObject();
+		obj.add(name, value);
+		return obj;
+	}
+}
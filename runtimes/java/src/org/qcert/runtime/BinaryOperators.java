@@ -16,16 +16,8 @@ package org.qcert.runtime;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
 import com.google.gson.*;
 
@@ -81,77 +73,33 @@ public class BinaryOperators {
 	}
 	
 	public static JsonElement equals(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(DataComparator.getComparator().compare(e1, e2) == 0);
+		return new JsonPrimitive(DataHasher.equal(e1, e2));
 	}
 	
 	public static JsonElement union(JsonElement e1, JsonElement e2) {
+		final long start = Profiler.ENABLED ? System.nanoTime() : 0;
 		final JsonArray dst = new JsonArray();
 		dst.addAll(e1.getAsJsonArray());
 		dst.addAll(e2.getAsJsonArray());
+		if(Profiler.ENABLED) {
+			Profiler.operator("union", start, dst.size(), dst.size());
+		}
 		return dst;
 	}
 	
 	public static JsonElement concat(JsonElement e1, JsonElement e2) {
-		final JsonObject rec1 = asRec(e1);
-		final JsonObject rec2 = asRec(e2);
-
-    // Sort based on keys first and do not add fields in rec1 which are in rec
-    Set<Entry<String,JsonElement>> entryset = new HashSet<Entry<String,JsonElement>>();
-		for(final Entry<String, JsonElement> entry : rec2.entrySet()) {
-      entryset.add(entry);
-		}
-		for(final Entry<String, JsonElement> entry : rec1.entrySet()) {
-      if (!rec2.has(entry.getKey())) {
-        entryset.add(entry);
-      }
-		}
-
-    List<Entry<String,JsonElement>> entrylist = new ArrayList<Entry<String,JsonElement>>(entryset);
-    Comparator<Entry<String,JsonElement>> compareByKey = new Comparator<Entry<String,JsonElement>>() {
-            @Override
-            public int compare(Entry<String,JsonElement> e1, Entry<String,JsonElement> e2) {
-                return e1.getKey().compareTo( e2.getKey() );
-            }
-        };
-
-    Collections.sort(entrylist, compareByKey);
-    
-		final JsonObject dst = new JsonObject();
-		for(final Entry<String, JsonElement> entry : entrylist) {
-        dst.add(entry.getKey(), entry.getValue());
-		}
-		return dst;
+		// The fields of rec2 take precedence over those of rec1
+		return Records.concat(asRec(e1), asRec(e2), false);
 	}
 	
 	public static JsonElement mergeConcat(JsonElement e1, JsonElement e2) {
-		if(compatibleRecs(asRec(e1), asRec(e2))) {
-			return UnaryOperators.coll(concat(e1,e2));
+		final JsonObject dst = Records.concat(asRec(e1), asRec(e2), true);
+		if(dst != null) {
+			return UnaryOperators.coll(dst);
 		} else {
 			return new JsonArray();
 		}
 	}
-	
-	private static boolean compatibleRecsAux(JsonObject rec1, JsonObject rec2){
-		DataComparator comp = DataComparator.getComparator();
-		for(final Entry<String, JsonElement> entry : rec1.entrySet()) {
-			final String key = entry.getKey();
-			if(rec2.has(key)) {
-				final JsonElement val2 = rec2.get(entry.getKey());
-				if(comp.compare(entry.getValue(), val2) != 0) {
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-
-	private static boolean compatibleRecs(JsonObject rec1, JsonObject rec2) {
-		if(rec1.size() <= rec2.size()) {
-			return compatibleRecsAux(rec1, rec2);
-		} else {
-			return compatibleRecsAux(rec2, rec1);
-		}
-	}
 
 	public static JsonElement and(JsonElement e1, JsonElement e2) {
 		return new JsonPrimitive(e1.getAsBoolean() && e2.getAsBoolean());
@@ -179,32 +127,78 @@ public class BinaryOperators {
 		return dst;
 	}
 	
-	// TODO: up to here
+	/*
+	 * The bag operators remove (or keep) one occurrence of an element
+	 * for each matching occurrence in the other bag.  The occurrences are
+	 * counted in a hash-based multiset, so they run in linear time.
+	 * If the multiset exceeds the memory budget, both bags are partitioned
+	 * first (see HashPartitions).
+	 */
+	private static final int BAG_MINUS = 0;
+	private static final int BAG_MIN = 1;
+	private static final int BAG_MAX = 2;
+	private static final String[] BAG_OPS = { "bag_minus", "bag_min", "bag_max" };
+
 	public static JsonElement bag_minus(JsonElement e1, JsonElement e2) {
-		final DataComparator comp = DataComparator.getComparator();
-		// Note that collections are immutable, so we need to copy
-		// before removing stuff
-		final JsonArray ec1 = copyArray(asColl(e1));
-		final JsonArray ec2 = asColl(e2);
-		
-		for(final JsonElement elem2 : ec2) {
-			final Iterator<JsonElement> it = ec1.iterator();
-			while(it.hasNext()) {
-				JsonElement elem1 = it.next();
-				if(comp.compare(elem1, elem2) == 0) {
-					it.remove();
-				}
-			}
-		}
-		return ec1;
+		return bagOp(BAG_MINUS, asColl(e1), asColl(e2));
 	}
 	
 	public static JsonElement bag_min(JsonElement e1, JsonElement e2) {
-		return bag_minus(e1, bag_minus(e1, e2));
+		return bagOp(BAG_MIN, asColl(e1), asColl(e2));
 	}
 	
 	public static JsonElement bag_max(JsonElement e1, JsonElement e2) {
-		return union(e1, bag_minus(e2, e1));
+		return bagOp(BAG_MAX, asColl(e1), asColl(e2));
+	}
+
+	private static JsonArray bagOp(int op, JsonArray ec1, JsonArray ec2) {
+		final long start = Profiler.ENABLED ? System.nanoTime() : 0;
+		final JsonArray dst = bagOp(op, ec1, ec2, 0);
+		if(Profiler.ENABLED) {
+			Profiler.operator(BAG_OPS[op], start, ec1.size() + ec2.size(), dst.size());
+		}
+		return dst;
+	}
+
+	private static JsonArray bagOp(int op, JsonArray ec1, JsonArray ec2, int level) {
+		// bag_max counts the occurrences of its first bag, the others those of the second
+		final JsonArray counted = op == BAG_MAX ? ec1 : ec2;
+		final JsonArray scanned = op == BAG_MAX ? ec2 : ec1;
+		final long budget = MemoryBudget.get();
+		final DataMultiset ms = new DataMultiset();
+		long size = 0;
+		for(final JsonElement elem : counted) {
+			// the multiset refers to the elements, which are not copied
+			ms.add(elem);
+			size += MemoryBudget.ENTRY_SIZE;
+			if(size > budget && HashPartitions.canPartition(level)) {
+				return bagOpPartitioned(op, ec1, ec2, level);
+			}
+		}
+		final JsonArray dst = op == BAG_MAX ? copyArray(ec1) : new JsonArray();
+		for(final JsonElement elem : scanned) {
+			// bag_min keeps the matched occurrences, the others the unmatched ones
+			if(ms.remove(elem) == (op == BAG_MIN)) {
+				dst.add(elem);
+			}
+		}
+		return dst;
+	}
+
+	private static JsonArray bagOpPartitioned(int op, JsonArray ec1, JsonArray ec2, int level) {
+		final HashPartitions partitions1 = new HashPartitions(level);
+		final HashPartitions partitions2 = new HashPartitions(level);
+		for(final JsonElement elem : ec1) {
+			partitions1.add(DataHasher.hash(elem), elem);
+		}
+		for(final JsonElement elem : ec2) {
+			partitions2.add(DataHasher.hash(elem), elem);
+		}
+		final JsonArray dst = new JsonArray();
+		for(int p = 0; p < HashPartitions.FANOUT; p++) {
+			dst.addAll(bagOp(op, partitions1.take(p), partitions2.take(p), level + 1));
+		}
+		return dst;
 	}
 	
   public static JsonElement bag_nth(JsonElement e1, JsonElement e2) {
@@ -221,12 +215,8 @@ public class BinaryOperators {
 		// Note: we can't use the built in contains operation since
 		// we need equality to be determined by our comparator
 		final JsonArray ec = asColl(e2);
-		final DataComparator comp = DataComparator.getComparator();
 		for(JsonElement elem : ec) {
-//			if (elem instanceof JsonObject) {
-//				elem = RuntimeUtils.toLeft(elem);
-//			}
-			if(comp.compare(elem, e1) == 0) {
+			if(DataHasher.equal(elem, e1)) {
 				return new JsonPrimitive(true);
 			}
 		}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.google.gson.*;
+
+/**
+ * An index of a bag of branded values (typically the <i>WORLD</i>) by brand: for each brand,
+ * the positions in the bag of the values which can be cast to it, i.e., the values of that
+ * class and of its sub-classes, in the order of the bag.
+ *
+ * A value is in the positions of each of its ancestors, so the index takes one int per value
+ * and ancestor.  The bag is only weakly referenced: the index does not keep the bag, or its
+ * values, from being collected, and it must only be used while the bag is otherwise reachable.
+ */
+public final class BrandIndex {
+	private final Inheritance inheritance;
+	private final WeakReference<JsonArray> bag;
+	// the positions of the values of each brand, by brand id
+	private final int[][] instances;
+
+	/**
+	 * @param inheritance the brand hierarchy
+	 * @param bag a bag of branded values
+	 */
+	public BrandIndex(Inheritance inheritance, JsonArray bag) {
+		this.inheritance = inheritance;
+		this.bag = new WeakReference<JsonArray>(bag);
+		final long[][] ancestors = new long[bag.size()][];
+		int brands = 0;
+		for(int pos = 0; pos < ancestors.length; pos++) {
+			ancestors[pos] = inheritance.ancestors(bag.get(pos).getAsJsonObject().get("$class").getAsJsonArray());
+			brands = Math.max(brands, ancestors[pos].length << 6);
+		}
+		// count the values of each brand, then fill in their positions
+		final int[] counts = new int[brands];
+		for(long[] bits : ancestors) {
+			for(int i = 0; i < bits.length; i++) {
+				for(long word = bits[i]; word != 0; word &= word - 1) {
+					counts[(i << 6) + Long.numberOfTrailingZeros(word)]++;
+				}
+			}
+		}
+		instances = new int[brands][];
+		for(int brand = 0; brand < brands; brand++) {
+			if(counts[brand] > 0) {
+				instances[brand] = new int[counts[brand]];
+				counts[brand] = 0;
+			}
+		}
+		for(int pos = 0; pos < ancestors.length; pos++) {
+			final long[] bits = ancestors[pos];
+			for(int i = 0; i < bits.length; i++) {
+				for(long word = bits[i]; word != 0; word &= word - 1) {
+					final int brand = (i << 6) + Long.numberOfTrailingZeros(word);
+					instances[brand][counts[brand]++] = pos;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the indexed bag, or null if it has been collected
+	 */
+	public JsonArray getBag() {
+		return bag.get();
+	}
+
+	/**
+	 * @param brands some brands
+	 * @return the values of the bag which can be cast to the brands (with no brands, the bag itself, which must not be modified)
+	 */
+	public JsonArray get(Collection<String> brands) {
+		final JsonArray values = bag.get();
+		if(values == null) {
+			throw new IllegalStateException("The indexed bag has been collected");
+		}
+		final Iterator<String> it = brands.iterator();
+		if(! it.hasNext()) {
+			return values;
+		}
+		final int brand = inheritance.intern(it.next());
+		final int[] positions = brand < instances.length ? instances[brand] : null;
+		final JsonArray dst = new JsonArray();
+		if(positions == null) {
+			return dst;
+		}
+		final boolean several = it.hasNext();
+		for(int pos : positions) {
+			final JsonElement elem = values.get(pos);
+			// Casts to several brands: filter the values of the first one
+			if(! several || inheritance.isAssignableFrom(brands, elem.getAsJsonObject().get("$class").getAsJsonArray())) {
+				dst.add(elem);
+			}
+		}
+		return dst;
+	}
+}
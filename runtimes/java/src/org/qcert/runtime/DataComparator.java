@@ -14,23 +14,58 @@
 
 package org.qcert.runtime;
 
+import java.math.BigDecimal;
 import java.time.DateTimeException;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.google.gson.*;
 import com.google.gson.internal.LazilyParsedNumber;
 
+/**
+ * Total order on data.
+ * 
+ * Records are compared on their sorted keys, then on the values in key order,
+ * and collections are compared as sorted sequences.  A caching comparator
+ * (see {@link #newCachingComparator()}) computes these canonical forms once
+ * per value and remembers them in an identity-keyed side table, so that
+ * repeated comparisons of the same values (e.g., while sorting) do not
+ * allocate.  The shared comparator returned by {@link #getComparator()}
+ * keeps no state: it compares records whose fields are already in key
+ * order (as are those built by the runtime) in place, and computes the
+ * canonical forms of other values for each comparison.
+ */
 public final class DataComparator implements Comparator<JsonElement> {
 
-	private DataComparator() {
+	/* The comparisons of values, including those of the values nested in records and collections (when profiling) */
+	private static final LongAdder comparisons = Profiler.ENABLED ? Profiler.counter("DataComparator.compare") : null;
+	/* The comparisons of records and collections (when profiling) */
+	private static final LongAdder nestedComparisons = Profiler.ENABLED ? Profiler.counter("DataComparator.compareNested") : null;
+
+	private DataComparator(boolean caching) {
+		this.canonical = caching ? new IdentityHashMap<JsonElement, Object>() : null;
 	}
-	
-	private enum DType {
+
+	/* canonical forms of the records and collections compared so far (caching mode only) */
+	private final IdentityHashMap<JsonElement, Object> canonical;
+
+	/* A record, with its keys sorted and the values in the same order */
+	private static final class CanonicalRec {
+		CanonicalRec(String[] keys, JsonElement[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		final String[] keys;
+		final JsonElement[] values;
+	}
+
+	enum DType {
 		// java null
 		DT_JNULL,
 		// JsonNull
@@ -47,7 +82,7 @@ public final class DataComparator implements Comparator<JsonElement> {
 	}
 		
 	
-	private static DType getType(JsonElement obj) {
+	static DType getType(JsonElement obj) {
 		if(obj == null) {
 			return DType.DT_JNULL;
 		} else if(obj.isJsonNull()) {
@@ -82,64 +117,108 @@ public final class DataComparator implements Comparator<JsonElement> {
 		}	
 	}
 
-	private static TreeMap<String, JsonElement> recToTreeMap(JsonObject obj) {
-		final TreeMap<String, JsonElement> dst = new TreeMap<String, JsonElement>();
+	private static CanonicalRec mkCanonicalRec(JsonObject obj) {
+		final String[] keys = new String[obj.size()];
+		int i = 0;
 		for(Entry<String, JsonElement> entry : obj.entrySet()) {
-			dst.put(entry.getKey(), entry.getValue());
+			keys[i++] = entry.getKey();
+		}
+		Arrays.sort(keys);
+		final JsonElement[] values = new JsonElement[keys.length];
+		for(i = 0; i < keys.length; i++) {
+			values[i] = obj.get(keys[i]);
 		}
-		return dst;		
+		return new CanonicalRec(keys, values);
 	}
-	
-	private static int compareKeys (Iterator<String> keys1, Iterator<String> keys2) {
-		while(keys1.hasNext()) {
-			if(! keys2.hasNext()) {
-				return 1;
+
+	private CanonicalRec canonicalRec(JsonObject obj) {
+		if(canonical == null) {
+			return mkCanonicalRec(obj);
+		}
+		CanonicalRec rec = (CanonicalRec) canonical.get(obj);
+		if(rec == null) {
+			rec = mkCanonicalRec(obj);
+			canonical.put(obj, rec);
+		}
+		return rec;
+	}
+
+	private JsonElement[] canonicalColl(JsonArray coll) {
+		JsonElement[] arr = canonical == null ? null : (JsonElement[]) canonical.get(coll);
+		if(arr == null) {
+			arr = RuntimeUtils.collAsArray(coll);
+			Arrays.sort(arr, this);
+			if(canonical != null) {
+				canonical.put(coll, arr);
 			}
-			String k1 = keys1.next();
-			String k2 = keys2.next();
-			int kcompare = k1.compareTo(k2);
+		}
+		return arr;
+	}
+
+	/* Whether the fields of a record are in (strictly ascending) key order */
+	private static boolean isSorted(JsonObject obj) {
+		String last = null;
+		for(Entry<String, JsonElement> entry : obj.entrySet()) {
+			if(last != null && last.compareTo(entry.getKey()) >= 0) {
+				return false;
+			}
+			last = entry.getKey();
+		}
+		return true;
+	}
+
+	/* Compares records of the same size whose fields are in key order, keys first */
+	private int compareSorted(JsonObject o1, JsonObject o2) {
+		Iterator<Entry<String, JsonElement>> iter1 = o1.entrySet().iterator();
+		Iterator<Entry<String, JsonElement>> iter2 = o2.entrySet().iterator();
+		while(iter1.hasNext()) {
+			final int kcompare = iter1.next().getKey().compareTo(iter2.next().getKey());
 			if(kcompare != 0) {
 				return kcompare;
 			}
 		}
-		if(keys2.hasNext()) {
-			return -1;
-		} else {
-			return 0;
+		// they have identical keys
+		iter1 = o1.entrySet().iterator();
+		iter2 = o2.entrySet().iterator();
+		while(iter1.hasNext()) {
+			final int elemcomp = compare(iter1.next().getValue(), iter2.next().getValue());
+			if(elemcomp != 0) {
+				return elemcomp;
+			}
 		}
+		return 0;
 	}
-	
+
 	/*
 	 * We need the comparison to be transitive, which makes this a bit tricky.
-	 * We could probably do this without the intermediate map,
-	 * but this is simpler and suffices for now.
+	 * It is important for transitivity that the keys are compared first, 
+	 * in sorted order, which the canonical form does for us.
 	 */
 	public int compare(JsonObject o1, JsonObject o2) {
 		final int sizeCompare = Integer.compare(o1.size(), o2.size());
 		if(sizeCompare != 0) {
 			return sizeCompare;
 		}
-		
-		TreeMap<String, JsonElement> map1 = recToTreeMap(o1);
-		TreeMap<String, JsonElement> map2 = recToTreeMap(o2);
-		
-		// it is important for transitivity that the keys are sorted first, 
-		// which the TreeMap does for us
-		final int keyComp = compareKeys(map1.keySet().iterator(), map2.keySet().iterator());
-		if(keyComp != 0) {
-			return keyComp;
-		} else {
-			// they have identical keys
+		if(canonical == null && isSorted(o1) && isSorted(o2)) {
+			return compareSorted(o1, o2);
+		}
+
+		final CanonicalRec rec1 = canonicalRec(o1);
+		final CanonicalRec rec2 = canonicalRec(o2);
+		final String[] keys1 = rec1.keys;
+		final String[] keys2 = rec2.keys;
+		for(int i = 0; i < keys1.length; i++) {
+			final int kcompare = keys1[i].compareTo(keys2[i]);
+			if(kcompare != 0) {
+				return kcompare;
+			}
 		}
+		// they have identical keys
 		
-		Iterator<Entry<String, JsonElement>> iter1 = map1.entrySet().iterator();
-		Iterator<Entry<String, JsonElement>> iter2 = map2.entrySet().iterator();
-		while(iter1.hasNext()) {
-			assert(iter2.hasNext());
-			Entry<String, JsonElement> entry1 = iter1.next();
-			Entry<String, JsonElement> entry2 = iter2.next();
-			assert(entry1.getKey().equals(entry2.getKey()));
-			int elemcomp = this.compare(entry1.getValue(), entry2.getValue());
+		final JsonElement[] values1 = rec1.values;
+		final JsonElement[] values2 = rec2.values;
+		for(int i = 0; i < values1.length; i++) {
+			final int elemcomp = compare(values1[i], values2[i]);
 			if(elemcomp != 0) {
 				return elemcomp;
 			}
@@ -155,12 +234,9 @@ public final class DataComparator implements Comparator<JsonElement> {
 		if(sizeCompare != 0) {
 			return sizeCompare;
 		}
-
 		// the lengths are equal
-		final JsonElement[] arr1 = RuntimeUtils.collAsArray(o1);
-		final JsonElement[] arr2 = RuntimeUtils.collAsArray(o2);
-		Arrays.sort(arr1, this);
-		Arrays.sort(arr2, this);
+		final JsonElement[] arr1 = canonicalColl(o1);
+		final JsonElement[] arr2 = canonicalColl(o2);
 		for(int i = 0; i < arr1.length; i ++) {
 			final JsonElement elem1 = arr1[i];
 			final JsonElement elem2 = arr2[i];
@@ -177,6 +253,9 @@ public final class DataComparator implements Comparator<JsonElement> {
 	 */
 	@Override
 	public int compare(JsonElement o1, JsonElement o2) {
+		if(Profiler.ENABLED) {
+			comparisons.increment();
+		}
 		// short-circuit in this case
 		if(o1 == o2) {
 			return 0;
@@ -189,10 +268,9 @@ public final class DataComparator implements Comparator<JsonElement> {
 		if (typ1 == DType.DT_LAZYNUM) {
 		    switch (typ2) {
 		    case DT_LONG:
-		        return Long.compare(o1.getAsLong(),o2.getAsLong());
+			return compareLazyNum(o1, o2.getAsLong());
 		    case DT_BOXED_LONG:
- 	 	        return Long.compare(((JsonObject) o1).get("$nat").getAsLong(),
-					    ((JsonObject) o2).get("$nat").getAsLong());
+			return compareLazyNum(o1, ((JsonObject) o2).get("$nat").getAsLong());
 		    case DT_DOUBLE:
 			return Double.compare(o1.getAsDouble(), o2.getAsDouble());
 		    case DT_LAZYNUM:
@@ -204,10 +282,9 @@ public final class DataComparator implements Comparator<JsonElement> {
 		} else if (typ2 == DType.DT_LAZYNUM) {
 		    switch (typ1) {
 		    case DT_LONG:
-		        return Long.compare(o1.getAsLong(),o2.getAsLong());
+			return - compareLazyNum(o2, o1.getAsLong());
 		    case DT_BOXED_LONG:
- 	 	        return Long.compare(((JsonObject) o1).get("$nat").getAsLong(),
-					    ((JsonObject) o2).get("$nat").getAsLong());
+			return - compareLazyNum(o2, ((JsonObject) o1).get("$nat").getAsLong());
 		    case DT_DOUBLE:
 			return Double.compare(o1.getAsDouble(), o2.getAsDouble());
 		    }
@@ -254,8 +331,14 @@ public final class DataComparator implements Comparator<JsonElement> {
 		case DT_DOUBLE:
 			return Double.compare(o1.getAsDouble(), o2.getAsDouble());
 		case DT_COLL:
+			if(Profiler.ENABLED) {
+				nestedComparisons.increment();
+			}
 			return compare(o1.getAsJsonArray(), o2.getAsJsonArray());
 		case DT_REC:
+			if(Profiler.ENABLED) {
+				nestedComparisons.increment();
+			}
 			return compare(o1.getAsJsonObject(), o2.getAsJsonObject());
 		default:
 			// We should never get here.
@@ -265,10 +348,38 @@ public final class DataComparator implements Comparator<JsonElement> {
 		}
 	}
 	
+	/*
+	 * Compares a lazily parsed number with a long on their exact values
+	 * (rather than truncating the number, so that 1.5 and 1 differ).
+	 * DataHasher relies on this to hash both through their double value.
+	 */
+	static int compareLazyNum(JsonElement lazy, long l) {
+		final String str = lazy.getAsString();
+		try {
+			return Long.compare(Long.parseLong(str), l);
+		} catch(NumberFormatException e) {
+			return new BigDecimal(str).compareTo(BigDecimal.valueOf(l));
+		}
+	}
+
+	/**
+	 * @return the shared (stateless, thread-safe) comparator
+	 */
 	public static DataComparator getComparator() {
 		return comparator;
 	}
 	
-	private static final DataComparator comparator = new DataComparator();
+	/**
+	 * Creates a comparator which remembers the canonical form of every record and
+	 * collection it compares.  Values are assumed to be immutable while it is in use.
+	 * It is not thread-safe, and it keeps the values it compared reachable, so it 
+	 * should be scoped to a single operation (such as a sort).
+	 * @return a new caching comparator
+	 */
+	public static DataComparator newCachingComparator() {
+		return new DataComparator(true);
+	}
+	
+	private static final DataComparator comparator = new DataComparator(false);
 	
 }
@@ -0,0 +1,267 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.time.DateTimeException;
+import java.time.ZonedDateTime;
+import java.util.Map.Entry;
+
+import org.qcert.runtime.DataComparator.DType;
+
+import com.google.gson.*;
+
+/**
+ * Structural hashing and equality of data.
+ *
+ * Both agree with the equality induced by {@link DataComparator}:
+ * two values are equal exactly when they compare as 0, and equal values
+ * have the same hash.  Records are hashed and compared independently of
+ * the order of their fields, collections independently of the order of
+ * their elements, and boxed nats on their value.
+ * Unlike the comparator, neither needs to build sorted copies of
+ * records or collections.
+ */
+public final class DataHasher {
+
+	private DataHasher() {
+	}
+
+	private static final int NULL_HASH = 0x9e3779b9;
+	private static final int TRUE_HASH = 1231;
+	private static final int FALSE_HASH = 1237;
+	private static final int REC_SEED = 0x52454321;
+	private static final int COLL_SEED = 0x434f4c4c;
+
+	/**
+	 * Spreads the bits of a hash, so that commutative combinations
+	 * (sums) of element hashes do not collide too easily.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/*
+	 * All numbers (boxed nats included) are hashed through their double value:
+	 * the comparator considers a lazily parsed number equal to a long, a boxed
+	 * nat or a double with the same exact value, and equal values have the same
+	 * nearest double.
+	 */
+	private static int hashNumber(double d) {
+		if(d == 0.0d) {
+			return 0;
+		}
+		return Double.hashCode(d);
+	}
+
+	/*
+	 * The comparator compares two strings which both parse as dates
+	 * as instants, so those are hashed through their instant.
+	 * The check on the shape of the string is only there to avoid
+	 * attempting to parse every string.
+	 */
+	private static boolean mayBeDate(String str) {
+		return str.length() >= 16
+				&& str.charAt(4) == '-'
+				&& str.charAt(7) == '-'
+				&& str.charAt(10) == 'T';
+	}
+
+	private static int hashString(String str) {
+		if(mayBeDate(str)) {
+			try {
+				return ZonedDateTime.parse(str).toInstant().hashCode();
+			} catch(DateTimeException e) {
+				// not a date after all
+			}
+		}
+		return str.hashCode();
+	}
+
+	private static int hash(JsonPrimitive prim) {
+		if(prim.isBoolean()) {
+			return prim.getAsBoolean() ? TRUE_HASH : FALSE_HASH;
+		} else if(prim.isString()) {
+			return hashString(prim.getAsString());
+		} else if(prim.isNumber()) {
+			return hashNumber(prim.getAsNumber().doubleValue());
+		} else {
+			throw new RuntimeException("Unknown primitive json type: " + prim);
+		}
+	}
+
+	private static int hash(JsonObject obj) {
+		final JsonElement nat = obj.get("$nat");
+		if(nat != null) {
+			// boxed nats are compared on their (long) value only
+			return hashNumber((double) nat.getAsLong());
+		}
+		int h = REC_SEED + obj.size();
+		for(Entry<String, JsonElement> entry : obj.entrySet()) {
+			h += mix(entry.getKey().hashCode() * 31 + hash(entry.getValue()));
+		}
+		return h;
+	}
+
+	private static int hash(JsonArray coll) {
+		int h = COLL_SEED + coll.size();
+		for(JsonElement elem : coll) {
+			h += mix(hash(elem));
+		}
+		return h;
+	}
+
+	/**
+	 * Computes the structural hash of a value.
+	 * @param e the value (may be null)
+	 * @return a hash compatible with {@link DataComparator}
+	 */
+	public static int hash(JsonElement e) {
+		if(e == null || e.isJsonNull()) {
+			return NULL_HASH;
+		} else if(e.isJsonPrimitive()) {
+			return hash(e.getAsJsonPrimitive());
+		} else if(e.isJsonArray()) {
+			return hash(e.getAsJsonArray());
+		} else if(e.isJsonObject()) {
+			return hash(e.getAsJsonObject());
+		} else {
+			throw new RuntimeException("Unknown json type: " + e + " of type " + e.getClass());
+		}
+	}
+
+	/* Collections up to this size are compared by a pairwise matching */
+	private static final int SMALL_COLL = 8;
+
+	/**
+	 * Structural equality.
+	 * @param e1 the first value (may be null)
+	 * @param e2 the second value (may be null)
+	 * @return true if the comparator would consider the values equal
+	 */
+	public static boolean equal(JsonElement e1, JsonElement e2) {
+		if(e1 == e2) {
+			return true;
+		}
+		final DType typ1 = DataComparator.getType(e1);
+		final DType typ2 = DataComparator.getType(e2);
+		if(typ1 == DType.DT_LAZYNUM || typ2 == DType.DT_LAZYNUM) {
+			return equalLazyNum(e1, typ1, e2, typ2);
+		}
+		if(typ1 != typ2) {
+			return false;
+		}
+		switch (typ1) {
+		case DT_JNULL:
+		case DT_NULL:
+			return true;
+		case DT_BOOL:
+			return e1.getAsBoolean() == e2.getAsBoolean();
+		case DT_STRING:
+			return equalString(e1.getAsString(), e2.getAsString());
+		case DT_LONG:
+			return e1.getAsLong() == e2.getAsLong();
+		case DT_BOXED_LONG:
+			return ((JsonObject) e1).get("$nat").getAsLong()
+					== ((JsonObject) e2).get("$nat").getAsLong();
+		case DT_DOUBLE:
+			return Double.compare(e1.getAsDouble(), e2.getAsDouble()) == 0;
+		case DT_COLL:
+			return equal(e1.getAsJsonArray(), e2.getAsJsonArray());
+		case DT_REC:
+			return equal(e1.getAsJsonObject(), e2.getAsJsonObject());
+		default:
+			return e1.toString().equals(e2.toString());
+		}
+	}
+
+	/* Mirrors the coercions performed by the comparator for lazily parsed numbers */
+	private static boolean equalLazyNum(JsonElement e1, DType typ1, JsonElement e2, DType typ2) {
+		final JsonElement lazy = typ1 == DType.DT_LAZYNUM ? e1 : e2;
+		final JsonElement other = typ1 == DType.DT_LAZYNUM ? e2 : e1;
+		switch (typ1 == DType.DT_LAZYNUM ? typ2 : typ1) {
+		case DT_LONG:
+			return DataComparator.compareLazyNum(lazy, other.getAsLong()) == 0;
+		case DT_BOXED_LONG:
+			return DataComparator.compareLazyNum(lazy, ((JsonObject) other).get("$nat").getAsLong()) == 0;
+		case DT_DOUBLE:
+			return Double.compare(e1.getAsDouble(), e2.getAsDouble()) == 0;
+		case DT_LAZYNUM:
+			return e1.getAsString().equals(e2.getAsString());
+		default:
+			return false;
+		}
+	}
+
+	private static boolean equalString(String str1, String str2) {
+		if(str1.equals(str2)) {
+			return true;
+		}
+		if(mayBeDate(str1) && mayBeDate(str2)) {
+			try {
+				return ZonedDateTime.parse(str1).toInstant().equals(ZonedDateTime.parse(str2).toInstant());
+			} catch(DateTimeException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static boolean equal(JsonObject rec1, JsonObject rec2) {
+		if(rec1.size() != rec2.size()) {
+			return false;
+		}
+		for(Entry<String, JsonElement> entry : rec1.entrySet()) {
+			final JsonElement val2 = rec2.get(entry.getKey());
+			if(val2 == null || ! equal(entry.getValue(), val2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equal(JsonArray coll1, JsonArray coll2) {
+		final int size = coll1.size();
+		if(size != coll2.size()) {
+			return false;
+		}
+		if(size <= SMALL_COLL) {
+			// match each element of coll1 with a distinct element of coll2
+			final boolean[] matched = new boolean[size];
+			OUTER: for(int i = 0; i < size; i++) {
+				final JsonElement elem1 = coll1.get(i);
+				for(int j = 0; j < size; j++) {
+					if(! matched[j] && equal(elem1, coll2.get(j))) {
+						matched[j] = true;
+						continue OUTER;
+					}
+				}
+				return false;
+			}
+			return true;
+		}
+		final DataMultiset ms1 = new DataMultiset(coll1);
+		for(final JsonElement elem2 : coll2) {
+			if(! ms1.remove(elem2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import com.google.gson.*;
+
+/**
+ * Wraps a value so that it can be used as a key in hash-based collections.
+ * Equality and hash are the structural ones of {@link DataHasher},
+ * and the hash is only computed once.
+ */
+public final class DataKey {
+	public DataKey(JsonElement value) {
+		this.value = value;
+		this.hash = DataHasher.hash(value);
+	}
+
+	public JsonElement getValue() {
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(! (obj instanceof DataKey)) {
+			return false;
+		}
+		final DataKey other = (DataKey) obj;
+		return hash == other.hash
+				&& DataHasher.equal(value, other.value);
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+
+	private final JsonElement value;
+	private final int hash;
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.*;
+
+/**
+ * A hash-based multiset of values, used to implement the bag operators
+ * in time linear in the size of their inputs.
+ * Elements are identified up to the equality of {@link DataComparator}.
+ */
+public final class DataMultiset {
+	public DataMultiset() {
+		this.counts = new HashMap<DataKey, int[]>();
+	}
+
+	public DataMultiset(JsonArray coll) {
+		this.counts = new HashMap<DataKey, int[]>(capacityFor(coll.size()));
+		addAll(coll);
+	}
+
+	private static int capacityFor(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+	/**
+	 * Adds one occurrence of a value
+	 * @param elem the value
+	 */
+	public void add(JsonElement elem) {
+		final DataKey key = new DataKey(elem);
+		final int[] count = counts.get(key);
+		if(count == null) {
+			counts.put(key, new int[] {1});
+		} else {
+			count[0]++;
+		}
+		size++;
+	}
+
+	public void addAll(JsonArray coll) {
+		for(final JsonElement elem : coll) {
+			add(elem);
+		}
+	}
+
+	/**
+	 * Removes one occurrence of a value, if there is one
+	 * @param elem the value
+	 * @return true if an occurrence was removed
+	 */
+	public boolean remove(JsonElement elem) {
+		final int[] count = counts.get(new DataKey(elem));
+		if(count == null || count[0] == 0) {
+			return false;
+		}
+		count[0]--;
+		size--;
+		return true;
+	}
+
+	/**
+	 * @param elem a value
+	 * @return the number of occurrences of the value
+	 */
+	public int count(JsonElement elem) {
+		final int[] count = counts.get(new DataKey(elem));
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @return some value with at least one occurrence, or null if the multiset is empty
+	 */
+	public JsonElement anyElement() {
+		if(size == 0) {
+			return null;
+		}
+		for(Map.Entry<DataKey, int[]> entry : counts.entrySet()) {
+			if(entry.getValue()[0] > 0) {
+				return entry.getKey().getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the total number of occurrences in the multiset
+	 */
+	public int size() {
+		return size;
+	}
+
+	private final Map<DataKey, int[]> counts;
+	private int size = 0;
+}
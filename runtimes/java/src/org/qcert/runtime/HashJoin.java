@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.google.gson.*;
+
+/**
+ * Implementation of equi-joins.
+ *
+ * A join iterates over the probe side and, for each of its elements, over the
+ * elements of the build side whose key is equal to its own key (in the
+ * order of the build side), concatenating the collections computed by the
+ * body for each matching pair.  This is the result of the nested loops
+ * <pre>
+ *   flatten(for x in probe { flatten(for y in build { if (kx(x) = ky(y)) then body(x, y) else {} }) })
+ * </pre>
+ * but the build side is hashed (once) on its keys, so that the join runs in linear time
+ * instead of comparing every pair.  If the hash table exceeds the memory budget, both
+ * sides are partitioned on their keys first (see {@link HashPartitions}), and joined
+ * partition by partition.
+ */
+public class HashJoin {
+	private HashJoin() {
+	}
+
+	/* Build sides up to this size are scanned, rather than hashed */
+	private static final int SMALL_BUILD = 8;
+
+	/**
+	 * Joins two collections on equality of their keys
+	 * @param probe the outer collection
+	 * @param build the inner collection
+	 * @param probeKey computes the key of an element of the outer collection
+	 * @param buildKey computes the key of an element of the inner collection
+	 * @param body computes the collection produced by a matching pair
+	 * @return the concatenation of the collections produced by the matching pairs
+	 */
+	public static JsonArray join(JsonArray probe, JsonArray build,
+			Function<JsonElement, JsonElement> probeKey,
+			Function<JsonElement, JsonElement> buildKey,
+			BiFunction<JsonElement, JsonElement, JsonElement> body) {
+		if(! Profiler.ENABLED) {
+			return joinAll(probe, build, probeKey, buildKey, body, 0);
+		}
+		final long start = System.nanoTime();
+		final JsonArray dst = joinAll(probe, build, probeKey, buildKey, body, 0);
+		Profiler.operator("hash_join", start, probe.size() + build.size(), dst.size());
+		return dst;
+	}
+
+	private static JsonArray joinAll(JsonArray probe, JsonArray build,
+			Function<JsonElement, JsonElement> probeKey,
+			Function<JsonElement, JsonElement> buildKey,
+			BiFunction<JsonElement, JsonElement, JsonElement> body,
+			int level) {
+		final JsonArray dst = new JsonArray();
+		if(probe.size() == 0 || build.size() == 0) {
+			return dst;
+		}
+		if(build.size() <= SMALL_BUILD) {
+			final JsonElement[] keys = new JsonElement[build.size()];
+			for(int i = 0; i < keys.length; i++) {
+				keys[i] = buildKey.apply(build.get(i));
+			}
+			for(final JsonElement x : probe) {
+				final JsonElement kx = probeKey.apply(x);
+				for(int i = 0; i < keys.length; i++) {
+					if(DataHasher.equal(kx, keys[i])) {
+						dst.addAll(body.apply(x, build.get(i)).getAsJsonArray());
+					}
+				}
+			}
+			return dst;
+		}
+		final HashMap<DataKey, List<JsonElement>> table = buildTable(build, buildKey, level);
+		if(table == null) {
+			return joinPartitioned(probe, build, probeKey, buildKey, body, level);
+		}
+		for(final JsonElement x : probe) {
+			final List<JsonElement> matches = table.get(new DataKey(probeKey.apply(x)));
+			if(matches != null) {
+				for(final JsonElement y : matches) {
+					dst.addAll(body.apply(x, y).getAsJsonArray());
+				}
+			}
+		}
+		return dst;
+	}
+
+	/* The build side, hashed on its keys (or null if the table exceeds the memory budget, and can be partitioned) */
+	private static HashMap<DataKey, List<JsonElement>> buildTable(JsonArray build, Function<JsonElement, JsonElement> buildKey, int level) {
+		final long budget = MemoryBudget.get();
+		final HashMap<DataKey, List<JsonElement>> table = new HashMap<DataKey, List<JsonElement>>();
+		long size = 0;
+		for(final JsonElement y : build) {
+			final DataKey key = new DataKey(buildKey.apply(y));
+			List<JsonElement> bucket = table.get(key);
+			if(bucket == null) {
+				bucket = new ArrayList<JsonElement>(1);
+				table.put(key, bucket);
+				size += MemoryBudget.ENTRY_SIZE + MemoryBudget.estimateSize(key.getValue());
+			}
+			// the buckets refer to the elements, which are not copied
+			bucket.add(y);
+			size += MemoryBudget.REFERENCE_SIZE;
+			if(size > budget && HashPartitions.canPartition(level)) {
+				return null;
+			}
+		}
+		return table;
+	}
+
+	private static JsonArray joinPartitioned(JsonArray probe, JsonArray build,
+			Function<JsonElement, JsonElement> probeKey,
+			Function<JsonElement, JsonElement> buildKey,
+			BiFunction<JsonElement, JsonElement, JsonElement> body,
+			int level) {
+		final HashPartitions probePartitions = new HashPartitions(level);
+		final HashPartitions buildPartitions = new HashPartitions(level);
+		for(final JsonElement x : probe) {
+			probePartitions.add(DataHasher.hash(probeKey.apply(x)), x);
+		}
+		for(final JsonElement y : build) {
+			buildPartitions.add(DataHasher.hash(buildKey.apply(y)), y);
+		}
+		final JsonArray dst = new JsonArray();
+		for(int p = 0; p < HashPartitions.FANOUT; p++) {
+			dst.addAll(joinAll(probePartitions.take(p), buildPartitions.take(p), probeKey, buildKey, body, level + 1));
+		}
+		return dst;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.*;
+
+/**
+ * The partitions, by hash, of the inputs of a hash-based operator whose hash table would
+ * exceed the {@link MemoryBudget}.
+ *
+ * The operator adds each element of its inputs to the partition of its hash (of its key,
+ * for a join or a group-by), then evaluates itself on each partition in turn, so that it only
+ * needs the hash table of one partition at a time.  Equal keys are in the same partition, so
+ * the result is the union of the results on the partitions (in a different order than the
+ * result in memory).  The inputs are in memory already, so the partitions hold references to
+ * their elements (not copies).  An operator which still exceeds the budget on a partition
+ * partitions it again, on other bits of the hash, up to {@link #MAX_LEVEL} times, after which
+ * it runs regardless (e.g., when most of the elements have the same key).
+ */
+final class HashPartitions {
+	/** The number of partitions */
+	static final int FANOUT = 16;
+	private static final int FANOUT_BITS = 4;
+	/** The maximum number of nested partitionings */
+	static final int MAX_LEVEL = 32 / FANOUT_BITS - 1;
+
+	private static final LongAdder partitioned = Profiler.ENABLED ? Profiler.counter("HashPartitions.partitioned") : null;
+
+	/**
+	 * @param level the number of partitionings of the input so far
+	 */
+	HashPartitions(int level) {
+		this.level = level;
+		if(Profiler.ENABLED) {
+			partitioned.increment();
+		}
+	}
+
+	private final int level;
+	private final JsonArray[] partitions = new JsonArray[FANOUT];
+
+	/**
+	 * @param level the number of partitionings of the input so far
+	 * @return whether the input of an operator can be partitioned (again)
+	 */
+	static boolean canPartition(int level) {
+		return level < MAX_LEVEL;
+	}
+
+	/* Spreads the bits of the hash (which may be a sum of hashes), then picks those of the level */
+	private int partition(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return (hash >>> (level * FANOUT_BITS)) & (FANOUT - 1);
+	}
+
+	/**
+	 * Adds an element to a partition
+	 * @param hash the hash of (the key of) the element
+	 * @param elem the element
+	 */
+	void add(int hash, JsonElement elem) {
+		final int p = partition(hash);
+		if(partitions[p] == null) {
+			partitions[p] = new JsonArray();
+		}
+		partitions[p].add(elem);
+	}
+
+	/**
+	 * Removes a partition, so that it can be reclaimed once processed
+	 * @param p a partition
+	 * @return its elements
+	 */
+	JsonArray take(int p) {
+		final JsonArray dst = partitions[p];
+		partitions[p] = null;
+		return dst == null ? new JsonArray() : dst;
+	}
+}
@@ -14,62 +14,260 @@
 
 package org.qcert.runtime;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.*;
 
+/**
+ * The brand hierarchy, for casts.
+ *
+ * Brand names are interned to integer ids, and the (reflexive and transitive) closure of
+ * the hierarchy is computed once, as a bitset of the ancestors of each brand.  The bitsets
+ * of the brands required by casts and of the ancestors of the brands of values are cached
+ * for each distinct collection of brands, so that a cast usually costs two hash lookups and
+ * a few word operations.  Brands which do not occur in the hierarchy are interned when they
+ * are first seen, as their own only ancestor.
+ *
+ * Instances are safe for use by several threads.
+ */
 public class Inheritance {
+	/**
+	 * @param h a Map from classes to (some of) their ancestors
+	 */
 	public Inheritance(Map<String, Set<String>> h) {
-		this.inheritance = h;
+		for(Map.Entry<String, Set<String>> entry : h.entrySet()) {
+			final int sub = intern(entry.getKey());
+			for(String sup : entry.getValue()) {
+				addParent(sub, intern(sup));
+			}
+		}
+		this.closure = mkClosure();
 	}
 
+	/**
+	 * @param h an array of objects with members <i>sub</i> and <i>sup</i>, the sub-class and one of its ancestors
+	 */
 	public Inheritance(JsonArray h) {
-		this.inheritance = mkInheritance(h);
-	}
-
-	private static Map<String, Set<String>> mkInheritance(JsonArray h) {
-		final Map<String, Set<String>> res = new HashMap<String, Set<String>>();
 		for(int i = 0; i < h.size(); i ++) {
 			final JsonObject elem = h.get(i).getAsJsonObject();
-			final String sub = elem.get("sub").getAsString();
-			final String sup = elem.get("sup").getAsString();
-			Set<String> parentSet = res.get(sub);
-			if(parentSet == null) {
-				parentSet = new HashSet<String>();
-				res.put(sub, parentSet);
+			final int sub = intern(elem.get("sub").getAsString());
+			final int sup = intern(elem.get("sup").getAsString());
+			addParent(sub, sup);
+		}
+		this.closure = mkClosure();
+	}
+
+	/* The id of a brand, interning it if need be */
+	int intern(String brand) {
+		Integer id = ids.get(brand);
+		if(id == null) {
+			synchronized(ids) {
+				id = ids.get(brand);
+				if(id == null) {
+					id = ids.size();
+					ids.put(brand, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	private void addParent(int sub, int sup) {
+		Set<Integer> supSet = parents.get(sub);
+		if(supSet == null) {
+			supSet = new HashSet<Integer>();
+			parents.put(sub, supSet);
+		}
+		supSet.add(sup);
+	}
+
+	/* The ancestors of each brand of the hierarchy, itself included */
+	private long[][] mkClosure() {
+		final int count = ids.size();
+		final long[][] dst = new long[count][];
+		for(int brand = 0; brand < count; brand++) {
+			final long[] ancestors = new long[words(count)];
+			final List<Integer> todo = new ArrayList<Integer>();
+			todo.add(brand);
+			while(! todo.isEmpty()) {
+				final int next = todo.remove(todo.size() - 1);
+				if(! test(ancestors, next)) {
+					set(ancestors, next);
+					final Set<Integer> supSet = parents.get(next);
+					if(supSet != null) {
+						todo.addAll(supSet);
+					}
+				}
+			}
+			dst[brand] = ancestors;
+		}
+		return dst;
+	}
+
+	private static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	private static boolean test(long[] bits, int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private static void set(long[] bits, int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	/* The brands themselves, as a bitset */
+	private long[] required(Collection<String> brands) {
+		final List<String> key = brands instanceof List ? (List<String>) brands : new ArrayList<String>(brands);
+		long[] bits = required.get(key);
+		if(bits == null) {
+			final int[] brandIds = new int[brands.size()];
+			int max = 0;
+			int i = 0;
+			for(String brand : brands) {
+				brandIds[i] = intern(brand);
+				max = Math.max(max, brandIds[i++] + 1);
+			}
+			bits = new long[words(max)];
+			for(int brand : brandIds) {
+				set(bits, brand);
+			}
+			required.put(new ArrayList<String>(key), bits);
+		}
+		return bits;
+	}
+
+	/* The union of the ancestors of the brands */
+	private long[] ancestors(Iterable<String> brands) {
+		final List<long[]> all = new ArrayList<long[]>();
+		int length = 0;
+		for(String brand : brands) {
+			final int id = intern(brand);
+			final long[] bits;
+			if(id < closure.length) {
+				bits = closure[id];
+			} else {
+				// a brand which does not occur in the hierarchy
+				bits = new long[words(id + 1)];
+				set(bits, id);
+			}
+			all.add(bits);
+			length = Math.max(length, bits.length);
+		}
+		final long[] dst = new long[length];
+		for(long[] bits : all) {
+			for(int i = 0; i < bits.length; i++) {
+				dst[i] |= bits[i];
+			}
+		}
+		return dst;
+	}
+
+	private long[] ancestors(Collection<String> brands) {
+		final List<String> key = brands instanceof List ? (List<String>) brands : new ArrayList<String>(brands);
+		long[] bits = collectionAncestors.get(key);
+		if(bits == null) {
+			bits = ancestors((Iterable<String>) brands);
+			collectionAncestors.put(new ArrayList<String>(key), bits);
+		}
+		return bits;
+	}
+
+	/* The union of the ancestors of the brands of a value (the bitset must not be modified) */
+	long[] ancestors(JsonArray brands) {
+		long[] bits = arrayAncestors.get(brands);
+		if(bits == null) {
+			final List<String> names = new ArrayList<String>(brands.size());
+			final JsonArray key = new JsonArray();
+			for(JsonElement brand : brands) {
+				names.add(brand.getAsString());
+				key.add(brand);
 			}
-			parentSet.add(sup);
+			bits = ancestors(names);
+			arrayAncestors.put(key, bits);
 		}
-		return res;
+		return bits;
+	}
+
+	private static boolean isSubset(long[] sub, long[] sup) {
+		for(int i = 0; i < sub.length; i++) {
+			final long word = i < sup.length ? sup[i] : 0L;
+			if((sub[i] & ~word) != 0) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * returns true if the child can be safely cast to the parent 
+	 * returns true if the child can be safely cast to the parent, i.e., if each parent brand is an ancestor of one of the child brands
 	 * @param parent the "Parent" brands
 	 * @param child the "Child" brands
 	 * @return
 	 */
 	public boolean isAssignableFrom(Collection<String> parent, Collection<String> child) {
-		PARENT: for (final String oneparent : parent) {
-			for(String onechild : child) {
-				if(onechild.equals(oneparent)) {
-					continue PARENT;
-				}
-				Set<String> childsParents = inheritance.get(onechild);
-				if(childsParents != null && childsParents.contains(oneparent)) {
-					continue PARENT;
+		return isSubset(required(parent), ancestors(child));
+	}
+
+	/**
+	 * returns true if the child can be safely cast to the parent, i.e., if each parent brand is an ancestor of one of the child brands
+	 * @param parent the "Parent" brands
+	 * @param child the "Child" brands, as found in the <i>$class</i> member of branded values
+	 * @return
+	 */
+	public boolean isAssignableFrom(Collection<String> parent, JsonArray child) {
+		return isSubset(required(parent), ancestors(child));
+	}
+
+	/**
+	 * The values of a bag which can be cast to some brands, as by {@link UnaryOperators#cast(Inheritance, Collection, JsonElement)}.
+	 *
+	 * The second time it is given the same bag (usually the <i>WORLD</i>, for a cast in each rule),
+	 * the hierarchy indexes it by brand (see {@link BrandIndex}), and the following calls with that
+	 * bag are index lookups.  Only the last such bag is indexed; other bags are filtered.  Neither
+	 * the indexed bag nor the last bag seen are kept from being collected once the query is done.
+	 * @param brands the brands
+	 * @param bag a bag of branded values
+	 * @return the values which can be cast to the brands (the bag must not be modified)
+	 */
+	public JsonArray instances(Collection<String> brands, JsonArray bag) {
+		BrandIndex current = index;
+		if(current == null || current.getBag() != bag) {
+			if(indexCandidate.get() != bag) {
+				indexCandidate = new WeakReference<JsonArray>(bag);
+				final JsonArray dst = new JsonArray();
+				for(JsonElement elem : bag) {
+					if(isAssignableFrom(brands, elem.getAsJsonObject().get("$class").getAsJsonArray())) {
+						dst.add(elem);
+					}
 				}
+				return dst;
 			}
-			// if no child claims this parent as an ancestor, then we return false
-			return false;
+			current = new BrandIndex(this, bag);
+			index = current;
 		}
-	return true;
+		return current.get(brands);
 	}
 
-	// maps children to parents
-	private Map<String, Set<String>> inheritance;
+	// interns brands
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	// maps children to parents, by id (only used to compute the closure)
+	private final Map<Integer, Set<Integer>> parents = new HashMap<Integer, Set<Integer>>();
+	// maps the ids of the brands of the hierarchy to their ancestors
+	private final long[][] closure;
+	// caches
+	private final Map<List<String>, long[]> required = new ConcurrentHashMap<List<String>, long[]>();
+	private final Map<List<String>, long[]> collectionAncestors = new ConcurrentHashMap<List<String>, long[]>();
+	private final Map<JsonArray, long[]> arrayAncestors = new ConcurrentHashMap<JsonArray, long[]>();
+	// the index of the last indexed bag, and the last bag which was not indexed (both holding the bags weakly)
+	private volatile BrandIndex index;
+	private volatile WeakReference<JsonArray> indexCandidate = new WeakReference<JsonArray>(null);
 }
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits the calls recorded by the {@link Profiler} as Java Flight Recorder events
+ * (named <i>org.qcert.runtime.Profile</i>, with the kind and name of the operator
+ * or loop, its duration and its input and output cardinalities).
+ *
+ * The runtime is compiled for Java 8, which has no <code>jdk.jfr</code> API, so the
+ * event type is defined at run time, by reflection, with <code>jdk.jfr.EventFactory</code>.
+ */
+final class JfrSink {
+	private JfrSink(Object factory, Method newEvent, Method set, Method commit) {
+		this.factory = factory;
+		this.newEvent = newEvent;
+		this.set = set;
+		this.commit = commit;
+	}
+
+	private final Object factory;
+	private final Method newEvent;
+	private final Method set;
+	private final Method commit;
+
+	/**
+	 * @return a sink, or null if the JVM has no <code>jdk.jfr</code> API
+	 */
+	static JfrSink create() {
+		try {
+			final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			final Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+			final Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+			final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			final Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+			final Constructor<?> field = descriptorClass.getConstructor(Class.class, String.class);
+			final Constructor<?> annotatedField = descriptorClass.getConstructor(Class.class, String.class, List.class);
+
+			final List<Object> annotations = Arrays.asList(
+					annotation.newInstance(Class.forName("jdk.jfr.Name"), "org.qcert.runtime.Profile"),
+					annotation.newInstance(Class.forName("jdk.jfr.Label"), "Q*cert Operator"),
+					annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "Q*cert" }));
+			// The fields, in the order of emit's arguments
+			final List<Object> fields = Arrays.asList(
+					field.newInstance(String.class, "kind"),
+					field.newInstance(String.class, "name"),
+					annotatedField.newInstance(long.class, "time", Collections.singletonList(
+							annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"))),
+					field.newInstance(long.class, "inputs"),
+					field.newInstance(long.class, "outputs"));
+			final Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+			return new JfrSink(factory,
+					factoryClass.getMethod("newEvent"),
+					eventClass.getMethod("set", int.class, Object.class),
+					eventClass.getMethod("commit"));
+		} catch(ReflectiveOperationException | LinkageError e) {
+			System.err.println("Q*cert profiler: no JFR events, the JVM does not support them (" + e + ")");
+			return null;
+		}
+	}
+
+	void emit(String kind, String name, long nanos, long inputs, long outputs) {
+		try {
+			final Object event = newEvent.invoke(factory);
+			set.invoke(event, 0, kind);
+			set.invoke(event, 1, name);
+			set.invoke(event, 2, nanos);
+			set.invoke(event, 3, inputs);
+			set.invoke(event, 4, outputs);
+			commit.invoke(event);
+		} catch(ReflectiveOperationException e) {
+			throw new RuntimeException("Could not emit a JFR event", e);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled SQL LIKE pattern, in which <b>%</b> matches any string and <b>_</b> any character.
+ *
+ * Generated queries compile each of their patterns once, into a constant.  Matching uses
+ * no regular expression: the common forms of pattern (an exact string, a prefix, a suffix
+ * or an infix) are matched with the corresponding String method, other patterns without
+ * <b>_</b> by searching for their literal parts in order, and the remaining patterns by
+ * a (backtracking) scan of the string.
+ */
+public final class LikeMatcher {
+	private enum Kind {
+		EXACT, PREFIX, SUFFIX, CONTAINS, SEGMENTS, GENERAL, REGEX
+	}
+
+	/* The elements of a GENERAL pattern, other than characters */
+	private static final int ANY_CHAR = -1;
+	private static final int ANY_STRING = -2;
+
+	private final Kind kind;
+	/* The literal of EXACT, PREFIX, SUFFIX and CONTAINS patterns */
+	private final String literal;
+	/* The literals between the % of SEGMENTS patterns, and whether they start and end with a literal */
+	private final String[] segments;
+	private final boolean anchoredStart;
+	private final boolean anchoredEnd;
+	/* The characters and wildcards of GENERAL patterns */
+	private final int[] elements;
+	/* The regular expression of patterns made of clauses other than those of UnaryOperators */
+	private final Pattern regex;
+
+	private LikeMatcher(Kind kind, String literal, String[] segments, boolean anchoredStart, boolean anchoredEnd, int[] elements, Pattern regex) {
+		this.kind = kind;
+		this.literal = literal;
+		this.segments = segments;
+		this.anchoredStart = anchoredStart;
+		this.anchoredEnd = anchoredEnd;
+		this.elements = elements;
+		this.regex = regex;
+	}
+
+	/**
+	 * Compiles a pattern (there is no escape character)
+	 * @param pattern the LIKE pattern
+	 * @return the matcher
+	 */
+	public static LikeMatcher compile(String pattern) {
+		final int[] elements = new int[pattern.length()];
+		for(int i = 0; i < elements.length; i++) {
+			final char c = pattern.charAt(i);
+			elements[i] = c == '%' ? ANY_STRING : c == '_' ? ANY_CHAR : c;
+		}
+		return compile(elements);
+	}
+
+	/**
+	 * Compiles a pattern given as clauses, as by {@link UnaryOperators#string_like(UnaryOperators.LikeClause[], com.google.gson.JsonElement)}
+	 * @param clauses the clauses of the pattern
+	 * @return the matcher
+	 */
+	public static LikeMatcher of(UnaryOperators.LikeClause[] clauses) {
+		final List<Integer> codes = new ArrayList<Integer>();
+		for(UnaryOperators.LikeClause clause : clauses) {
+			if(clause instanceof UnaryOperators.LiteralLikeClause) {
+				final String literal = ((UnaryOperators.LiteralLikeClause) clause).getLiteral();
+				for(int i = 0; i < literal.length(); i++) {
+					codes.add((int) literal.charAt(i));
+				}
+			} else if(clause instanceof UnaryOperators.AnyCharLikeClause) {
+				codes.add(ANY_CHAR);
+			} else if(clause instanceof UnaryOperators.AnyStringLikeClause) {
+				codes.add(ANY_STRING);
+			} else {
+				// An unknown kind of clause: fall back to the regular expressions of the clauses
+				final StringBuilder regex = new StringBuilder();
+				for(UnaryOperators.LikeClause c : clauses) {
+					regex.append(c.getRegex());
+				}
+				return new LikeMatcher(Kind.REGEX, null, null, false, false, null, Pattern.compile(regex.toString()));
+			}
+		}
+		final int[] array = new int[codes.size()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = codes.get(i);
+		}
+		return compile(array);
+	}
+
+	private static LikeMatcher compile(int[] pattern) {
+		// Consecutive % are equivalent to one
+		int length = 0;
+		boolean anyChar = false;
+		for(int i = 0; i < pattern.length; i++) {
+			if(pattern[i] == ANY_STRING && length > 0 && pattern[length - 1] == ANY_STRING) {
+				continue;
+			}
+			anyChar |= pattern[i] == ANY_CHAR;
+			pattern[length++] = pattern[i];
+		}
+		final int[] elements = new int[length];
+		System.arraycopy(pattern, 0, elements, 0, length);
+		if(anyChar) {
+			return new LikeMatcher(Kind.GENERAL, null, null, false, false, elements, null);
+		}
+
+		// The literals between the %
+		final List<String> segments = new ArrayList<String>();
+		final StringBuilder segment = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			if(elements[i] == ANY_STRING) {
+				segments.add(segment.toString());
+				segment.setLength(0);
+			} else {
+				segment.append((char) elements[i]);
+			}
+		}
+		segments.add(segment.toString());
+		final boolean anchoredStart = length == 0 || elements[0] != ANY_STRING;
+		final boolean anchoredEnd = length == 0 || elements[length - 1] != ANY_STRING;
+		final int count = segments.size();
+		if(count == 1) {
+			return new LikeMatcher(Kind.EXACT, segments.get(0), null, true, true, null, null);
+		} else if(count == 2 && ! anchoredEnd) {
+			return new LikeMatcher(Kind.PREFIX, segments.get(0), null, true, false, null, null);
+		} else if(count == 2 && ! anchoredStart) {
+			return new LikeMatcher(Kind.SUFFIX, segments.get(1), null, false, true, null, null);
+		} else if(count == 3 && ! anchoredStart && ! anchoredEnd) {
+			return new LikeMatcher(Kind.CONTAINS, segments.get(1), null, false, false, null, null);
+		}
+		return new LikeMatcher(Kind.SEGMENTS, null, segments.toArray(new String[count]), anchoredStart, anchoredEnd, null, null);
+	}
+
+	/**
+	 * @param str a string
+	 * @return true if the whole string matches the pattern
+	 */
+	public boolean matches(String str) {
+		switch(kind) {
+		case EXACT:
+			return str.equals(literal);
+		case PREFIX:
+			return str.startsWith(literal);
+		case SUFFIX:
+			return str.endsWith(literal);
+		case CONTAINS:
+			return str.contains(literal);
+		case SEGMENTS:
+			return matchSegments(str);
+		case GENERAL:
+			return matchGeneral(str);
+		default:
+			return regex.matcher(str).matches();
+		}
+	}
+
+	/* Finds the literals in order, each as early as possible (which is always right when the only wildcard is %) */
+	private boolean matchSegments(String str) {
+		int first = 0;
+		int last = segments.length;
+		int position = 0;
+		if(anchoredStart) {
+			if(! str.startsWith(segments[0])) {
+				return false;
+			}
+			position = segments[0].length();
+			first = 1;
+		}
+		if(anchoredEnd) {
+			last--;
+		}
+		for(int i = first; i < last; i++) {
+			final int index = str.indexOf(segments[i], position);
+			if(index < 0) {
+				return false;
+			}
+			position = index + segments[i].length();
+		}
+		if(anchoredEnd) {
+			final String end = segments[segments.length - 1];
+			return str.length() - position >= end.length() && str.endsWith(end);
+		}
+		return true;
+	}
+
+	/* Matches characters and _ one by one, going back to the last % (matching one more character with it) on a mismatch */
+	private boolean matchGeneral(String str) {
+		final int length = str.length();
+		int s = 0;
+		int p = 0;
+		int star = -1;
+		int starMatch = 0;
+		while(s < length) {
+			if(p < elements.length && (elements[p] == ANY_CHAR || elements[p] == str.charAt(s))) {
+				s++;
+				p++;
+			} else if(p < elements.length && elements[p] == ANY_STRING) {
+				star = p++;
+				starMatch = s;
+			} else if(star >= 0) {
+				p = star + 1;
+				s = ++starMatch;
+			} else {
+				return false;
+			}
+		}
+		while(p < elements.length && elements[p] == ANY_STRING) {
+			p++;
+		}
+		return p == elements.length;
+	}
+}
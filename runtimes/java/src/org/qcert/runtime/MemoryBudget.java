@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.Map.Entry;
+
+import com.google.gson.*;
+
+/**
+ * The amount of memory (in bytes) that an operator may use for its working data before it
+ * partitions its inputs (the hash tables of joins, group-bys, distinct and the operators on
+ * bags, see {@link HashPartitions}).
+ *
+ * <p>There is no budget unless one is set, with the <b>qcert.runtime.memory.budget</b>
+ * system property or with {@link #set(long)}: workloads which fit in the heap should not pay
+ * for partitioning.  The partitions refer to the elements of the inputs, which are in memory
+ * already, so the budget bounds the hash tables of the operators, not the size of the data.
+ * The memory used by an operator is estimated with {@link #estimateSize(JsonElement)}
+ * and the constants below, which only need to be of the right order of magnitude.
+ */
+public final class MemoryBudget {
+	private MemoryBudget() {
+	}
+
+	/** The estimated memory used by an entry of a hash table, besides its key and value */
+	public static final long ENTRY_SIZE = 64;
+	/** The estimated memory used by a reference to a value held elsewhere */
+	public static final long REFERENCE_SIZE = 8;
+
+	private static volatile long budget = Long.getLong("qcert.runtime.memory.budget", Long.MAX_VALUE);
+
+	/**
+	 * @return the budget (Long.MAX_VALUE if there is none)
+	 */
+	public static long get() {
+		return budget;
+	}
+
+	/**
+	 * Sets the amount of memory (in bytes) an operator may use before partitioning its inputs
+	 * @param bytes the budget
+	 */
+	public static void set(long bytes) {
+		budget = bytes;
+	}
+
+	/**
+	 * (Roughly) estimates the memory used by a value, in bytes
+	 * @param e the value
+	 * @return the estimate
+	 */
+	public static long estimateSize(JsonElement e) {
+		if(e == null || e.isJsonNull()) {
+			return 0;
+		} else if(e.isJsonPrimitive()) {
+			final JsonPrimitive prim = e.getAsJsonPrimitive();
+			if(prim.isString()) {
+				return 56 + 2L * prim.getAsString().length();
+			} else {
+				return 32;
+			}
+		} else if(e.isJsonArray()) {
+			long size = 40;
+			for(JsonElement elem : e.getAsJsonArray()) {
+				size += 8 + estimateSize(elem);
+			}
+			return size;
+		} else {
+			long size = 64;
+			for(Entry<String, JsonElement> entry : e.getAsJsonObject().entrySet()) {
+				size += 64 + 2L * entry.getKey().length() + estimateSize(entry.getValue());
+			}
+			return size;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.qcert.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.google.gson.*;
+
+/**
+ * Execution of the loops of generated queries.
+ *
+ * A loop computes the collection of the results of its body for each element of the
+ * source collection, in order.  Since the bodies are pure, they can be run concurrently:
+ * when parallel execution is enabled and the source collection has at least
+ * <i>threshold</i> elements, it is split into ranges which are processed by a fork/join
+ * pool, and the results are then concatenated in the order of the source.
+ * Smaller collections (and all collections, when parallel execution is disabled) are
+ * processed sequentially, in the calling thread.
+ *
+ * <p>Parallel execution is disabled by default.  It is controlled by the following
+ * system properties (or the corresponding setters):
+ * <ul>
+ * <li><b>qcert.runtime.parallel</b>: enables parallel execution (default false)</li>
+ * <li><b>qcert.runtime.parallel.threshold</b>: the size below which loops stay sequential (default 1024)</li>
+ * <li><b>qcert.runtime.parallelism</b>: the number of worker threads (defaults to the common fork/join pool)</li>
+ * </ul>
+ */
+public class ParallelLoops {
+	private ParallelLoops() {
+	}
+
+	private static volatile boolean parallel = Boolean.getBoolean("qcert.runtime.parallel");
+	private static volatile int threshold = Integer.getInteger("qcert.runtime.parallel.threshold", 1024);
+	private static volatile Workers workers = new Workers(Integer.getInteger("qcert.runtime.parallelism", 0));
+
+	/*
+	 * A pool, with the number of loops running on it: a pool replaced by setParallelism
+	 * is retired, and only shut down once the loops already running on it are done.
+	 */
+	private static final class Workers {
+		final ForkJoinPool pool;
+		final AtomicInteger running = new AtomicInteger();
+		volatile boolean retired = false;
+
+		Workers(int parallelism) {
+			pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+		}
+
+		void retire() {
+			retired = true;
+			if(running.get() == 0) {
+				shutdown();
+			}
+		}
+
+		void release() {
+			if(running.decrementAndGet() == 0 && retired) {
+				shutdown();
+			}
+		}
+
+		private void shutdown() {
+			if(pool != ForkJoinPool.commonPool()) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/* The current pool, which stays usable until it is released */
+	private static Workers acquire() {
+		while(true) {
+			final Workers w = workers;
+			w.running.incrementAndGet();
+			if(! w.retired) {
+				return w;
+			}
+			// replaced in the meantime
+			w.release();
+		}
+	}
+
+	public static boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Enables or disables parallel execution of loops
+	 * @param enabled true to run large loops in parallel
+	 */
+	public static void setParallel(boolean enabled) {
+		parallel = enabled;
+	}
+
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Sets the size of the smallest collection whose loops are run in parallel
+	 * @param size the threshold
+	 */
+	public static void setThreshold(int size) {
+		threshold = Math.max(size, 2);
+	}
+
+	/**
+	 * Sets the number of threads used to run loops in parallel
+	 * @param parallelism the number of threads, or 0 for the common fork/join pool
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		final Workers old = workers;
+		workers = new Workers(parallelism);
+		old.retire();
+	}
+
+	/**
+	 * Computes the body of a loop for each element of a collection
+	 * @param src the source collection
+	 * @param body the body of the loop
+	 * @return the results of the body, in the order of the source collection
+	 */
+	public static JsonArray map(JsonArray src, Function<JsonElement, JsonElement> body) {
+		final int size = src.size();
+		final JsonArray dst = new JsonArray();
+		if(! parallel || size < threshold) {
+			for(int i = 0; i < size; i++) {
+				dst.add(body.apply(src.get(i)));
+			}
+			return dst;
+		}
+		final JsonElement[] results = new JsonElement[size];
+		final Workers w = acquire();
+		try {
+			// a few ranges per worker, so that uneven bodies can be balanced
+			final int grain = Math.max(threshold / 4, size / (4 * w.pool.getParallelism()) + 1);
+			w.pool.invoke(new MapRange(src, body, results, 0, size, grain));
+		} finally {
+			w.release();
+		}
+		for(int i = 0; i < size; i++) {
+			dst.add(results[i]);
+		}
+		return dst;
+	}
+
+	/**
+	 * Computes the body of a loop for each element of a collection, recording the
+	 * execution of the loop when profiling (see {@link Profiler})
+	 * @param site the name of the loop, in the profile
+	 * @param src the source collection
+	 * @param body the body of the loop
+	 * @return the results of the body, in the order of the source collection
+	 */
+	public static JsonArray map(String site, JsonArray src, Function<JsonElement, JsonElement> body) {
+		if(! Profiler.ENABLED) {
+			return map(src, body);
+		}
+		final long start = System.nanoTime();
+		final JsonArray dst = map(src, body);
+		Profiler.loop(site, start, src.size(), Profiler.totalCardinality(dst));
+		return dst;
+	}
+
+	private static final class MapRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		MapRange(JsonArray src, Function<JsonElement, JsonElement> body, JsonElement[] results, int from, int to, int grain) {
+			this.src = src;
+			this.body = body;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= grain) {
+				for(int i = from; i < to; i++) {
+					results[i] = body.apply(src.get(i));
+				}
+			} else {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new MapRange(src, body, results, from, mid, grain),
+						new MapRange(src, body, results, mid, to, grain));
+			}
+		}
+
+		private final JsonArray src;
+		private final Function<JsonElement, JsonElement> body;
+		private final JsonElement[] results;
+		private final int from;
+		private final int to;
+		private final int grain;
+	}
+}
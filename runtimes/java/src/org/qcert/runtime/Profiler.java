@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.*;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Instrumentation of the runtime operators and of the loops of generated queries.
+ *
+ * For each operator (e.g., <i>distinct</i> or <i>bag_minus</i>) and each loop site,
+ * the profiler counts the calls and accumulates their time and the cardinalities of
+ * their inputs and outputs.  The input of an operator on bags is the total size of
+ * its bag arguments.  The output of a loop is the total size of the bags computed by
+ * its body (or the number of its results, when they are not bags), so that it
+ * gives the selectivity of the loop before it is flattened.  Times are inclusive:
+ * the time of a loop includes that of the operators and loops of its body.
+ * A few hot helpers (such as the comparisons of {@link DataComparator}) are only
+ * counted, in named counters.
+ *
+ * <p>Profiling is disabled by default, in which case the instrumented code reduces
+ * to a test of a constant, which the JIT removes.  It is controlled by the following
+ * system properties, read when the class is initialized:
+ * <ul>
+ * <li><b>qcert.runtime.profile</b>: enables profiling (default false)</li>
+ * <li><b>qcert.runtime.profile.output</b>: a file to which the profile is written, as JSON, when the JVM exits</li>
+ * <li><b>qcert.runtime.profile.jfr</b>: also emits a Java Flight Recorder event for each call (default false; this
+ *     requires a JVM with the <code>jdk.jfr</code> API, and the events are only kept while a recording is running)</li>
+ * </ul>
+ * The statistics are shared by all the threads, and by all the queries run in the JVM;
+ * {@link #reset()} clears them, e.g. between queries.
+ */
+public final class Profiler {
+	private Profiler() {
+	}
+
+	/** Whether the operators and loops are instrumented */
+	public static final boolean ENABLED = Boolean.getBoolean("qcert.runtime.profile");
+
+	/** The statistics of one operator or loop site */
+	public static final class Stats {
+		final LongAdder calls = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder inputs = new LongAdder();
+		final LongAdder outputs = new LongAdder();
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getNanos() {
+			return nanos.sum();
+		}
+
+		public long getInputs() {
+			return inputs.sum();
+		}
+
+		public long getOutputs() {
+			return outputs.sum();
+		}
+
+		JsonObject toJson() {
+			final JsonObject dst = new JsonObject();
+			dst.addProperty("calls", getCalls());
+			dst.addProperty("timeNanos", getNanos());
+			dst.addProperty("inputs", getInputs());
+			dst.addProperty("outputs", getOutputs());
+			return dst;
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Stats> operators = new ConcurrentHashMap<String, Stats>();
+	private static final ConcurrentHashMap<String, Stats> loops = new ConcurrentHashMap<String, Stats>();
+	private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+	private static final JfrSink jfr = ENABLED && Boolean.getBoolean("qcert.runtime.profile.jfr") ? JfrSink.create() : null;
+
+	static {
+		final String output = System.getProperty("qcert.runtime.profile.output");
+		if(ENABLED && output != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try(Writer writer = new FileWriter(output)) {
+					writeJson(writer);
+				} catch(IOException e) {
+					System.err.println("Could not write the Q*cert profile to " + output + ": " + e);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Records a call of an operator
+	 * @param name the name of the operator
+	 * @param start the value of {@link System#nanoTime()} when the call started
+	 * @param inputs the cardinality of its input
+	 * @param outputs the cardinality of its output
+	 */
+	public static void operator(String name, long start, long inputs, long outputs) {
+		record(operators, "operator", name, start, inputs, outputs);
+	}
+
+	/**
+	 * Records an execution of a loop
+	 * @param site the name of the loop site
+	 * @param start the value of {@link System#nanoTime()} when the loop started
+	 * @param inputs the number of elements of its source
+	 * @param outputs the cardinality of its results
+	 */
+	public static void loop(String site, long start, long inputs, long outputs) {
+		record(loops, "loop", site, start, inputs, outputs);
+	}
+
+	/**
+	 * A counter, to be kept by the caller (typically in a static field)
+	 * @param name the name of the counter
+	 * @return the counter of that name
+	 */
+	public static LongAdder counter(String name) {
+		return counters.computeIfAbsent(name, k -> new LongAdder());
+	}
+
+	/**
+	 * @param elem an element
+	 * @return its size if it is a bag, else 1
+	 */
+	public static long cardinality(JsonElement elem) {
+		return elem.isJsonArray() ? elem.getAsJsonArray().size() : 1;
+	}
+
+	/**
+	 * @param results the results of a loop
+	 * @return the total cardinality of the results
+	 */
+	public static long totalCardinality(JsonArray results) {
+		long total = 0;
+		for(final JsonElement elem : results) {
+			total += cardinality(elem);
+		}
+		return total;
+	}
+
+	private static void record(ConcurrentHashMap<String, Stats> table, String kind, String name, long start, long inputs, long outputs) {
+		final long nanos = System.nanoTime() - start;
+		Stats stats = table.get(name);
+		if(stats == null) {
+			stats = table.computeIfAbsent(name, k -> new Stats());
+		}
+		stats.calls.increment();
+		stats.nanos.add(nanos);
+		stats.inputs.add(inputs);
+		stats.outputs.add(outputs);
+		if(jfr != null) {
+			jfr.emit(kind, name, nanos, inputs, outputs);
+		}
+	}
+
+	/**
+	 * @return the statistics of the operators called so far, by name
+	 */
+	public static Map<String, Stats> getOperators() {
+		return new TreeMap<String, Stats>(operators);
+	}
+
+	/**
+	 * @return the statistics of the loops run so far, by site
+	 */
+	public static Map<String, Stats> getLoops() {
+		return new TreeMap<String, Stats>(loops);
+	}
+
+	/**
+	 * Clears all the statistics (the counters are kept, but set to zero)
+	 */
+	public static void reset() {
+		operators.clear();
+		loops.clear();
+		for(final LongAdder counter : counters.values()) {
+			counter.reset();
+		}
+	}
+
+	/**
+	 * @return the profile, as a JSON object with the members <i>operators</i>, <i>loops</i>
+	 * (each mapping names to their calls, time, inputs and outputs) and <i>counters</i>
+	 */
+	public static JsonObject toJson() {
+		final JsonObject dst = new JsonObject();
+		dst.add("operators", toJson(getOperators()));
+		dst.add("loops", toJson(getLoops()));
+		final JsonObject counts = new JsonObject();
+		for(final Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(counters).entrySet()) {
+			counts.addProperty(entry.getKey(), entry.getValue().sum());
+		}
+		dst.add("counters", counts);
+		return dst;
+	}
+
+	private static JsonObject toJson(Map<String, Stats> table) {
+		final JsonObject dst = new JsonObject();
+		for(final Map.Entry<String, Stats> entry : table.entrySet()) {
+			dst.add(entry.getKey(), entry.getValue().toJson());
+		}
+		return dst;
+	}
+
+	/**
+	 * Writes the profile, as JSON (see {@link #toJson()})
+	 * @param writer where to write it
+	 * @throws IOException
+	 */
+	public static void writeJson(Writer writer) throws IOException {
+		final JsonWriter json = new JsonWriter(writer);
+		json.setIndent("  ");
+		Streams.write(toJson(), json);
+		json.flush();
+	}
+}
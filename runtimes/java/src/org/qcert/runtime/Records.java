@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.google.gson.*;
+
+/**
+ * Concatenation and projection of records, by merging their fields in key order.
+ *
+ * The fields of a <code>JsonObject</code> are kept in insertion order, and the records built by
+ * the runtime have their fields in (ascending) key order: those built by concatenation are
+ * built in that order, and those obtained by projection or removal of fields keep the order
+ * of the original record.  So the fields of the records to be concatenated are usually already
+ * sorted, and the concatenation is a linear merge, which builds the result directly, with no
+ * intermediate collection.  The fields of records which are not sorted (e.g., records of the
+ * input) are sorted first.
+ *
+ * Likewise, the fields of a projection are usually given in key order, and the projection is
+ * a linear merge of those fields with the fields of the record, rather than a search of the
+ * fields for each field of the record.  Lookups of a single field (dot) are already searches of
+ * the tree of fields of the <code>JsonObject</code>, and removals of a single field a single
+ * pass over its fields.
+ */
+final class Records {
+	private Records() {
+	}
+
+	private static final Comparator<Entry<String, JsonElement>> BY_KEY = new Comparator<Entry<String, JsonElement>>() {
+		@Override
+		public int compare(Entry<String, JsonElement> e1, Entry<String, JsonElement> e2) {
+			return e1.getKey().compareTo(e2.getKey());
+		}
+	};
+
+	/* The result of a merge of fields which are not in key order */
+	private static final JsonObject UNSORTED = new JsonObject();
+
+	/* The fields of the record, sorted by key */
+	private static Iterator<Entry<String, JsonElement>> sortedFields(JsonObject rec) {
+		final List<Entry<String, JsonElement>> dst = new ArrayList<Entry<String, JsonElement>>(rec.entrySet());
+		Collections.sort(dst, BY_KEY);
+		return dst.iterator();
+	}
+
+	/**
+	 * @param rec1 a record
+	 * @param rec2 a record
+	 * @param compatible whether the fields of both records must have equal values
+	 * (as by {@link DataHasher#equal(JsonElement, JsonElement)}, which agrees with
+	 * {@link DataComparator} comparing them as 0)
+	 * @return the fields of both records, in key order, with those of rec2 for the fields of both
+	 * (or null if the records must be compatible and are not)
+	 */
+	static JsonObject concat(JsonObject rec1, JsonObject rec2, boolean compatible) {
+		final JsonObject dst = merge(rec1.entrySet().iterator(), rec2.entrySet().iterator(), compatible);
+		if(dst != UNSORTED) {
+			return dst;
+		}
+		return merge(sortedFields(rec1), sortedFields(rec2), compatible);
+	}
+
+	/* Merges fields given in key order (or returns UNSORTED if they are not) */
+	private static JsonObject merge(Iterator<Entry<String, JsonElement>> fields1, Iterator<Entry<String, JsonElement>> fields2, boolean compatible) {
+		final JsonObject dst = new JsonObject();
+		Entry<String, JsonElement> field1 = fields1.hasNext() ? fields1.next() : null;
+		Entry<String, JsonElement> field2 = fields2.hasNext() ? fields2.next() : null;
+		String last = null;
+		while(field1 != null || field2 != null) {
+			final int compare = field1 == null ? 1 : field2 == null ? -1 : field1.getKey().compareTo(field2.getKey());
+			final Entry<String, JsonElement> field = compare < 0 ? field1 : field2;
+			if(last != null && last.compareTo(field.getKey()) >= 0) {
+				return UNSORTED;
+			}
+			if(compare == 0 && compatible && ! DataHasher.equal(field1.getValue(), field2.getValue())) {
+				return null;
+			}
+			dst.add(field.getKey(), field.getValue());
+			last = field.getKey();
+			if(compare <= 0) {
+				field1 = fields1.hasNext() ? fields1.next() : null;
+			}
+			if(compare >= 0) {
+				field2 = fields2.hasNext() ? fields2.next() : null;
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * @param keys some keys
+	 * @param rec a record
+	 * @return the fields of the record with those keys, in the order of the record
+	 */
+	static JsonObject project(Collection<String> keys, JsonObject rec) {
+		final JsonObject dst = projectSorted(keys, rec);
+		if(dst != UNSORTED) {
+			return dst;
+		}
+		final JsonObject unsorted = new JsonObject();
+		for(Entry<String, JsonElement> field : rec.entrySet()) {
+			if(keys.contains(field.getKey())) {
+				unsorted.add(field.getKey(), field.getValue());
+			}
+		}
+		return unsorted;
+	}
+
+	/* Merges keys and fields given in key order (or returns UNSORTED if they are not) */
+	private static JsonObject projectSorted(Collection<String> keys, JsonObject rec) {
+		final JsonObject dst = new JsonObject();
+		final Iterator<String> it = keys.iterator();
+		String key = it.hasNext() ? it.next() : null;
+		String last = null;
+		for(Entry<String, JsonElement> field : rec.entrySet()) {
+			final String name = field.getKey();
+			if(last != null && last.compareTo(name) >= 0) {
+				return UNSORTED;
+			}
+			last = name;
+			while(key != null && key.compareTo(name) < 0) {
+				final String next = it.hasNext() ? it.next() : null;
+				if(next != null && key.compareTo(next) >= 0) {
+					return UNSORTED;
+				}
+				key = next;
+			}
+			if(name.equals(key)) {
+				dst.add(name, field.getValue());
+			}
+		}
+		// the keys after the last field must be in order too
+		while(key != null) {
+			final String next = it.hasNext() ? it.next() : null;
+			if(next != null && key.compareTo(next) >= 0) {
+				return UNSORTED;
+			}
+			key = next;
+		}
+		return dst;
+	}
+}
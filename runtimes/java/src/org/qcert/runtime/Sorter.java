@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import com.google.gson.*;
+
+/**
+ * Implementation of the OrderBy operator: a stable sort of a collection of records
+ * on a list of fields, each in ascending or descending order.
+ *
+ * <p>The sort keys of each record are extracted once, and compared with a caching
+ * comparator, so that the canonical forms of the keys are computed once per sort.
+ */
+public class Sorter {
+	private Sorter() {
+	}
+
+	/** A sort criterion: a field, in ascending or descending order */
+	public static final class SortCriterion {
+		private SortCriterion(String field, boolean descending) {
+			this.field = field;
+			this.descending = descending;
+		}
+
+		public static SortCriterion asc(String field) {
+			return new SortCriterion(field, false);
+		}
+
+		public static SortCriterion desc(String field) {
+			return new SortCriterion(field, true);
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		public boolean isDescending() {
+			return descending;
+		}
+
+		private final String field;
+		private final boolean descending;
+	}
+
+	/* An element with its sort keys */
+	private static final class Item {
+		Item(JsonElement elem, JsonElement[] keys) {
+			this.elem = elem;
+			this.keys = keys;
+		}
+
+		final JsonElement elem;
+		final JsonElement[] keys;
+	}
+
+	private static JsonElement[] keysOf(SortCriterion[] criteria, JsonElement elem) {
+		final JsonElement[] keys = new JsonElement[criteria.length];
+		final JsonObject rec = elem.getAsJsonObject();
+		for(int i = 0; i < criteria.length; i++) {
+			keys[i] = rec.get(criteria[i].field);
+		}
+		return keys;
+	}
+
+	private static Comparator<Item> itemComparator(final SortCriterion[] criteria, final DataComparator comp) {
+		return new Comparator<Item>() {
+			@Override
+			public int compare(Item i1, Item i2) {
+				for(int i = 0; i < criteria.length; i++) {
+					final int c = comp.compare(i1.keys[i], i2.keys[i]);
+					if(c != 0) {
+						return criteria[i].descending ? -c : c;
+					}
+				}
+				return 0;
+			}
+		};
+	}
+
+	/**
+	 * Sorts a collection (stably)
+	 * @param criteria the sort criteria, most significant first
+	 * @param coll the collection of records
+	 * @return the sorted collection
+	 */
+	public static JsonArray sort(Collection<SortCriterion> criteria, JsonArray coll) {
+		final SortCriterion[] crits = criteria.toArray(new SortCriterion[criteria.size()]);
+		if(crits.length == 0 || coll.size() < 2) {
+			return BinaryOperators.copyArray(coll);
+		}
+		final Item[] items = new Item[coll.size()];
+		int i = 0;
+		for(final JsonElement elem : coll) {
+			items[i++] = new Item(elem, keysOf(crits, elem));
+		}
+		// Arrays.sort on objects is stable
+		Arrays.sort(items, itemComparator(crits, DataComparator.newCachingComparator()));
+		final JsonArray dst = new JsonArray();
+		for(Item item : items) {
+			dst.add(item.elem);
+		}
+		return dst;
+	}
+}
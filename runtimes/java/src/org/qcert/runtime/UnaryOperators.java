@@ -21,32 +21,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import com.google.gson.*;
 
 public class UnaryOperators {
 	
-    private static Set<String> collToBrands(JsonArray coll) {
-        final Set<String> dst = new HashSet<String>(coll.size());
-        for(final JsonElement elem : coll) {
-            dst.add(elem.getAsString());
-        }
-        return dst;
-    }
-
-    private static TreeSet<JsonElement> collToTreeSet(JsonArray coll) {
-        final TreeSet<JsonElement> dst = new TreeSet<JsonElement>(DataComparator.getComparator());
-        for(final JsonElement elem : coll) {
-            dst.add(elem);
-        }
-        return dst;
-    }
-
-
     public static JsonElement abs(JsonElement e) {
         return new JsonPrimitive(Math.abs(e.getAsLong()));
     }
@@ -71,11 +55,15 @@ public class UnaryOperators {
     }
 	
     public static JsonElement flatten(JsonElement e) {
+        final long start = Profiler.ENABLED ? System.nanoTime() : 0;
         final JsonArray dst = new JsonArray();
         final JsonArray src = e.getAsJsonArray();
         for(final JsonElement elem : src) {
             dst.addAll(elem.getAsJsonArray());
         }
+        if(Profiler.ENABLED) {
+            Profiler.operator("flatten", start, src.size(), dst.size());
+        }
         return dst;
     }
 	
@@ -101,28 +89,113 @@ public class UnaryOperators {
     }
 	
     public static JsonElement project(Collection<String> fs, JsonElement e) {
-        final JsonObject er = e.getAsJsonObject();
-        final JsonObject dst = new JsonObject();
-        for(Entry<String, JsonElement> entry : er.entrySet()) {
-            String key = entry.getKey();
-            if(fs.contains(key)) {
-                dst.add(key, entry.getValue());
+        return Records.project(fs, e.getAsJsonObject());
+    }
+	
+    public static JsonElement distinct(JsonElement e) {
+        final long start = Profiler.ENABLED ? System.nanoTime() : 0;
+        final JsonArray ec = e.getAsJsonArray();
+        final JsonArray dst = distinct(ec, 0);
+        if(Profiler.ENABLED) {
+            Profiler.operator("distinct", start, ec.size(), dst.size());
+        }
+        return dst;
+    }
+
+    /* Hashes the elements, or if the hash set exceeds the memory budget, partitions them first (see HashPartitions) */
+    private static JsonArray distinct(JsonArray ec, int level) {
+        final long budget = MemoryBudget.get();
+        final Set<DataKey> seen = new HashSet<DataKey>(Math.max(16, (int) (ec.size() / 0.75f) + 1));
+        final JsonArray dst = new JsonArray();
+        long size = 0;
+        for(final JsonElement elem : ec) {
+            if(seen.add(new DataKey(elem))) {
+                dst.add(elem);
+                // the set refers to the elements, which are not copied
+                size += MemoryBudget.ENTRY_SIZE;
+                if(size > budget && HashPartitions.canPartition(level)) {
+                    return distinctPartitioned(ec, level);
+                }
             }
         }
         return dst;
     }
+
+    private static JsonArray distinctPartitioned(JsonArray ec, int level) {
+        final HashPartitions partitions = new HashPartitions(level);
+        for(final JsonElement elem : ec) {
+            partitions.add(DataHasher.hash(elem), elem);
+        }
+        final JsonArray dst = new JsonArray();
+        for(int p = 0; p < HashPartitions.FANOUT; p++) {
+            dst.addAll(distinct(partitions.take(p), level + 1));
+        }
+        return dst;
+    }
 	
-    public static JsonElement distinct(JsonElement e) {
+    /**
+     * Groups the records of a bag by the values of some of their fields: for each distinct key (the
+     * projection of a record on the fields), a record with the key fields and, in field g, the bag of
+     * the records with that key.  The records are partitioned in one pass, by hashing their keys.
+     */
+    public static JsonElement groupby(String g, Collection<String> fields, JsonElement e) {
+        final long start = Profiler.ENABLED ? System.nanoTime() : 0;
         final JsonArray ec = e.getAsJsonArray();
-        final TreeSet<JsonElement> treeSet = collToTreeSet(ec);
-        JsonArray dst = new JsonArray();
-        for(JsonElement elem : treeSet) {
-            dst.add(elem);
+        final JsonArray dst = groupby(g, fields, ec, 0);
+        if(Profiler.ENABLED) {
+            Profiler.operator("groupby", start, ec.size(), dst.size());
         }
+        return dst;
+    }
 
+    /* Hashes the records, or if the groups exceed the memory budget, partitions them first (see HashPartitions) */
+    private static JsonArray groupby(String g, Collection<String> fields, JsonArray ec, int level) {
+        final long budget = MemoryBudget.get();
+        final Map<DataKey, JsonArray> groups = new LinkedHashMap<DataKey, JsonArray>();
+        long size = 0;
+        for(final JsonElement elem : ec) {
+            final DataKey key = new DataKey(project(fields, elem));
+            JsonArray group = groups.get(key);
+            if(group == null) {
+                group = new JsonArray();
+                groups.put(key, group);
+                size += MemoryBudget.ENTRY_SIZE + MemoryBudget.estimateSize(key.getValue());
+            }
+            // the groups refer to the records, which are not copied
+            group.add(elem);
+            size += MemoryBudget.REFERENCE_SIZE;
+            if(size > budget && HashPartitions.canPartition(level)) {
+                return groupbyPartitioned(g, fields, ec, level);
+            }
+        }
+        final JsonArray dst = new JsonArray();
+        for(final Entry<DataKey, JsonArray> group : groups.entrySet()) {
+            dst.add(BinaryOperators.concat(group.getKey().getValue(), rec(g, group.getValue())));
+        }
+        return dst;
+    }
+
+    private static JsonArray groupbyPartitioned(String g, Collection<String> fields, JsonArray ec, int level) {
+        final HashPartitions partitions = new HashPartitions(level);
+        for(final JsonElement elem : ec) {
+            partitions.add(DataHasher.hash(project(fields, elem)), elem);
+        }
+        final JsonArray dst = new JsonArray();
+        for(int p = 0; p < HashPartitions.FANOUT; p++) {
+            dst.addAll(groupby(g, fields, partitions.take(p), level + 1));
+        }
         return dst;
     }
 	
+    public static JsonElement sort(Collection<Sorter.SortCriterion> criteria, JsonElement e) {
+        if(! Profiler.ENABLED) {
+            return Sorter.sort(criteria, e.getAsJsonArray());
+        }
+        final long start = System.nanoTime();
+        final JsonArray dst = Sorter.sort(criteria, e.getAsJsonArray());
+        Profiler.operator("sort", start, dst.size(), dst.size());
+        return dst;
+    }
 	
     private static long sum_helper(JsonArray ec) {
         long acc = 0;
@@ -269,13 +342,20 @@ public class UnaryOperators {
     public static JsonElement cast(Inheritance inheritance, Collection<String> brands, JsonElement e) {
         final JsonObject er = e.getAsJsonObject();
         final JsonArray typs = er.get("$class").getAsJsonArray();
-        Set<String> actualBrands = collToBrands(typs);
-        if(inheritance.isAssignableFrom(brands, actualBrands)) {
+        if(inheritance.isAssignableFrom(brands, typs)) {
             return left(e);
         } else {
             return right(e);
         }
     }
+
+    /**
+     * The elements of a bag which can be cast to some brands, for loops over the instances of a class
+     * (the result must not be modified)
+     */
+    public static JsonArray instances(Inheritance inheritance, Collection<String> brands, JsonElement e) {
+        return inheritance.instances(brands, e.getAsJsonArray());
+    }
 	
     public static final JsonElement dnone = mk_right_none();
 	
@@ -404,14 +484,12 @@ public class UnaryOperators {
         return new JsonPrimitive(max);
     }
 
+    public static JsonElement string_like(LikeMatcher matcher, JsonElement elem) {
+        return new JsonPrimitive(matcher.matches(elem.getAsString()));
+    }
+
     public static JsonElement string_like(LikeClause[] clauses, JsonElement elem) {
-        final String str = elem.getAsString();
-        String pat = "";
-        for(LikeClause clause : clauses) {
-            pat += clause.getRegex();
-        }
-        boolean matches = Pattern.matches(pat, str);
-        return new JsonPrimitive(matches);
+        return string_like(LikeMatcher.of(clauses), elem);
     }
 	
     public static interface LikeClause {
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks bag_minus, bag_min and bag_max against a transcription
+ * of their definitions in compiler/core/Utils/Bag.v.
+ */
+public class BagOperatorsTest {
+
+	/* remove_one x l: l without its first element equal to x */
+	static JsonArray removeOne(JsonElement x, JsonArray l) {
+		final JsonArray dst = new JsonArray();
+		boolean removed = false;
+		for(JsonElement y : l) {
+			if(! removed && TestData.same(x, y)) {
+				removed = true;
+			} else {
+				dst.add(y);
+			}
+		}
+		return dst;
+	}
+
+	/* bminus d x: x (-) d */
+	static JsonArray bminus(JsonArray d, JsonArray x) {
+		for(JsonElement d1 : d) {
+			x = removeOne(d1, x);
+		}
+		return x;
+	}
+
+	/* bmin l1 l2 = l1 (-) (l1 (-) l2) */
+	static JsonArray bmin(JsonArray l1, JsonArray l2) {
+		return bminus(bminus(l2, l1), l1);
+	}
+
+	/* bmax l1 l2 = l1 ++ (l2 (-) l1) */
+	static JsonArray bmax(JsonArray l1, JsonArray l2) {
+		final JsonArray dst = new JsonArray();
+		dst.addAll(l1);
+		dst.addAll(bminus(l1, l2));
+		return dst;
+	}
+
+	@Test
+	public void examples() {
+		final JsonElement b1 = parse("[1,1,2,3,3,3]");
+		final JsonElement b2 = parse("[3,1,4,3]");
+		assertEquals(parse("[1,2,3]"), BinaryOperators.bag_minus(b1, b2));
+		assertEquals(parse("[4]"), BinaryOperators.bag_minus(b2, b1));
+		assertTrue(TestData.sameBag(parse("[1,3,3]").getAsJsonArray(), BinaryOperators.bag_min(b1, b2).getAsJsonArray()));
+		assertEquals(parse("[1,1,2,3,3,3,4]"), BinaryOperators.bag_max(b1, b2));
+		assertEquals(parse("[]"), BinaryOperators.bag_minus(parse("[]"), b1));
+		assertEquals(b1, BinaryOperators.bag_minus(b1, parse("[]")));
+		assertEquals(parse("[]"), BinaryOperators.bag_min(b1, parse("[]")));
+		assertEquals(b1, BinaryOperators.bag_max(b1, parse("[]")));
+	}
+
+	@Test
+	public void equalValuesWithOtherRepresentations() {
+		// the lazily parsed 1.0 of b2 is equal to the long 1 of b1 (it would not be to a lazily parsed 1)
+		final JsonArray b1 = parse("[{\"a\":1,\"b\":[1,2]},{\"b\":[2,1],\"a\":1}]").getAsJsonArray();
+		b1.add(new JsonPrimitive(1L));
+		final JsonElement b2 = parse("[{\"b\":[2,1],\"a\":1},1.0]");
+		assertEquals(1, BinaryOperators.bag_minus(b1, b2).getAsJsonArray().size());
+		assertEquals(2, BinaryOperators.bag_min(b1, b2).getAsJsonArray().size());
+		assertEquals(3, BinaryOperators.bag_max(b1, b2).getAsJsonArray().size());
+	}
+
+	@Test
+	public void agreesWithBagSemantics() {
+		final Random random = new Random(4);
+		for(int i = 0; i < 500; i++) {
+			final JsonArray b1 = TestData.bag(random, random.nextInt(30));
+			final JsonArray b2 = TestData.bag(random, random.nextInt(30));
+			// bag_minus removes the first occurrences and bag_max appends the unmatched
+			// occurrences in order, as in Bag.v; bag_min keeps the first occurrences rather
+			// than the last ones, so it is only the same bag
+			assertEquals(bminus(b2, b1), BinaryOperators.bag_minus(b1, b2));
+			assertEquals(bmax(b1, b2), BinaryOperators.bag_max(b1, b2));
+			assertTrue(TestData.sameBag(bmin(b1, b2), BinaryOperators.bag_min(b1, b2).getAsJsonArray()));
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks the instances of a class, with and without the brand index,
+ * against a filter of the bag by cast.
+ */
+public class BrandIndexTest {
+
+	static final List<String> BRANDS = Arrays.asList("Entity", "Person", "Employee", "Manager", "Student", "Robot", "Alien");
+
+	static JsonArray world(Random random, int size) {
+		final JsonArray bag = new JsonArray();
+		for(int i = 0; i < size; i++) {
+			final int count = 1 + random.nextInt(2);
+			final String[] brands = new String[count];
+			for(int j = 0; j < count; j++) {
+				brands[j] = BRANDS.get(random.nextInt(BRANDS.size()));
+			}
+			bag.add(InheritanceTest.branded(brands));
+		}
+		return bag;
+	}
+
+	static JsonArray filter(Inheritance h, Collection<String> brands, JsonArray bag) {
+		final JsonArray dst = new JsonArray();
+		for(JsonElement elem : bag) {
+			if(UnaryOperators.cast(h, brands, elem).getAsJsonObject().has("$left")) {
+				dst.add(elem);
+			}
+		}
+		return dst;
+	}
+
+	static List<List<String>> casts() {
+		return Arrays.asList(
+				Collections.<String>emptyList(),
+				Arrays.asList("Entity"),
+				Arrays.asList("Person"),
+				Arrays.asList("Manager"),
+				Arrays.asList("Alien"),
+				Arrays.asList("Unknown"),
+				Arrays.asList("Employee", "Student"),
+				Arrays.asList("Person", "Robot"));
+	}
+
+	@Test
+	public void indexAgreesWithCasts() {
+		final Random random = new Random(19);
+		for(int i = 0; i < 50; i++) {
+			final Inheritance h = InheritanceTest.hierarchy();
+			final JsonArray bag = world(random, random.nextInt(200));
+			final BrandIndex index = new BrandIndex(h, bag);
+			for(List<String> brands : casts()) {
+				// in the order of the bag
+				assertEquals(brands.toString(), filter(h, brands, bag), index.get(brands));
+			}
+		}
+	}
+
+	@Test
+	public void instancesAgreeWithCasts() {
+		final Random random = new Random(20);
+		final Inheritance h = InheritanceTest.hierarchy();
+		final JsonArray world = world(random, 300);
+		final JsonArray other = world(random, 100);
+		// the first call with a bag filters it and the following ones index it, so
+		// alternating between the bags moves the index from one to the other
+		for(int i = 0; i < 3; i++) {
+			for(List<String> brands : casts()) {
+				assertEquals(brands.toString(), filter(h, brands, world), UnaryOperators.instances(h, brands, world));
+			}
+			for(List<String> brands : casts()) {
+				assertEquals(brands.toString(), filter(h, brands, other), h.instances(brands, other));
+			}
+		}
+	}
+
+	/* Whether a value can be collected, once the test drops its own references to it */
+	static boolean collected(WeakReference<?> ref) throws InterruptedException {
+		for(int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		return ref.get() == null;
+	}
+
+	@Test
+	public void bagsAreNotKept() throws InterruptedException {
+		final Random random = new Random(21);
+		final Inheritance h = InheritanceTest.hierarchy();
+		final List<String> person = Arrays.asList("Person");
+		JsonArray world = world(random, 1000);
+		// indexed
+		h.instances(person, world);
+		h.instances(person, world);
+		final WeakReference<JsonArray> indexed = new WeakReference<JsonArray>(world);
+		world = null;
+		JsonArray other = world(random, 100);
+		// filtered
+		h.instances(person, other);
+		final WeakReference<JsonArray> filtered = new WeakReference<JsonArray>(other);
+		other = null;
+		assertTrue(collected(indexed));
+		assertTrue(collected(filtered));
+		// the hierarchy is still usable, with new bags
+		final JsonArray next = world(random, 100);
+		for(int i = 0; i < 3; i++) {
+			assertEquals(filter(h, person, next), h.instances(person, next));
+		}
+	}
+}
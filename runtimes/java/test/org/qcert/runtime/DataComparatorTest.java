@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+public class DataComparatorTest {
+
+	private static int sign(int i) {
+		return Integer.signum(i);
+	}
+
+	/* A copy of a value with the fields of all its records in key order */
+	static JsonElement sortedFields(JsonElement e) {
+		if(e.isJsonObject()) {
+			final TreeMap<String, JsonElement> fields = new TreeMap<String, JsonElement>();
+			for(Entry<String, JsonElement> field : e.getAsJsonObject().entrySet()) {
+				fields.put(field.getKey(), sortedFields(field.getValue()));
+			}
+			final JsonObject dst = new JsonObject();
+			for(Entry<String, JsonElement> field : fields.entrySet()) {
+				dst.add(field.getKey(), field.getValue());
+			}
+			return dst;
+		} else if(e.isJsonArray()) {
+			final JsonArray dst = new JsonArray();
+			for(JsonElement elem : e.getAsJsonArray()) {
+				dst.add(sortedFields(elem));
+			}
+			return dst;
+		}
+		return e;
+	}
+
+	@Test
+	public void examples() {
+		final DataComparator comp = DataComparator.getComparator();
+		assertEquals(0, comp.compare(parse("{\"b\":1,\"a\":2}"), parse("{\"a\":2,\"b\":1}")));
+		// records are ordered by size, then keys, then values in key order
+		assertTrue(comp.compare(parse("{\"z\":1}"), parse("{\"a\":1,\"b\":1}")) < 0);
+		assertTrue(comp.compare(parse("{\"b\":1,\"a\":1}"), parse("{\"a\":1,\"c\":0}")) < 0);
+		assertTrue(comp.compare(parse("{\"b\":0,\"a\":2}"), parse("{\"a\":1,\"b\":9}")) > 0);
+		// collections are ordered by size, then their sorted elements
+		assertEquals(0, comp.compare(parse("[3,1,2]"), parse("[1,2,3]")));
+		assertTrue(comp.compare(parse("[3,1,1]"), parse("[1,2,3]")) < 0);
+		assertTrue(comp.compare(parse("[9]"), parse("[1,2]")) < 0);
+	}
+
+	@Test
+	public void recordsWithSortedAndUnsortedFieldsAgree() {
+		final Random random = new Random(7);
+		final DataComparator comp = DataComparator.getComparator();
+		for(int i = 0; i < 20000; i++) {
+			final JsonElement e1 = TestData.value(random);
+			final JsonElement e2 = random.nextInt(4) == 0 ? TestData.shuffled(random, e1) : TestData.value(random);
+			final int expected = sign(comp.compare(sortedFields(e1), sortedFields(e2)));
+			assertEquals(e1 + " ? " + e2, expected, sign(comp.compare(e1, e2)));
+			assertEquals(e1 + " ? " + e2, expected, sign(DataComparator.newCachingComparator().compare(e1, e2)));
+			assertEquals(e2 + " ? " + e1, - expected, sign(comp.compare(e2, e1)));
+		}
+	}
+
+	/* A copy of a value with its numbers as longs rather than lazily parsed */
+	static JsonElement eager(JsonElement e) {
+		if(e.isJsonObject()) {
+			final JsonObject dst = new JsonObject();
+			for(Entry<String, JsonElement> field : e.getAsJsonObject().entrySet()) {
+				dst.add(field.getKey(), eager(field.getValue()));
+			}
+			return dst;
+		} else if(e.isJsonArray()) {
+			final JsonArray dst = new JsonArray();
+			for(JsonElement elem : e.getAsJsonArray()) {
+				dst.add(eager(elem));
+			}
+			return dst;
+		} else if(e.isJsonPrimitive() && e.getAsJsonPrimitive().isNumber()) {
+			return new JsonPrimitive(e.getAsLong());
+		}
+		return e;
+	}
+
+	/*
+	 * Lazily parsed numbers are compared with longs on their value, but are ordered
+	 * after strings, so the order is only transitive on values without them.
+	 */
+	@Test
+	public void isTransitive() {
+		final Random random = new Random(8);
+		final DataComparator comp = DataComparator.getComparator();
+		for(int i = 0; i < 20000; i++) {
+			final JsonElement e1 = eager(TestData.value(random));
+			final JsonElement e2 = eager(TestData.value(random));
+			final JsonElement e3 = eager(TestData.value(random));
+			if(comp.compare(e1, e2) <= 0 && comp.compare(e2, e3) <= 0) {
+				assertTrue(e1 + " <= " + e3, comp.compare(e1, e3) <= 0);
+			}
+		}
+	}
+
+	@Test
+	public void cachingComparatorSortsAsShared() {
+		final Random random = new Random(9);
+		for(int i = 0; i < 50; i++) {
+			final List<JsonElement> values = new ArrayList<JsonElement>();
+			final JsonArray bag = TestData.bag(random, 200);
+			for(JsonElement elem : bag) {
+				values.add(random.nextBoolean() ? TestData.shuffled(random, elem) : elem);
+			}
+			final List<JsonElement> shared = new ArrayList<JsonElement>(values);
+			final List<JsonElement> caching = new ArrayList<JsonElement>(values);
+			Collections.sort(shared, DataComparator.getComparator());
+			final DataComparator comp = DataComparator.newCachingComparator();
+			Collections.sort(caching, comp);
+			// the sorts are stable, so they give the very same elements
+			for(int j = 0; j < shared.size(); j++) {
+				assertSame(shared.get(j), caching.get(j));
+			}
+			// and the canonical forms cached by the first sort do not change the order
+			Collections.shuffle(caching, random);
+			Collections.sort(caching, comp);
+			for(int j = 1; j < caching.size(); j++) {
+				assertTrue(DataComparator.getComparator().compare(caching.get(j - 1), caching.get(j)) <= 0);
+			}
+		}
+	}
+}
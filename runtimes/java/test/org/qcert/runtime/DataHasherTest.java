@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+public class DataHasherTest {
+
+	private static void assertEqual(JsonElement e1, JsonElement e2) {
+		assertTrue(e1 + " = " + e2, DataHasher.equal(e1, e2));
+		assertTrue(e2 + " = " + e1, DataHasher.equal(e2, e1));
+		assertEquals(e1 + " = " + e2, 0, DataComparator.getComparator().compare(e1, e2));
+		assertEquals(e1 + " = " + e2, DataHasher.hash(e1), DataHasher.hash(e2));
+	}
+
+	private static void assertNotEqual(JsonElement e1, JsonElement e2) {
+		assertFalse(e1 + " <> " + e2, DataHasher.equal(e1, e2));
+		assertFalse(e2 + " <> " + e1, DataHasher.equal(e2, e1));
+		assertFalse(e1 + " <> " + e2, DataComparator.getComparator().compare(e1, e2) == 0);
+	}
+
+	@Test
+	public void agreesWithComparator() {
+		final Random random = new Random(1);
+		for(int i = 0; i < 20000; i++) {
+			final JsonElement e1 = TestData.value(random);
+			final JsonElement e2 = random.nextInt(4) == 0 ? TestData.shuffled(random, e1) : TestData.value(random);
+			final boolean same = TestData.same(e1, e2);
+			assertEquals(e1 + " = " + e2, same, DataHasher.equal(e1, e2));
+			if(same) {
+				assertEquals(e1 + " = " + e2, DataHasher.hash(e1), DataHasher.hash(e2));
+			}
+		}
+	}
+
+	@Test
+	public void recordsIgnoreFieldOrder() {
+		assertEqual(parse("{\"a\":1,\"b\":\"x\",\"c\":[1,2]}"), parse("{\"c\":[1,2],\"a\":1,\"b\":\"x\"}"));
+		assertNotEqual(parse("{\"a\":1,\"b\":\"x\"}"), parse("{\"a\":1,\"b\":\"y\"}"));
+		assertNotEqual(parse("{\"a\":1}"), parse("{\"a\":1,\"b\":1}"));
+		assertNotEqual(parse("{\"a\":1}"), parse("{\"b\":1}"));
+	}
+
+	@Test
+	public void collectionsIgnoreElementOrder() {
+		assertEqual(parse("[1,2,2,3]"), parse("[2,3,2,1]"));
+		assertNotEqual(parse("[1,2,2]"), parse("[1,1,2]"));
+		assertNotEqual(parse("[1,2]"), parse("[1,2,2]"));
+		final JsonArray coll = new JsonArray();
+		for(int i = 0; i < 20; i++) {
+			coll.add(new JsonPrimitive(i % 7));
+		}
+		assertEqual(coll, TestData.shuffled(new Random(2), coll));
+	}
+
+	@Test
+	public void lazyNumbers() {
+		assertEqual(parse("1"), new JsonPrimitive(1L));
+		assertEqual(parse("1.0"), new JsonPrimitive(1L));
+		assertEqual(parse("1.5"), new JsonPrimitive(1.5d));
+		assertEqual(parse("9007199254740993"), new JsonPrimitive(9007199254740993L));
+		assertNotEqual(parse("1.5"), new JsonPrimitive(1L));
+		assertNotEqual(parse("9007199254740993"), new JsonPrimitive(9007199254740992L));
+		assertNotEqual(parse("2"), new JsonPrimitive(1L));
+		// as for the comparator, two lazily parsed numbers are compared as written
+		assertEqual(parse("1"), parse("1"));
+		assertNotEqual(parse("1"), parse("1.0"));
+	}
+
+	@Test
+	public void boxedNats() {
+		assertEqual(parse("{\"$nat\":3}"), parse("{\"$nat\":3}"));
+		assertEqual(parse("{\"$nat\":3}"), parse("3"));
+		assertNotEqual(parse("{\"$nat\":3}"), parse("{\"$nat\":4}"));
+		assertNotEqual(parse("{\"$nat\":3}"), new JsonPrimitive(3L));
+	}
+
+	@Test
+	public void datesCompareAsInstants() {
+		assertEqual(new JsonPrimitive("2017-01-01T00:00:00Z"), new JsonPrimitive("2017-01-01T01:00:00+01:00"));
+		assertNotEqual(new JsonPrimitive("2017-01-01T00:00:00Z"), new JsonPrimitive("2017-01-01T00:00:01Z"));
+	}
+
+	@Test
+	public void multisetCountsEqualValues() {
+		final Random random = new Random(3);
+		final DataMultiset ms = new DataMultiset();
+		final JsonObject rec = TestData.record(random, "a", "b", "c");
+		for(int i = 0; i < 5; i++) {
+			ms.add(TestData.shuffled(random, rec));
+		}
+		assertEquals(5, ms.count(rec));
+		assertEquals(5, ms.size());
+		assertTrue(ms.remove(TestData.shuffled(random, rec)));
+		assertEquals(4, ms.count(rec));
+		assertFalse(ms.remove(new JsonPrimitive("absent")));
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks distinct against bdistinct (compiler/core/Utils/Bag.v) and contains against a scan.
+ */
+public class DistinctContainsTest {
+
+	/* bdistinct: keeps the last occurrence of each element */
+	static JsonArray bdistinct(JsonArray l) {
+		final JsonArray dst = new JsonArray();
+		for(int i = 0; i < l.size(); i++) {
+			boolean later = false;
+			for(int j = i + 1; j < l.size() && ! later; j++) {
+				later = TestData.same(l.get(i), l.get(j));
+			}
+			if(! later) {
+				dst.add(l.get(i));
+			}
+		}
+		return dst;
+	}
+
+	/* The first occurrence of each element, in order */
+	static JsonArray firstOccurrences(JsonArray l) {
+		final JsonArray dst = new JsonArray();
+		for(JsonElement elem : l) {
+			if(! containsSame(dst, elem)) {
+				dst.add(elem);
+			}
+		}
+		return dst;
+	}
+
+	static boolean containsSame(JsonArray l, JsonElement x) {
+		for(JsonElement elem : l) {
+			if(TestData.same(elem, x)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void examples() {
+		assertEquals(parse("[3,1,2]"), UnaryOperators.distinct(parse("[3,1,3,2,1,3]")));
+		assertEquals(parse("[]"), UnaryOperators.distinct(parse("[]")));
+		assertEquals(1, UnaryOperators.distinct(parse("[{\"a\":1,\"b\":2},{\"b\":2,\"a\":1}]")).getAsJsonArray().size());
+		assertEquals(1, UnaryOperators.distinct(parse("[[1,2,2],[2,1,2]]")).getAsJsonArray().size());
+		assertEquals(2, UnaryOperators.distinct(parse("[[1,2,2],[1,1,2]]")).getAsJsonArray().size());
+	}
+
+	@Test
+	public void agreesWithBagSemantics() {
+		final Random random = new Random(5);
+		for(int i = 0; i < 500; i++) {
+			final JsonArray bag = TestData.bag(random, random.nextInt(40));
+			final JsonArray distinct = UnaryOperators.distinct(bag).getAsJsonArray();
+			// the first occurrences are kept, in order, where bdistinct keeps the last ones
+			assertEquals(firstOccurrences(bag), distinct);
+			assertTrue(TestData.sameBag(bdistinct(bag), distinct));
+		}
+	}
+
+	@Test
+	public void containsUsesDataEquality() {
+		final JsonElement bag = parse("[1,\"a\",{\"x\":1,\"y\":[1,2]}]");
+		assertEquals(new JsonPrimitive(true), BinaryOperators.contains(new JsonPrimitive(1L), bag));
+		assertEquals(new JsonPrimitive(true), BinaryOperators.contains(parse("{\"y\":[2,1],\"x\":1}"), bag));
+		assertEquals(new JsonPrimitive(false), BinaryOperators.contains(parse("{\"x\":1}"), bag));
+		assertEquals(new JsonPrimitive(false), BinaryOperators.contains(new JsonPrimitive("b"), bag));
+		assertEquals(new JsonPrimitive(false), BinaryOperators.contains(new JsonPrimitive(1L), parse("[]")));
+	}
+
+	@Test
+	public void containsAgreesWithScan() {
+		final Random random = new Random(6);
+		for(int i = 0; i < 2000; i++) {
+			final JsonArray bag = TestData.bag(random, random.nextInt(20));
+			final JsonElement x = random.nextBoolean() && bag.size() > 0
+					? TestData.shuffled(random, bag.get(random.nextInt(bag.size())))
+					: TestData.value(random);
+			assertEquals(new JsonPrimitive(containsSame(bag, x)), BinaryOperators.contains(x, bag));
+		}
+	}
+}
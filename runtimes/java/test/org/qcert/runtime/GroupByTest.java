@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks groupby against group_by_nested_eval_table (compiler/core/Data/Operators/GroupBy.v):
+ * for each distinct key, the key fields and, in field g, the records with that key.
+ */
+public class GroupByTest {
+
+	static JsonObject key(Collection<String> fields, JsonElement rec) {
+		final JsonObject key = new JsonObject();
+		for(String field : fields) {
+			final JsonElement value = rec.getAsJsonObject().get(field);
+			if(value != null) {
+				key.add(field, value);
+			}
+		}
+		return key;
+	}
+
+	/* The groups of the distinct keys, in the order of their first occurrences */
+	static JsonArray nestedGroupBy(String g, Collection<String> fields, JsonArray coll) {
+		final JsonArray keys = new JsonArray();
+		for(JsonElement rec : coll) {
+			keys.add(key(fields, rec));
+		}
+		final JsonArray dst = new JsonArray();
+		for(JsonElement k : DistinctContainsTest.firstOccurrences(keys)) {
+			final JsonArray group = new JsonArray();
+			for(JsonElement rec : coll) {
+				if(TestData.same(key(fields, rec), k)) {
+					group.add(rec);
+				}
+			}
+			final JsonObject result = new JsonObject();
+			for(String field : fields) {
+				if(k.getAsJsonObject().has(field)) {
+					result.add(field, k.getAsJsonObject().get(field));
+				}
+			}
+			result.add(g, group);
+			dst.add(result);
+		}
+		return dst;
+	}
+
+	@Test
+	public void examples() {
+		final JsonElement coll = parse("[{\"a\":1,\"b\":\"x\",\"c\":1},{\"a\":2,\"b\":\"x\",\"c\":2},{\"b\":\"x\",\"a\":1,\"c\":3}]");
+		assertEquals(parse("[{\"a\":1,\"b\":\"x\",\"g\":[{\"a\":1,\"b\":\"x\",\"c\":1},{\"b\":\"x\",\"a\":1,\"c\":3}]},"
+				+ "{\"a\":2,\"b\":\"x\",\"g\":[{\"a\":2,\"b\":\"x\",\"c\":2}]}]"),
+				UnaryOperators.groupby("g", Arrays.asList("a", "b"), coll));
+		assertEquals(parse("[{\"g\":" + coll + "}]"), UnaryOperators.groupby("g", Arrays.<String>asList(), coll));
+		assertEquals(parse("[]"), UnaryOperators.groupby("g", Arrays.asList("a"), parse("[]")));
+	}
+
+	@Test
+	public void agreesWithNestedGroupBy() {
+		final Random random = new Random(22);
+		final List<List<String>> keys = Arrays.asList(Arrays.asList("a"), Arrays.asList("a", "b"), Arrays.asList("c", "a"));
+		for(int i = 0; i < 300; i++) {
+			final JsonArray coll = new JsonArray();
+			final int size = random.nextInt(60);
+			for(int j = 0; j < size; j++) {
+				final JsonObject rec = TestData.record(random, "a", "b", "c");
+				rec.addProperty("id", j);
+				coll.add(TestData.shuffled(random, rec));
+			}
+			for(List<String> fields : keys) {
+				assertEquals(nestedGroupBy("g", fields, coll), UnaryOperators.groupby("g", fields, coll));
+			}
+		}
+	}
+}
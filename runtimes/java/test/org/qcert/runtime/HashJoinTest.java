@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks the hash join against the nested loop it replaces in the generated code.
+ */
+public class HashJoinTest {
+
+	static final Function<JsonElement, JsonElement> KEY = x -> x.getAsJsonObject().get("k");
+
+	/* The pair of ids, as a singleton (for loops concatenate the collections of their bodies) */
+	static final BiFunction<JsonElement, JsonElement, JsonElement> PAIR = (x, y) -> {
+		final JsonObject pair = new JsonObject();
+		pair.add("x", x.getAsJsonObject().get("id"));
+		pair.add("y", y.getAsJsonObject().get("id"));
+		final JsonArray dst = new JsonArray();
+		dst.add(pair);
+		return dst;
+	};
+
+	static JsonArray nestedLoop(JsonArray probe, JsonArray build) {
+		final JsonArray dst = new JsonArray();
+		for(JsonElement x : probe) {
+			for(JsonElement y : build) {
+				if(TestData.same(KEY.apply(x), KEY.apply(y))) {
+					dst.addAll(PAIR.apply(x, y).getAsJsonArray());
+				}
+			}
+		}
+		return dst;
+	}
+
+	/* Records with an id and a key, which is a value of the test domain or a composite record */
+	static JsonArray records(Random random, int size, int keys) {
+		final JsonArray coll = new JsonArray();
+		for(int i = 0; i < size; i++) {
+			final JsonObject rec = new JsonObject();
+			rec.addProperty("id", i);
+			if(random.nextBoolean()) {
+				rec.add("k", TestData.number(random, random.nextInt(keys)));
+			} else {
+				final JsonObject key = new JsonObject();
+				key.addProperty("name", "n" + random.nextInt(keys));
+				key.add("part", TestData.number(random, random.nextInt(2)));
+				rec.add("k", TestData.shuffled(random, key));
+			}
+			coll.add(rec);
+		}
+		return coll;
+	}
+
+	@Test
+	public void examples() {
+		final JsonArray probe = parse("[{\"id\":1,\"k\":1},{\"id\":2,\"k\":2},{\"id\":3,\"k\":1}]").getAsJsonArray();
+		final JsonArray build = parse("[{\"id\":10,\"k\":1},{\"id\":11,\"k\":3},{\"id\":12,\"k\":1}]").getAsJsonArray();
+		assertEquals(parse("[{\"x\":1,\"y\":10},{\"x\":1,\"y\":12},{\"x\":3,\"y\":10},{\"x\":3,\"y\":12}]"),
+				HashJoin.join(probe, build, KEY, KEY, PAIR));
+		assertEquals(parse("[]"), HashJoin.join(probe, new JsonArray(), KEY, KEY, PAIR));
+		assertEquals(parse("[]"), HashJoin.join(new JsonArray(), build, KEY, KEY, PAIR));
+	}
+
+	@Test
+	public void agreesWithNestedLoop() {
+		final Random random = new Random(14);
+		for(int i = 0; i < 300; i++) {
+			// small build sides are scanned, larger ones hashed
+			final JsonArray probe = records(random, random.nextInt(50), 10);
+			final JsonArray build = records(random, random.nextInt(i % 2 == 0 ? 9 : 60), 10);
+			assertEquals(nestedLoop(probe, build), HashJoin.join(probe, build, KEY, KEY, PAIR));
+		}
+	}
+
+	@Test
+	public void bodiesMayProduceAnyNumberOfElements() {
+		final JsonArray probe = records(new Random(15), 40, 5);
+		final JsonArray build = records(new Random(16), 40, 5);
+		final BiFunction<JsonElement, JsonElement, JsonElement> evenPairsTwice = (x, y) -> {
+			final JsonArray dst = new JsonArray();
+			if(x.getAsJsonObject().get("id").getAsLong() % 2 == 0) {
+				dst.addAll(PAIR.apply(x, y).getAsJsonArray());
+				dst.addAll(PAIR.apply(x, y).getAsJsonArray());
+			}
+			return dst;
+		};
+		final JsonArray expected = new JsonArray();
+		for(JsonElement pair : nestedLoop(probe, build)) {
+			if(pair.getAsJsonObject().get("x").getAsLong() % 2 == 0) {
+				expected.add(pair);
+				expected.add(pair);
+			}
+		}
+		assertEquals(expected, HashJoin.join(probe, build, KEY, KEY, evenPairsTwice));
+	}
+}
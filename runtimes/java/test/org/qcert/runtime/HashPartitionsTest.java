@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks that the hash-based operators give the same results when the memory budget makes
+ * them partition their inputs as when they do not.
+ */
+public class HashPartitionsTest {
+
+	@After
+	public void resetBudget() {
+		MemoryBudget.set(Long.MAX_VALUE);
+	}
+
+	/* Evaluates an operator without a budget, then under budgets which partition its inputs */
+	private static void checkPartitioned(String name, Supplier<JsonElement> operator) {
+		MemoryBudget.set(Long.MAX_VALUE);
+		final JsonArray expected = operator.get().getAsJsonArray();
+		// from partitioning every input as deep as possible to partitioning only the larger ones
+		for(long budget : new long[] { 1, 200, 2000 }) {
+			MemoryBudget.set(budget);
+			final JsonArray actual = operator.get().getAsJsonArray();
+			assertTrue(name + " with a budget of " + budget, TestData.sameBag(expected, actual));
+		}
+		MemoryBudget.set(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void partitionedOperatorsAgree() {
+		final Random random = new Random(25);
+		final List<String> fields = Arrays.asList("a", "b");
+		for(int i = 0; i < 20; i++) {
+			final JsonArray b1 = TestData.bag(random, random.nextInt(300));
+			final JsonArray b2 = TestData.bag(random, random.nextInt(300));
+			checkPartitioned("distinct", () -> UnaryOperators.distinct(b1));
+			checkPartitioned("bag_minus", () -> BinaryOperators.bag_minus(b1, b2));
+			checkPartitioned("bag_min", () -> BinaryOperators.bag_min(b1, b2));
+			checkPartitioned("bag_max", () -> BinaryOperators.bag_max(b1, b2));
+
+			final JsonArray recs1 = HashJoinTest.records(random, random.nextInt(150), 30);
+			final JsonArray recs2 = HashJoinTest.records(random, random.nextInt(150), 30);
+			checkPartitioned("join", () -> HashJoin.join(recs1, recs2, HashJoinTest.KEY, HashJoinTest.KEY, HashJoinTest.PAIR));
+
+			final JsonArray recs = new JsonArray();
+			for(int j = 0; j < 200; j++) {
+				final JsonObject rec = TestData.record(random, "a", "b", "c");
+				rec.addProperty("id", j);
+				recs.add(rec);
+			}
+			checkPartitioned("groupby", () -> UnaryOperators.groupby("g", fields, recs));
+		}
+	}
+
+	@Test
+	public void partitionsKeepEqualValuesTogether() {
+		// all the elements are equal, so partitioning never splits them, down to the last level
+		final JsonArray same = new JsonArray();
+		final Random random = new Random(26);
+		final JsonElement rec = parse("{\"a\":1,\"b\":[1,2,3]}");
+		for(int i = 0; i < 500; i++) {
+			same.add(TestData.shuffled(random, rec));
+		}
+		MemoryBudget.set(1);
+		assertEquals(1, UnaryOperators.distinct(same).getAsJsonArray().size());
+		assertEquals(0, BinaryOperators.bag_minus(same, same).getAsJsonArray().size());
+		assertEquals(500, BinaryOperators.bag_min(same, same).getAsJsonArray().size());
+		final JsonArray grouped = UnaryOperators.groupby("g", Arrays.asList("a"), same).getAsJsonArray();
+		assertEquals(1, grouped.size());
+		assertEquals(500, grouped.get(0).getAsJsonObject().get("g").getAsJsonArray().size());
+	}
+}
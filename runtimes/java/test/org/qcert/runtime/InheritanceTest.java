@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks casts against the definition of sub_brands: each brand of the cast
+ * is an ancestor (or the same) of some brand of the value.
+ */
+public class InheritanceTest {
+
+	/* Employee <: Person <: Entity, Manager <: Employee, Student <: Person, Robot <: Entity */
+	static final String HIERARCHY = "[{\"sub\":\"Employee\",\"sup\":\"Person\"},{\"sub\":\"Person\",\"sup\":\"Entity\"},"
+			+ "{\"sub\":\"Manager\",\"sup\":\"Employee\"},{\"sub\":\"Student\",\"sup\":\"Person\"},{\"sub\":\"Robot\",\"sup\":\"Entity\"}]";
+
+	static Inheritance hierarchy() {
+		return new Inheritance(parse(HIERARCHY).getAsJsonArray());
+	}
+
+	static JsonElement branded(String... brands) {
+		final JsonObject data = new JsonObject();
+		data.addProperty("name", Arrays.toString(brands));
+		return UnaryOperators.brand(Arrays.asList(brands), data);
+	}
+
+	/* The ancestors of each brand, itself included */
+	static Map<String, Set<String>> closure(Map<String, Set<String>> parents, Collection<String> brands) {
+		final Map<String, Set<String>> dst = new HashMap<String, Set<String>>();
+		for(String brand : brands) {
+			final Set<String> ancestors = new HashSet<String>();
+			final List<String> todo = new ArrayList<String>(Collections.singleton(brand));
+			while(! todo.isEmpty()) {
+				final String next = todo.remove(todo.size() - 1);
+				if(ancestors.add(next) && parents.containsKey(next)) {
+					todo.addAll(parents.get(next));
+				}
+			}
+			dst.put(brand, ancestors);
+		}
+		return dst;
+	}
+
+	/* sub_brands: each parent brand is an ancestor of some child brand */
+	static boolean subBrands(Map<String, Set<String>> closure, Collection<String> parent, Collection<String> child) {
+		for(String p : parent) {
+			boolean found = false;
+			for(String c : child) {
+				found |= c.equals(p) || (closure.containsKey(c) && closure.get(c).contains(p));
+			}
+			if(! found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static List<String> someBrands(Random random, int count, int max) {
+		final List<String> brands = new ArrayList<String>();
+		final int size = random.nextInt(max + 1);
+		for(int i = 0; i < size; i++) {
+			// a few brands do not occur in the hierarchy
+			brands.add("B" + random.nextInt(count + 5));
+		}
+		return brands;
+	}
+
+	static JsonArray asArray(List<String> brands) {
+		final JsonArray dst = new JsonArray();
+		for(String brand : brands) {
+			dst.add(brand);
+		}
+		return dst;
+	}
+
+	@Test
+	public void casts() {
+		final Inheritance h = hierarchy();
+		final List<String> person = Arrays.asList("Person");
+		final JsonElement manager = branded("Manager");
+		assertEquals(UnaryOperators.left(manager), UnaryOperators.cast(h, person, manager));
+		assertEquals(UnaryOperators.left(manager), UnaryOperators.cast(h, Arrays.asList("Entity"), manager));
+		assertEquals(UnaryOperators.right(branded("Person")), UnaryOperators.cast(h, Arrays.asList("Manager"), branded("Person")));
+		assertEquals(UnaryOperators.right(branded("Robot")), UnaryOperators.cast(h, person, branded("Robot")));
+		assertEquals(UnaryOperators.left(branded("Person")), UnaryOperators.cast(h, person, branded("Person")));
+		// every value can be cast to no brand, and no value with no brand to some brand
+		assertEquals(UnaryOperators.left(branded("Robot")), UnaryOperators.cast(h, Collections.<String>emptyList(), branded("Robot")));
+		assertEquals(UnaryOperators.right(branded()), UnaryOperators.cast(h, person, branded()));
+	}
+
+	@Test
+	public void severalBrands() {
+		final Inheritance h = hierarchy();
+		assertTrue(h.isAssignableFrom(Arrays.asList("Employee", "Student"), Arrays.asList("Student", "Manager")));
+		assertTrue(h.isAssignableFrom(Arrays.asList("Person"), Arrays.asList("Robot", "Student")));
+		assertFalse(h.isAssignableFrom(Arrays.asList("Employee", "Robot"), Arrays.asList("Manager", "Student")));
+		assertTrue(h.isAssignableFrom(Arrays.asList("Employee", "Robot"), parse("[\"Manager\",\"Robot\"]").getAsJsonArray()));
+	}
+
+	@Test
+	public void unknownBrands() {
+		final Inheritance h = hierarchy();
+		assertTrue(h.isAssignableFrom(Arrays.asList("Alien"), Arrays.asList("Alien")));
+		assertFalse(h.isAssignableFrom(Arrays.asList("Person"), Arrays.asList("Alien")));
+		assertFalse(h.isAssignableFrom(Arrays.asList("Alien"), Arrays.asList("Person")));
+		assertTrue(h.isAssignableFrom(Arrays.asList("Entity"), Arrays.asList("Alien", "Student")));
+		// brands seen after the hierarchy was built do not change it
+		assertTrue(h.isAssignableFrom(Arrays.asList("Person"), Arrays.asList("Manager")));
+	}
+
+	@Test
+	public void closesTheHierarchy() {
+		// only the direct parents are given: the casts follow the ancestors
+		final Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+		parents.put("C", Collections.singleton("B"));
+		parents.put("B", Collections.singleton("A"));
+		final Inheritance h = new Inheritance(parents);
+		assertTrue(h.isAssignableFrom(Arrays.asList("A"), Arrays.asList("C")));
+		assertFalse(h.isAssignableFrom(Arrays.asList("C"), Arrays.asList("A")));
+	}
+
+	@Test
+	public void agreesWithSubBrands() {
+		final Random random = new Random(18);
+		for(int i = 0; i < 20; i++) {
+			// more than 64 brands, so that the bitsets take several words
+			final int count = 40 + random.nextInt(60);
+			final Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+			final List<String> brands = new ArrayList<String>();
+			final JsonArray pairs = new JsonArray();
+			for(int b = 0; b < count; b++) {
+				brands.add("B" + b);
+				final Set<String> sups = new HashSet<String>();
+				// parents have smaller numbers, so the hierarchy has no cycle
+				for(int p = 0; p < b && sups.size() < 3; p++) {
+					if(random.nextInt(b) < 2) {
+						sups.add("B" + p);
+						final JsonObject pair = new JsonObject();
+						pair.addProperty("sub", "B" + b);
+						pair.addProperty("sup", "B" + p);
+						pairs.add(pair);
+					}
+				}
+				parents.put("B" + b, sups);
+			}
+			final Map<String, Set<String>> closure = closure(parents, brands);
+			final Inheritance fromMap = new Inheritance(parents);
+			final Inheritance fromArray = new Inheritance(pairs);
+			for(int j = 0; j < 2000; j++) {
+				final List<String> parent = someBrands(random, count, 2);
+				final List<String> child = someBrands(random, count, 3);
+				final boolean expected = subBrands(closure, parent, child);
+				final String message = parent + " :> " + child;
+				assertEquals(message, expected, fromMap.isAssignableFrom(parent, child));
+				assertEquals(message, expected, fromArray.isAssignableFrom(parent, asArray(child)));
+				// the second time through the caches
+				assertEquals(message, expected, fromArray.isAssignableFrom(new ArrayList<String>(parent), asArray(child)));
+			}
+		}
+	}
+}
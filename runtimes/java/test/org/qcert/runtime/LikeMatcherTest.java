@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.qcert.runtime.UnaryOperators.AnyCharLikeClause;
+import org.qcert.runtime.UnaryOperators.AnyStringLikeClause;
+import org.qcert.runtime.UnaryOperators.LikeClause;
+import org.qcert.runtime.UnaryOperators.LiteralLikeClause;
+
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Checks the LIKE matcher against a transcription of make_like_clause and
+ * like_clause_matches_string (compiler/core/Utils/StringAdd.v), without escape character.
+ */
+public class LikeMatcherTest {
+
+	/* make_like_clause s None */
+	static List<LikeClause> makeLikeClause(String s) {
+		final List<LikeClause> clauses = new ArrayList<LikeClause>();
+		final StringBuilder literal = new StringBuilder();
+		boolean inLiteral = false;
+		for(int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if(c == '_' || c == '%') {
+				// a literal ends at the next wildcard
+				if(inLiteral) {
+					clauses.add(new LiteralLikeClause(literal.toString()));
+					literal.setLength(0);
+					inLiteral = false;
+				}
+				clauses.add(c == '_' ? new AnyCharLikeClause() : new AnyStringLikeClause());
+			} else {
+				literal.append(c);
+				inLiteral = true;
+			}
+		}
+		if(inLiteral) {
+			clauses.add(new LiteralLikeClause(literal.toString()));
+		}
+		return clauses;
+	}
+
+	/* like_clause_matches_string pat s */
+	static boolean matches(List<LikeClause> pat, String s) {
+		if(pat.isEmpty()) {
+			return s.isEmpty();
+		}
+		final LikeClause clause = pat.get(0);
+		final List<LikeClause> rest = pat.subList(1, pat.size());
+		if(clause instanceof LiteralLikeClause) {
+			final String literal = ((LiteralLikeClause) clause).getLiteral();
+			return s.startsWith(literal) && matches(rest, s.substring(literal.length()));
+		} else if(clause instanceof AnyCharLikeClause) {
+			return ! s.isEmpty() && matches(rest, s.substring(1));
+		} else {
+			// string_exists_suffix
+			for(int i = 0; i <= s.length(); i++) {
+				if(matches(rest, s.substring(i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static String randomString(Random random, String alphabet, int maxLength) {
+		final int length = random.nextInt(maxLength + 1);
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return sb.toString();
+	}
+
+	private static void check(String pattern, String s) {
+		final List<LikeClause> clauses = makeLikeClause(pattern);
+		final boolean expected = matches(clauses, s);
+		final String message = "'" + s + "' like '" + pattern + "'";
+		assertEquals(message, expected, LikeMatcher.compile(pattern).matches(s));
+		final LikeClause[] array = clauses.toArray(new LikeClause[clauses.size()]);
+		assertEquals(message, expected, LikeMatcher.of(array).matches(s));
+		assertEquals(message, new JsonPrimitive(expected), UnaryOperators.string_like(array, new JsonPrimitive(s)));
+	}
+
+	@Test
+	public void examplesOfStringAdd() {
+		assertTrue(LikeMatcher.compile("hello there").matches("hello there"));
+		assertTrue(LikeMatcher.compile("hello %there").matches("hello there"));
+		assertTrue(LikeMatcher.compile("he%th_re").matches("hello there"));
+		assertFalse(LikeMatcher.compile("he%th_re").matches("hello there "));
+		assertTrue(LikeMatcher.compile("he%th_re").matches("hello thethare"));
+		assertFalse(LikeMatcher.compile("he%th_re").matches("hello thetheare"));
+	}
+
+	@Test
+	public void patternShapes() {
+		final String[] patterns = { "", "%", "%%", "_", "abc", "abc%", "%abc", "%abc%", "a%b%c", "%a%b%", "ab%%ba",
+				"a_c", "%a_", "_%_", "a%_%a", "%.*%", "a.c", "a\\b" };
+		final String[] strings = { "", "a", "abc", "abcabc", "aXc", "ab", "ba", "abba", "abxba", "a.c", ".*", "a\\b", "aa" };
+		for(String pattern : patterns) {
+			for(String s : strings) {
+				check(pattern, s);
+			}
+		}
+	}
+
+	@Test
+	public void agreesWithClauseSemantics() {
+		final Random random = new Random(17);
+		for(int i = 0; i < 20000; i++) {
+			check(randomString(random, "ab%_.", 7), randomString(random, "ab.", 8));
+		}
+	}
+
+	@Test
+	public void otherClausesUseTheirRegularExpressions() {
+		// a clause which is none of those of UnaryOperators
+		final LikeClause digit = new LikeClause() {
+			@Override
+			public String getRegex() {
+				return "[0-9]";
+			}
+		};
+		final LikeMatcher matcher = LikeMatcher.of(new LikeClause[] { new LiteralLikeClause("a."), digit, new AnyStringLikeClause() });
+		assertTrue(matcher.matches("a.1"));
+		assertTrue(matcher.matches("a.1xyz"));
+		assertFalse(matcher.matches("ab1"));
+		assertFalse(matcher.matches("a.x"));
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks that parallel loops give the results of sequential ones, in the same order, and
+ * that the threshold and the replacement of the pool are honoured.
+ */
+public class ParallelLoopsTest {
+
+	@Before
+	public void enable() {
+		ParallelLoops.setParallel(true);
+		ParallelLoops.setThreshold(2);
+		ParallelLoops.setParallelism(4);
+	}
+
+	@After
+	public void restore() {
+		ParallelLoops.setParallel(false);
+		ParallelLoops.setThreshold(1024);
+		ParallelLoops.setParallelism(0);
+	}
+
+	private static JsonArray range(int size) {
+		final JsonArray src = new JsonArray();
+		for(int i = 0; i < size; i++) {
+			src.add(new JsonPrimitive(i));
+		}
+		return src;
+	}
+
+	private static final Function<JsonElement, JsonElement> TWICE = e -> new JsonPrimitive(2 * e.getAsLong());
+
+	private static void assertTwice(int size, JsonArray dst) {
+		assertEquals(size, dst.size());
+		for(int i = 0; i < size; i++) {
+			assertEquals(2L * i, dst.get(i).getAsLong());
+		}
+	}
+
+	/* A body which takes some time and records the threads which run it */
+	private static Function<JsonElement, JsonElement> recording(Set<Thread> threads) {
+		return e -> {
+			threads.add(Thread.currentThread());
+			try {
+				Thread.sleep(1);
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return TWICE.apply(e);
+		};
+	}
+
+	@Test
+	public void keepsTheOrder() {
+		for(int size : new int[] { 0, 1, 2, 3, 17, 1000, 100000 }) {
+			assertTwice(size, ParallelLoops.map(range(size), TWICE));
+		}
+	}
+
+	@Test
+	public void keepsTheOrderOfUnevenBodies() {
+		// later elements finish first
+		final int size = 200;
+		final JsonArray dst = ParallelLoops.map(range(size), e -> {
+			try {
+				Thread.sleep((size - e.getAsLong()) / 50);
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return TWICE.apply(e);
+		});
+		assertTwice(size, dst);
+	}
+
+	@Test
+	public void smallLoopsStaySequential() {
+		ParallelLoops.setThreshold(500);
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		assertTwice(499, ParallelLoops.map(range(499), recording(threads)));
+		assertEquals(1, threads.size());
+		assertTrue(threads.contains(Thread.currentThread()));
+
+		threads.clear();
+		assertTwice(500, ParallelLoops.map(range(500), recording(threads)));
+		boolean workers = false;
+		for(Thread t : threads) {
+			workers |= t instanceof ForkJoinWorkerThread;
+		}
+		assertTrue(workers);
+	}
+
+	@Test
+	public void disabledLoopsStaySequential() {
+		ParallelLoops.setParallel(false);
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		assertTwice(300, ParallelLoops.map(range(300), recording(threads)));
+		assertEquals(1, threads.size());
+		assertTrue(threads.contains(Thread.currentThread()));
+	}
+
+	@Test
+	public void propagatesExceptions() {
+		for(int size : new int[] { 1, 1000 }) {
+			try {
+				ParallelLoops.map(range(size), e -> {
+					if(e.getAsLong() == size / 2) {
+						throw new IllegalStateException("failed at " + e);
+					}
+					return e;
+				});
+				fail("no exception for a loop of " + size);
+			} catch(IllegalStateException e) {
+				assertTrue(e.toString(), String.valueOf(e.getMessage()).contains("failed at " + (size / 2)));
+			}
+		}
+	}
+
+	@Test
+	public void nestedLoops() {
+		final JsonArray dst = ParallelLoops.map(range(50), e -> ParallelLoops.map(range(e.getAsInt()), TWICE));
+		assertEquals(50, dst.size());
+		for(int i = 0; i < 50; i++) {
+			assertTwice(i, dst.get(i).getAsJsonArray());
+		}
+	}
+
+	@Test
+	public void retiredPoolIsShutDownOnceItsLoopsAreDone() {
+		final AtomicReference<ForkJoinPool> used = new AtomicReference<>();
+		final AtomicBoolean shutDownEarly = new AtomicBoolean();
+		assertTwice(400, ParallelLoops.map(range(400), e -> {
+			final ForkJoinPool pool = ForkJoinTask.getPool();
+			if(pool != null) {
+				// replaced by the first body which runs on it, while the others are still to come
+				if(used.compareAndSet(null, pool)) {
+					ParallelLoops.setParallelism(3);
+				}
+				if(pool.isShutdown()) {
+					shutDownEarly.set(true);
+				}
+			}
+			return recording(ConcurrentHashMap.newKeySet()).apply(e);
+		}));
+		assertNotNull(used.get());
+		assertFalse(shutDownEarly.get());
+		assertTrue(used.get().isShutdown());
+		// the new pool is used
+		assertTwice(400, ParallelLoops.map(range(400), TWICE));
+	}
+
+	@Test
+	public void poolCanBeReplacedWhileLoopsRun() throws InterruptedException {
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final Thread[] loops = new Thread[2];
+		for(int t = 0; t < loops.length; t++) {
+			loops[t] = new Thread(() -> {
+				try {
+					for(int i = 0; i < 500; i++) {
+						// nested, so that loops also start on a pool while an outer one runs on it
+						final JsonArray dst = ParallelLoops.map(range(4), e -> ParallelLoops.map(range(10), TWICE));
+						for(JsonElement inner : dst) {
+							assertTwice(10, inner.getAsJsonArray());
+						}
+					}
+				} catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			loops[t].start();
+		}
+		for(Thread t : loops) {
+			for(int i = 0; t.isAlive(); i++) {
+				ParallelLoops.setParallelism(2 + i % 3);
+				Thread.yield();
+			}
+			t.join();
+		}
+		if(failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+}
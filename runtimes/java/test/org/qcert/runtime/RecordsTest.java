@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.google.gson.*;
+
+/**
+ * Checks record concatenation (rec_concat, where the fields of the second record take
+ * precedence), merge (rec_merge, which requires the common fields to be equal) and
+ * projection.
+ */
+public class RecordsTest {
+
+	/* The fields of both records, in key order, with those of rec2 for the fields of both */
+	static TreeMap<String, JsonElement> concat(JsonObject rec1, JsonObject rec2) {
+		final TreeMap<String, JsonElement> dst = new TreeMap<String, JsonElement>();
+		for(Entry<String, JsonElement> field : rec1.entrySet()) {
+			dst.put(field.getKey(), field.getValue());
+		}
+		for(Entry<String, JsonElement> field : rec2.entrySet()) {
+			dst.put(field.getKey(), field.getValue());
+		}
+		return dst;
+	}
+
+	static boolean compatible(JsonObject rec1, JsonObject rec2) {
+		for(Entry<String, JsonElement> field : rec1.entrySet()) {
+			final JsonElement other = rec2.get(field.getKey());
+			if(other != null && ! TestData.same(field.getValue(), other)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Checks the fields, their order, and that the values are those of the records */
+	static void assertFields(TreeMap<String, JsonElement> expected, JsonObject actual) {
+		final List<String> keys = new ArrayList<String>();
+		for(Entry<String, JsonElement> field : actual.entrySet()) {
+			keys.add(field.getKey());
+			assertSame(field.getKey(), expected.get(field.getKey()), field.getValue());
+		}
+		assertEquals(new ArrayList<String>(expected.keySet()), keys);
+	}
+
+	@Test
+	public void examples() {
+		assertEquals(parse("{\"a\":1,\"b\":3,\"c\":4}"), BinaryOperators.concat(parse("{\"a\":1,\"b\":2}"), parse("{\"b\":3,\"c\":4}")));
+		assertEquals(parse("{\"a\":1,\"b\":3,\"c\":4}"), BinaryOperators.concat(parse("{\"b\":2,\"a\":1}"), parse("{\"c\":4,\"b\":3}")));
+		assertEquals(parse("{}"), BinaryOperators.concat(parse("{}"), parse("{}")));
+		assertEquals(parse("[{\"a\":1,\"b\":2,\"c\":4}]"), BinaryOperators.mergeConcat(parse("{\"a\":1,\"b\":2}"), parse("{\"c\":4,\"b\":2}")));
+		assertEquals(parse("[]"), BinaryOperators.mergeConcat(parse("{\"a\":1,\"b\":2}"), parse("{\"b\":3,\"c\":4}")));
+		// the common fields are compared as data
+		assertEquals(1, BinaryOperators.mergeConcat(parse("{\"a\":{\"x\":1,\"y\":2}}"), parse("{\"a\":{\"y\":2,\"x\":1}}")).getAsJsonArray().size());
+	}
+
+	@Test
+	public void agreesOnSortedAndUnsortedRecords() {
+		final Random random = new Random(21);
+		for(int i = 0; i < 10000; i++) {
+			// the records of the test data have their fields in a random order
+			final JsonObject rec1 = TestData.record(random, "a", "b", "c", "d", "e");
+			final JsonObject rec2 = TestData.record(random, "b", "d", "f");
+			for(JsonObject[] recs : new JsonObject[][] {
+				{ rec1, rec2 },
+				{ DataComparatorTest.sortedFields(rec1).getAsJsonObject(), DataComparatorTest.sortedFields(rec2).getAsJsonObject() } }) {
+				final TreeMap<String, JsonElement> expected = concat(recs[0], recs[1]);
+				assertFields(expected, BinaryOperators.concat(recs[0], recs[1]).getAsJsonObject());
+				final JsonArray merged = BinaryOperators.mergeConcat(recs[0], recs[1]).getAsJsonArray();
+				if(compatible(recs[0], recs[1])) {
+					assertEquals(1, merged.size());
+					assertFields(expected, merged.get(0).getAsJsonObject());
+				} else {
+					assertEquals(0, merged.size());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void inputsAreNotModified() {
+		final JsonObject rec1 = parse("{\"c\":1,\"a\":2}").getAsJsonObject();
+		final JsonObject rec2 = parse("{\"b\":3,\"a\":4}").getAsJsonObject();
+		BinaryOperators.concat(rec1, rec2);
+		BinaryOperators.mergeConcat(rec1, rec2);
+		UnaryOperators.project(Arrays.asList("a", "c"), rec1);
+		assertEquals("{\"c\":1,\"a\":2}", rec1.toString());
+		assertEquals("{\"b\":3,\"a\":4}", rec2.toString());
+	}
+
+	/* The fields of the record with some keys, in the order of the record */
+	static List<String> project(List<String> keys, JsonObject rec) {
+		final List<String> dst = new ArrayList<String>();
+		for(Entry<String, JsonElement> field : rec.entrySet()) {
+			if(keys.contains(field.getKey())) {
+				dst.add(field.getKey());
+			}
+		}
+		return dst;
+	}
+
+	static void assertProjection(List<String> keys, JsonObject rec, JsonObject actual) {
+		final List<String> fields = new ArrayList<String>();
+		for(Entry<String, JsonElement> field : actual.entrySet()) {
+			fields.add(field.getKey());
+			assertSame(field.getKey(), rec.get(field.getKey()), field.getValue());
+		}
+		assertEquals(keys + " of " + rec, project(keys, rec), fields);
+	}
+
+	@Test
+	public void projectionExamples() {
+		assertEquals(parse("{\"a\":1,\"c\":3}"), UnaryOperators.project(Arrays.asList("a", "c"), parse("{\"a\":1,\"b\":2,\"c\":3}")));
+		assertEquals(parse("{\"c\":3,\"a\":1}"), UnaryOperators.project(Arrays.asList("a", "c"), parse("{\"c\":3,\"b\":2,\"a\":1}")));
+		assertEquals(parse("{\"a\":1,\"c\":3}"), UnaryOperators.project(Arrays.asList("c", "x", "a"), parse("{\"a\":1,\"b\":2,\"c\":3}")));
+		assertEquals(parse("{}"), UnaryOperators.project(Collections.<String>emptyList(), parse("{\"a\":1}")));
+		assertEquals(parse("{}"), UnaryOperators.project(Arrays.asList("a"), parse("{}")));
+	}
+
+	@Test
+	public void projectionAgreesOnSortedAndUnsortedRecordsAndKeys() {
+		final Random random = new Random(22);
+		final List<String> names = Arrays.asList("a", "b", "c", "d", "e", "f");
+		for(int i = 0; i < 10000; i++) {
+			final JsonObject rec = TestData.record(random, "a", "b", "c", "d", "e");
+			// some keys, possibly repeated, possibly not in the record
+			final List<String> keys = new ArrayList<String>();
+			for(int k = random.nextInt(5); k > 0; k--) {
+				keys.add(names.get(random.nextInt(names.size())));
+			}
+			final List<String> sortedKeys = new ArrayList<String>(new TreeSet<String>(keys));
+			for(JsonObject r : new JsonObject[] { rec, DataComparatorTest.sortedFields(rec).getAsJsonObject() }) {
+				assertProjection(keys, r, UnaryOperators.project(keys, r).getAsJsonObject());
+				assertProjection(sortedKeys, r, UnaryOperators.project(sortedKeys, r).getAsJsonObject());
+				assertProjection(sortedKeys, r, UnaryOperators.project(new HashSet<String>(keys), r).getAsJsonObject());
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import static org.junit.Assert.*;
+import static org.qcert.runtime.TestData.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.qcert.runtime.Sorter.SortCriterion;
+
+import com.google.gson.*;
+
+public class SorterTest {
+
+	/* Records with an id, in input order, and duplicate sort keys */
+	static JsonArray records(Random random, int size) {
+		final JsonArray coll = new JsonArray();
+		for(int i = 0; i < size; i++) {
+			final JsonObject rec = new JsonObject();
+			rec.addProperty("id", i);
+			rec.add("k1", TestData.number(random, random.nextInt(5)));
+			rec.addProperty("k2", "s" + random.nextInt(5));
+			coll.add(rec);
+		}
+		return coll;
+	}
+
+	/* A stable sort of the records with the comparator on the fields */
+	static List<Long> expectedIds(final List<SortCriterion> criteria, JsonArray coll) {
+		final List<JsonObject> recs = new ArrayList<JsonObject>();
+		for(JsonElement elem : coll) {
+			recs.add(elem.getAsJsonObject());
+		}
+		Collections.sort(recs, new Comparator<JsonObject>() {
+			@Override
+			public int compare(JsonObject r1, JsonObject r2) {
+				for(SortCriterion crit : criteria) {
+					final int c = DataComparator.getComparator().compare(r1.get(crit.getField()), r2.get(crit.getField()));
+					if(c != 0) {
+						return crit.isDescending() ? -c : c;
+					}
+				}
+				return 0;
+			}
+		});
+		final List<Long> ids = new ArrayList<Long>();
+		for(JsonObject rec : recs) {
+			ids.add(rec.get("id").getAsLong());
+		}
+		return ids;
+	}
+
+	static List<Long> ids(Iterable<JsonElement> coll) {
+		final List<Long> ids = new ArrayList<Long>();
+		for(JsonElement elem : coll) {
+			ids.add(elem.getAsJsonObject().get("id").getAsLong());
+		}
+		return ids;
+	}
+
+	@Test
+	public void examples() {
+		final JsonElement coll = parse("[{\"a\":2,\"b\":\"x\"},{\"a\":1,\"b\":\"y\"},{\"a\":2,\"b\":\"y\"},{\"a\":1,\"b\":\"x\"}]");
+		assertEquals(parse("[{\"a\":1,\"b\":\"y\"},{\"a\":1,\"b\":\"x\"},{\"a\":2,\"b\":\"x\"},{\"a\":2,\"b\":\"y\"}]"),
+				UnaryOperators.sort(Arrays.asList(SortCriterion.asc("a")), coll));
+		assertEquals(parse("[{\"a\":1,\"b\":\"y\"},{\"a\":2,\"b\":\"y\"},{\"a\":1,\"b\":\"x\"},{\"a\":2,\"b\":\"x\"}]"),
+				UnaryOperators.sort(Arrays.asList(SortCriterion.desc("b"), SortCriterion.asc("a")), coll));
+		assertEquals(coll, UnaryOperators.sort(Collections.<SortCriterion>emptyList(), coll));
+		assertEquals(parse("[]"), UnaryOperators.sort(Arrays.asList(SortCriterion.asc("a")), parse("[]")));
+	}
+
+	@Test
+	public void isStable() {
+		final Random random = new Random(10);
+		final List<List<SortCriterion>> criteria = Arrays.asList(
+				Arrays.asList(SortCriterion.asc("k1")),
+				Arrays.asList(SortCriterion.desc("k1")),
+				Arrays.asList(SortCriterion.asc("k2"), SortCriterion.desc("k1")),
+				Arrays.asList(SortCriterion.desc("k2"), SortCriterion.asc("k1")));
+		for(int i = 0; i < 200; i++) {
+			final JsonArray coll = records(random, random.nextInt(100));
+			for(List<SortCriterion> crits : criteria) {
+				assertEquals(expectedIds(crits, coll), ids(Sorter.sort(crits, coll)));
+			}
+		}
+	}
+
+	@Test
+	public void keepsTheElements() {
+		final JsonArray coll = records(new Random(11), 1000);
+		final JsonArray sorted = Sorter.sort(Arrays.asList(SortCriterion.asc("k2"), SortCriterion.asc("k1")), coll);
+		// the elements themselves, not copies
+		for(JsonElement elem : sorted) {
+			assertSame(coll.get(elem.getAsJsonObject().get("id").getAsInt()), elem);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import com.google.gson.*;
+
+/**
+ * Reproducible data for the behavior tests.
+ *
+ * Values are drawn from a small domain, so that bags have duplicates, and
+ * equal values are given different representations: numbers parsed lazily
+ * or not, record fields and collection elements in different orders.
+ * The reference implementations in the tests use the equality of the
+ * comparator (compare returns 0).
+ */
+final class TestData {
+	private TestData() {
+	}
+
+	static JsonElement parse(String json) {
+		return new JsonParser().parse(json);
+	}
+
+	/* A scalar, record or collection, with lazily parsed numbers about half of the time */
+	static JsonElement value(Random random) {
+		switch(random.nextInt(6)) {
+		case 0:
+			return number(random, random.nextInt(5));
+		case 1:
+			return new JsonPrimitive("s" + random.nextInt(4));
+		case 2:
+			return random.nextBoolean() ? JsonNull.INSTANCE : new JsonPrimitive(random.nextBoolean());
+		case 3:
+		case 4:
+			return record(random, "a", "b", "c");
+		default:
+			final JsonArray coll = new JsonArray();
+			final int size = random.nextInt(3);
+			for(int i = 0; i < size; i++) {
+				coll.add(number(random, random.nextInt(3)));
+			}
+			return coll;
+		}
+	}
+
+	static JsonElement number(Random random, long value) {
+		return random.nextBoolean() ? new JsonPrimitive(value) : parse(Long.toString(value));
+	}
+
+	/* A record with some of the given fields, in a random order */
+	static JsonObject record(Random random, String... fields) {
+		final List<String> names = new ArrayList<String>();
+		for(String field : fields) {
+			if(random.nextInt(4) != 0) {
+				names.add(field);
+			}
+		}
+		Collections.shuffle(names, random);
+		final JsonObject rec = new JsonObject();
+		for(String name : names) {
+			rec.add(name, random.nextBoolean() ? number(random, random.nextInt(3)) : new JsonPrimitive("v" + random.nextInt(2)));
+		}
+		return rec;
+	}
+
+	static JsonArray bag(Random random, int size) {
+		final JsonArray bag = new JsonArray();
+		for(int i = 0; i < size; i++) {
+			bag.add(value(random));
+		}
+		return bag;
+	}
+
+	/* An equal copy of a value, with its record fields and collection elements shuffled */
+	static JsonElement shuffled(Random random, JsonElement e) {
+		if(e.isJsonObject()) {
+			final List<Entry<String, JsonElement>> fields = new ArrayList<Entry<String, JsonElement>>(e.getAsJsonObject().entrySet());
+			Collections.shuffle(fields, random);
+			final JsonObject dst = new JsonObject();
+			for(Entry<String, JsonElement> field : fields) {
+				dst.add(field.getKey(), shuffled(random, field.getValue()));
+			}
+			return dst;
+		} else if(e.isJsonArray()) {
+			final List<JsonElement> elems = new ArrayList<JsonElement>();
+			for(JsonElement elem : e.getAsJsonArray()) {
+				elems.add(shuffled(random, elem));
+			}
+			Collections.shuffle(elems, random);
+			final JsonArray dst = new JsonArray();
+			for(JsonElement elem : elems) {
+				dst.add(elem);
+			}
+			return dst;
+		} else if(e.isJsonPrimitive() && e.getAsJsonPrimitive().isNumber()) {
+			return parse(e.toString());
+		}
+		return e;
+	}
+
+	static boolean same(JsonElement e1, JsonElement e2) {
+		return DataComparator.getComparator().compare(e1, e2) == 0;
+	}
+
+	/* Whether two bags have the same elements, with the same number of occurrences */
+	static boolean sameBag(JsonArray b1, JsonArray b2) {
+		if(b1.size() != b2.size()) {
+			return false;
+		}
+		final List<JsonElement> rest = new ArrayList<JsonElement>();
+		for(JsonElement elem : b2) {
+			rest.add(elem);
+		}
+		for(JsonElement elem : b1) {
+			boolean found = false;
+			for(int i = 0; i < rest.size() && ! found; i++) {
+				if(same(elem, rest.get(i))) {
+					rest.remove(i);
+					found = true;
+				}
+			}
+			if(! found) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
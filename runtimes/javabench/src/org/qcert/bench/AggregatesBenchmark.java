@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.bench;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.qcert.runtime.UnaryOperators;
+
+import com.google.gson.*;
+
+/**
+ * The aggregates, over bags of nats and of floats, and the group-by of records (by one
+ * of a hundred keys) on which aggregates are typically computed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AggregatesBenchmark {
+	@Param({"100", "10000", "1000000"})
+	public int size;
+
+	@Param({"0.0", "0.5"})
+	public double duplicateRatio;
+
+	private JsonArray nats;
+	/* list_min and list_max take unboxed integers */
+	private JsonArray longs;
+	private JsonArray floats;
+	private JsonArray records;
+	private static final Collection<String> GROUP_KEYS = Collections.singletonList("key");
+
+	@Setup
+	public void setup() {
+		final DataGenerator gen = new DataGenerator(42);
+		nats = gen.nats(size, duplicateRatio);
+		longs = new JsonArray();
+		for(JsonElement nat : nats) {
+			longs.add(nat.getAsJsonObject().get("$nat"));
+		}
+		floats = gen.floats(size);
+		records = new JsonArray();
+		for(JsonElement value : longs) {
+			final JsonObject rec = new JsonObject();
+			rec.addProperty("key", value.getAsLong() % 100);
+			rec.add("value", value);
+			records.add(rec);
+		}
+	}
+
+	@Benchmark
+	public JsonElement count() {
+		return UnaryOperators.count(nats);
+	}
+
+	@Benchmark
+	public JsonElement sum() {
+		return UnaryOperators.sum(nats);
+	}
+
+	@Benchmark
+	public JsonElement list_mean() {
+		return UnaryOperators.list_mean(nats);
+	}
+
+	@Benchmark
+	public JsonElement list_min() {
+		return UnaryOperators.list_min(longs);
+	}
+
+	@Benchmark
+	public JsonElement list_max() {
+		return UnaryOperators.list_max(longs);
+	}
+
+	@Benchmark
+	public JsonElement float_sum() {
+		return UnaryOperators.float_sum(floats);
+	}
+
+	@Benchmark
+	public JsonElement float_list_mean() {
+		return UnaryOperators.float_list_mean(floats);
+	}
+
+	@Benchmark
+	public JsonElement float_list_min() {
+		return UnaryOperators.float_list_min(floats);
+	}
+
+	@Benchmark
+	public JsonElement float_list_max() {
+		return UnaryOperators.float_list_max(floats);
+	}
+
+	@Benchmark
+	public JsonElement groupby() {
+		return UnaryOperators.groupby("group", GROUP_KEYS, records);
+	}
+}
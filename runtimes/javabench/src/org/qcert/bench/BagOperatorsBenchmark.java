@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.UnaryOperators;
+
+import com.google.gson.*;
+
+/**
+ * Bag and record operators, on bags of records of varying size, width, nesting depth
+ * and proportion of duplicates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BagOperatorsBenchmark {
+	@Param({"100", "10000"})
+	public int size;
+
+	@Param({"4", "16"})
+	public int width;
+
+	@Param({"0", "2"})
+	public int depth;
+
+	@Param({"0.0", "0.5"})
+	public double duplicateRatio;
+
+	private JsonArray bag;
+	private JsonArray other;
+	private JsonArray shuffled;
+	private JsonElement present;
+	private JsonElement absent;
+	private JsonObject rec1;
+	private JsonObject rec2;
+	private JsonObject rec2Compatible;
+
+	@Setup
+	public void setup() {
+		final DataGenerator gen = new DataGenerator(42);
+		bag = gen.bag(size, width, depth, duplicateRatio);
+		// shares about half of its elements with bag
+		other = gen.shuffledCopy(bag);
+		final JsonArray fresh = gen.bag(size / 2, width, depth, duplicateRatio);
+		for(int i = 0; i < fresh.size(); i++) {
+			other.set(i, fresh.get(i));
+		}
+		shuffled = gen.shuffledCopy(bag);
+		present = gen.shuffledCopy(bag).get(0);
+		absent = gen.record(width, depth);
+		rec1 = gen.record(width, depth);
+		rec2 = new JsonObject();
+		rec2Compatible = new JsonObject();
+		final JsonObject rec3 = gen.record(width, depth);
+		for(int i = 0; i < width; i++) {
+			// half of the fields in common with rec1
+			final String field = "f" + (i + width / 2);
+			rec2.add(field, rec3.get("f" + i));
+			rec2Compatible.add(field, rec1.has(field) ? rec1.get(field) : rec3.get("f" + i));
+		}
+	}
+
+	@Benchmark
+	public JsonElement distinct() {
+		return UnaryOperators.distinct(bag);
+	}
+
+	@Benchmark
+	public JsonElement bag_minus() {
+		return BinaryOperators.bag_minus(bag, other);
+	}
+
+	@Benchmark
+	public JsonElement containsPresent() {
+		return BinaryOperators.contains(present, bag);
+	}
+
+	@Benchmark
+	public JsonElement containsAbsent() {
+		return BinaryOperators.contains(absent, bag);
+	}
+
+	@Benchmark
+	public JsonElement union() {
+		return BinaryOperators.union(bag, other);
+	}
+
+	@Benchmark
+	public JsonElement equalsBags() {
+		return BinaryOperators.equals(bag, shuffled);
+	}
+
+	@Benchmark
+	public JsonElement concat() {
+		return BinaryOperators.concat(rec1, rec2);
+	}
+
+	@Benchmark
+	public JsonElement mergeConcat() {
+		return BinaryOperators.mergeConcat(rec1, rec2Compatible);
+	}
+
+	@Benchmark
+	public JsonElement mergeConcatConflict() {
+		return BinaryOperators.mergeConcat(rec1, rec2);
+	}
+}
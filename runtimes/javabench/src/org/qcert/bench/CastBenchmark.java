@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.qcert.runtime.Inheritance;
+import org.qcert.runtime.UnaryOperators;
+
+import com.google.gson.*;
+
+/**
+ * Casts of branded values, for class hierarchies of varying depth.  The hierarchy is
+ * a tree of the given depth and fan-out, whose leaves brand the values; the casts are
+ * to the root (which always succeeds), to a class in the middle, and to a leaf.
+ * The time is for a bag of values.  The instances benchmarks select the values of a class
+ * with the brand index of the hierarchy, as do the loops over the instances of a class.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CastBenchmark {
+	private static final int FANOUT = 3;
+
+	@Param({"1000"})
+	public int size;
+
+	@Param({"2", "6"})
+	public int depth;
+
+	private Inheritance inheritance;
+	private List<JsonElement> values;
+	private JsonArray world;
+	private Collection<String> root;
+	private Collection<String> middle;
+	private Collection<String> leaf;
+
+	@Setup
+	public void setup() {
+		final JsonArray hierarchy = new JsonArray();
+		List<String> level = Collections.singletonList("C");
+		String middleClass = "C";
+		for(int d = 1; d <= depth; d++) {
+			final List<String> next = new ArrayList<String>();
+			for(String parent : level) {
+				for(int i = 0; i < FANOUT; i++) {
+					final String child = parent + i;
+					next.add(child);
+					// the inheritance relation is transitively closed
+					for(int len = 1; len <= parent.length(); len++) {
+						final JsonObject sub = new JsonObject();
+						sub.addProperty("sub", child);
+						sub.addProperty("sup", child.substring(0, len));
+						hierarchy.add(sub);
+					}
+				}
+			}
+			if(d == depth / 2) {
+				middleClass = next.get(0);
+			}
+			level = next;
+		}
+		inheritance = new Inheritance(hierarchy);
+		final DataGenerator gen = new DataGenerator(42);
+		final Random random = new Random(42);
+		values = new ArrayList<JsonElement>(size);
+		for(int i = 0; i < size; i++) {
+			final JsonArray brands = new JsonArray();
+			brands.add(new JsonPrimitive(level.get(random.nextInt(level.size()))));
+			final JsonObject branded = new JsonObject();
+			branded.add("$class", brands);
+			branded.add("$data", gen.record(4, 0));
+			values.add(branded);
+		}
+		world = new JsonArray();
+		for(JsonElement value : values) {
+			world.add(value);
+		}
+		root = Collections.singletonList("C");
+		middle = Collections.singletonList(middleClass);
+		leaf = Collections.singletonList(level.get(0));
+	}
+
+	private void castAll(Collection<String> brands, Blackhole bh) {
+		for(JsonElement value : values) {
+			bh.consume(UnaryOperators.cast(inheritance, brands, value));
+		}
+	}
+
+	@Benchmark
+	public void castToRoot(Blackhole bh) {
+		castAll(root, bh);
+	}
+
+	@Benchmark
+	public void castToMiddle(Blackhole bh) {
+		castAll(middle, bh);
+	}
+
+	@Benchmark
+	public void castToLeaf(Blackhole bh) {
+		castAll(leaf, bh);
+	}
+
+	@Benchmark
+	public JsonArray instancesOfMiddle() {
+		return UnaryOperators.instances(inheritance, middle, world);
+	}
+
+	@Benchmark
+	public JsonArray instancesOfLeaf() {
+		return UnaryOperators.instances(inheritance, leaf, world);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.qcert.runtime.DataComparator;
+
+import com.google.gson.*;
+
+/**
+ * The data comparator, sorting bags of records (which compares records field by
+ * field) with the shared comparator and with a caching one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComparatorBenchmark {
+	@Param({"100", "10000"})
+	public int size;
+
+	@Param({"4", "16"})
+	public int width;
+
+	@Param({"0", "2"})
+	public int depth;
+
+	@Param({"0.0", "0.5"})
+	public double duplicateRatio;
+
+	private List<JsonElement> elems;
+
+	@Setup
+	public void setup() {
+		final JsonArray bag = new DataGenerator(42).bag(size, width, depth, duplicateRatio);
+		elems = new ArrayList<JsonElement>(bag.size());
+		for(JsonElement elem : bag) {
+			elems.add(elem);
+		}
+	}
+
+	@Benchmark
+	public List<JsonElement> sort() {
+		final List<JsonElement> copy = new ArrayList<JsonElement>(elems);
+		Collections.sort(copy, DataComparator.getComparator());
+		return copy;
+	}
+
+	@Benchmark
+	public List<JsonElement> sortCaching() {
+		final List<JsonElement> copy = new ArrayList<JsonElement>(elems);
+		Collections.sort(copy, DataComparator.newCachingComparator());
+		return copy;
+	}
+}
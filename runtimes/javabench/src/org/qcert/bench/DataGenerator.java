@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.google.gson.*;
+
+/**
+ * Generates (deterministic, pseudo-random) Q*cert data for the benchmarks.
+ *
+ * <p>Records have <b>width</b> fields, named <b>f0</b>, <b>f1</b>, ... whose values are
+ * nats, floats and strings in turn.  With a <b>depth</b> above 0, the last field of a record
+ * holds a nested bag of records, down to that depth.  A <b>duplicate ratio</b> is the
+ * fraction of the elements of a bag which are equal to an earlier element: duplicates are
+ * generated again from the same seed, so that they are equal but distinct objects (as they
+ * would be when read from JSON).
+ */
+public final class DataGenerator {
+	/* The size of the bags nested in records */
+	private static final int NESTED_SIZE = 3;
+
+	private final Random random;
+
+	/**
+	 * @param seed the seed, making the data reproducible
+	 */
+	public DataGenerator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param size the number of records
+	 * @param width the number of fields of each record
+	 * @param depth the nesting depth of the records
+	 * @param duplicateRatio the fraction of records equal to an earlier one
+	 * @return a bag of records
+	 */
+	public JsonArray bag(int size, int width, int depth, double duplicateRatio) {
+		final JsonArray bag = new JsonArray();
+		for(long seed : seeds(size, duplicateRatio)) {
+			bag.add(record(new Random(seed), width, depth));
+		}
+		return bag;
+	}
+
+	/**
+	 * @param width the number of fields
+	 * @param depth the nesting depth
+	 * @return a record
+	 */
+	public JsonObject record(int width, int depth) {
+		return record(new Random(random.nextLong()), width, depth);
+	}
+
+	/**
+	 * @param size the number of nats
+	 * @param duplicateRatio the fraction of nats equal to an earlier one
+	 * @return a bag of (boxed) nats
+	 */
+	public JsonArray nats(int size, double duplicateRatio) {
+		final JsonArray bag = new JsonArray();
+		for(long seed : seeds(size, duplicateRatio)) {
+			bag.add(nat(new Random(seed).nextInt(1 << 20)));
+		}
+		return bag;
+	}
+
+	/**
+	 * @param size the number of floats
+	 * @return a bag of floats
+	 */
+	public JsonArray floats(int size) {
+		final JsonArray bag = new JsonArray();
+		for(int i = 0; i < size; i++) {
+			bag.add(new JsonPrimitive(random.nextDouble() * 1000));
+		}
+		return bag;
+	}
+
+	/**
+	 * @param length the length of the string
+	 * @return a string of lower case letters
+	 */
+	public String string(int length) {
+		return string(random, length);
+	}
+
+	/**
+	 * @param size the number of dates
+	 * @return a bag of SQL dates, as strings (yyyy-mm-dd)
+	 */
+	public List<String> dateStrings(int size) {
+		final List<String> dates = new ArrayList<String>(size);
+		for(int i = 0; i < size; i++) {
+			dates.add(String.format("%04d-%02d-%02d", 1990 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+		}
+		return dates;
+	}
+
+	/**
+	 * @param bag a bag
+	 * @return a copy of the bag, in a different order and with distinct (but equal) elements
+	 */
+	public JsonArray shuffledCopy(JsonArray bag) {
+		final List<JsonElement> elems = new ArrayList<JsonElement>(bag.size());
+		final JsonParser parser = new JsonParser();
+		for(JsonElement elem : bag) {
+			elems.add(parser.parse(elem.toString()));
+		}
+		Collections.shuffle(elems, random);
+		final JsonArray copy = new JsonArray();
+		for(JsonElement elem : elems) {
+			copy.add(elem);
+		}
+		return copy;
+	}
+
+	public static JsonObject nat(long n) {
+		final JsonObject nat = new JsonObject();
+		nat.addProperty("$nat", n);
+		return nat;
+	}
+
+	/* The seeds of the elements of a bag, some of them repeated */
+	private long[] seeds(int size, double duplicateRatio) {
+		final long[] seeds = new long[size];
+		for(int i = 0; i < size; i++) {
+			if(i > 0 && random.nextDouble() < duplicateRatio) {
+				seeds[i] = seeds[random.nextInt(i)];
+			} else {
+				seeds[i] = random.nextLong();
+			}
+		}
+		return seeds;
+	}
+
+	private static JsonObject record(Random random, int width, int depth) {
+		final JsonObject rec = new JsonObject();
+		for(int i = 0; i < width; i++) {
+			final String field = "f" + i;
+			if(depth > 0 && i == width - 1) {
+				final JsonArray nested = new JsonArray();
+				for(int j = 0; j < NESTED_SIZE; j++) {
+					nested.add(record(random, width, depth - 1));
+				}
+				rec.add(field, nested);
+			} else {
+				switch(i % 3) {
+				case 0:
+					rec.add(field, nat(random.nextInt(1 << 20)));
+					break;
+				case 1:
+					rec.addProperty(field, random.nextDouble() * 1000);
+					break;
+				default:
+					rec.addProperty(field, string(random, 12));
+					break;
+				}
+			}
+		}
+		return rec;
+	}
+
+	private static String string(Random random, int length) {
+		final char[] chars = new char[length];
+		for(int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.qcert.runtime.SqlDateComponent;
+
+import com.google.gson.*;
+
+/**
+ * SQL date operators, over a bag of dates.  The time is for the whole bag.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlDateBenchmark {
+	@Param({"1000"})
+	public int size;
+
+	private List<JsonElement> strings;
+	private List<JsonElement> dates;
+	private JsonElement pivot;
+
+	@Setup
+	public void setup() {
+		final DataGenerator gen = new DataGenerator(42);
+		strings = new ArrayList<JsonElement>(size);
+		dates = new ArrayList<JsonElement>(size);
+		for(String str : gen.dateStrings(size)) {
+			strings.add(new JsonPrimitive(str));
+			dates.add(SqlDateComponent.sql_date_from_string(new JsonPrimitive(str)));
+		}
+		pivot = SqlDateComponent.sql_date_from_string(new JsonPrimitive("2005-06-15"));
+	}
+
+	@Benchmark
+	public void sql_date_from_string(Blackhole bh) {
+		for(JsonElement str : strings) {
+			bh.consume(SqlDateComponent.sql_date_from_string(str));
+		}
+	}
+
+	@Benchmark
+	public void sql_date_get_component(Blackhole bh) {
+		for(JsonElement date : dates) {
+			bh.consume(SqlDateComponent.sql_date_get_component(SqlDateComponent.YEAR, date));
+		}
+	}
+
+	@Benchmark
+	public void sql_date_lt(Blackhole bh) {
+		for(JsonElement date : dates) {
+			bh.consume(SqlDateComponent.sql_date_lt(date, pivot));
+		}
+	}
+
+	@Benchmark
+	public void sql_date_ge(Blackhole bh) {
+		for(JsonElement date : dates) {
+			bh.consume(SqlDateComponent.sql_date_ge(date, pivot));
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.qcert.runtime.LikeMatcher;
+import org.qcert.runtime.UnaryOperators;
+import org.qcert.runtime.UnaryOperators.AnyCharLikeClause;
+import org.qcert.runtime.UnaryOperators.AnyStringLikeClause;
+import org.qcert.runtime.UnaryOperators.LikeClause;
+import org.qcert.runtime.UnaryOperators.LiteralLikeClause;
+
+import com.google.gson.*;
+
+/**
+ * SQL LIKE, for the common shapes of patterns, over a bag of strings.
+ * The time is for the whole bag.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringLikeBenchmark {
+	@Param({"1000"})
+	public int size;
+
+	@Param({"8", "64"})
+	public int length;
+
+	/* The pattern, in SQL syntax: its literals are taken from the strings so that some match */
+	@Param({"exact", "abc%", "%xyz", "%abc%", "a_c%", "%a%b%"})
+	public String pattern;
+
+	private List<JsonElement> strings;
+	private LikeMatcher matcher;
+	private LikeClause[] clauses;
+
+	@Setup
+	public void setup() {
+		final DataGenerator gen = new DataGenerator(42);
+		strings = new ArrayList<JsonElement>(size);
+		for(int i = 0; i < size; i++) {
+			strings.add(new JsonPrimitive(gen.string(length)));
+		}
+		final String sample = strings.get(0).getAsString();
+		final String like = pattern.equals("exact") ? sample : pattern;
+		matcher = LikeMatcher.compile(like);
+		clauses = parse(like);
+	}
+
+	/* Turns a LIKE pattern into clauses, as the generated code used to do */
+	private static LikeClause[] parse(String pattern) {
+		final List<LikeClause> clauses = new ArrayList<LikeClause>();
+		final StringBuilder literal = new StringBuilder();
+		for(char c : pattern.toCharArray()) {
+			if(c == '%' || c == '_') {
+				if(literal.length() > 0) {
+					clauses.add(new LiteralLikeClause(literal.toString()));
+					literal.setLength(0);
+				}
+				clauses.add(c == '%' ? new AnyStringLikeClause() : new AnyCharLikeClause());
+			} else {
+				literal.append(c);
+			}
+		}
+		if(literal.length() > 0) {
+			clauses.add(new LiteralLikeClause(literal.toString()));
+		}
+		return clauses.toArray(new LikeClause[clauses.size()]);
+	}
+
+	/* With the pattern compiled once, as in the generated code */
+	@Benchmark
+	public void string_like(Blackhole bh) {
+		for(JsonElement str : strings) {
+			bh.consume(UnaryOperators.string_like(matcher, str));
+		}
+	}
+
+	@Benchmark
+	public void string_like_clauses(Blackhole bh) {
+		for(JsonElement str : strings) {
+			bh.consume(UnaryOperators.string_like(clauses, str));
+		}
+	}
+}